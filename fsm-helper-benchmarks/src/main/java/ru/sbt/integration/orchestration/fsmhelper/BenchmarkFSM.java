@@ -0,0 +1,27 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import ru.sbt.integration.orchestration.fsmcore.FSMContext;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+
+/**
+ * Сценарий для замеров. Логики переходов нет, бенчмарки вызывают методы ExtendedFSM напрямую.
+ */
+public class BenchmarkFSM extends ExtendedFSM {
+
+    private final FSMContext context;
+
+    public BenchmarkFSM(FSMContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public FSMContext getContext() {
+        return context;
+    }
+
+    @Override
+    public Action handleEvent(Event event) {
+        return end();
+    }
+}
@@ -0,0 +1,39 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Тело сообщения, по форме похожее на типичный запрос сценария: несколько скалярных полей и вложенный список.
+ */
+public class BenchmarkPayload {
+
+    private final String clientId;
+    private final long requestNumber;
+    private final BigDecimal amount;
+    private final List<Item> items;
+
+    public BenchmarkPayload(String clientId, long requestNumber, BigDecimal amount, int itemCount) {
+        this.clientId = clientId;
+        this.requestNumber = requestNumber;
+        this.amount = amount;
+        this.items = new ArrayList<>(itemCount);
+        for (int i = 0; i < itemCount; i++)
+            items.add(new Item("item-" + i, i));
+    }
+
+    public static BenchmarkPayload sample() {
+        return new BenchmarkPayload("client-42", 100500L, new BigDecimal("1234.56"), 5);
+    }
+
+    public static class Item {
+        private final String code;
+        private final int quantity;
+
+        public Item(String code, int quantity) {
+            this.code = code;
+            this.quantity = quantity;
+        }
+    }
+}
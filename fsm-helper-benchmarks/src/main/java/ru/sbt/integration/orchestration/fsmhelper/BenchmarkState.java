@@ -0,0 +1,59 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.slf4j.MDC;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.DiscardingLogger;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.InMemoryFSMContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Общее состояние бенчмарков: сценарий на контексте-заглушке, тела и заголовки запросов.
+ * Параметр logging включает логирование fsm-helper (turnOnLogging) вместе с уровнями логгера.
+ */
+@State(Scope.Thread)
+public class BenchmarkState {
+
+    @Param({"false", "true"})
+    public boolean logging;
+
+    @Param({"10"})
+    public int parallelSize;
+
+    public BenchmarkFSM fsm;
+    public DiscardingLogger logger;
+    public BenchmarkPayload payload;
+    public Map<String, Object> headers;
+    public List<Service> services;
+    public List<Object> bodies;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        logger = new DiscardingLogger(logging);
+        fsm = new BenchmarkFSM(new InMemoryFSMContext("benchmarkScript", "tid-1", logger));
+        if (logging)
+            fsm.getLogger().turnOnLogging();
+        else
+            fsm.getLogger().turnOffLogging();
+
+        payload = BenchmarkPayload.sample();
+        headers = new HashMap<>();
+        headers.put("rqUID", "0123456789abcdef");
+        headers.put("systemId", "benchmark");
+
+        services = new ArrayList<>(Collections.<Service>nCopies(parallelSize, ServiceImpl.REMOTE_API_SAMPLE));
+        bodies = new ArrayList<>(parallelSize);
+        for (int i = 0; i < parallelSize; i++)
+            bodies.add(BenchmarkPayload.sample());
+
+        MDC.put(ExtendedFSM.STATE, "BENCHMARK");
+    }
+}
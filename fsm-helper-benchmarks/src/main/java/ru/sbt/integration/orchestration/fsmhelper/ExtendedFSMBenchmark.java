@@ -0,0 +1,100 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.sbt.integration.orchestration.fsmcore.event.EventResponseReceived;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.InMemoryMessage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Замеры горячих путей ExtendedFSM. Запуск: java -jar target/benchmarks.jar ExtendedFSMBenchmark
+ * Для оценки аллокаций добавить -prof gc.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExtendedFSMBenchmark {
+
+    private EventStartTransaction startEvent;
+    private EventResponseReceived responseEvent;
+
+    @Setup
+    public void setUp(BenchmarkState state) {
+        startEvent = new EventStartTransaction(new InMemoryMessage(state.headers, state.payload));
+        responseEvent = new EventResponseReceived(new InMemoryMessage(state.headers, state.payload));
+    }
+
+    @Benchmark
+    public Action call(BenchmarkState state) {
+        return state.fsm.call(ServiceImpl.REMOTE_API_SAMPLE, state.payload);
+    }
+
+    @Benchmark
+    public Action callWithHeaders(BenchmarkState state) {
+        return state.fsm.call(ServiceImpl.REMOTE_API_SAMPLE, state.payload, state.headers);
+    }
+
+    @Benchmark
+    public Action callWithModuleId(BenchmarkState state) {
+        return state.fsm.call(ServiceImpl.REMOTE_API_SAMPLE, state.payload, state.headers, "module-1");
+    }
+
+    @Benchmark
+    public Action scriptCall(BenchmarkState state) {
+        return state.fsm.scriptCall(ServiceImpl.REMOTE_API_SAMPLE, state.payload);
+    }
+
+    @Benchmark
+    public Action parallelCall(BenchmarkState state) {
+        return state.fsm.parallelCall(state.services, state.bodies);
+    }
+
+    @Benchmark
+    public Action parallelScriptCall(BenchmarkState state) {
+        return state.fsm.parallelScriptCall(state.services, state.bodies);
+    }
+
+    @Benchmark
+    public Action reply(BenchmarkState state) {
+        return state.fsm.reply(state.payload);
+    }
+
+    @Benchmark
+    public Action replyWithHeaders(BenchmarkState state) {
+        return state.fsm.reply(state.payload, state.headers);
+    }
+
+    @Benchmark
+    public ValueOrError<BenchmarkPayload, String> getInputStart(BenchmarkState state) {
+        return state.fsm.getInput(startEvent, BenchmarkPayload.class);
+    }
+
+    @Benchmark
+    public ValueOrError<BenchmarkPayload, String> getInputResponse(BenchmarkState state) {
+        return state.fsm.getInput(responseEvent, BenchmarkPayload.class);
+    }
+
+    @Benchmark
+    public Object getBody(BenchmarkState state) {
+        return state.fsm.getBody(responseEvent);
+    }
+
+    @Benchmark
+    public FSMHolder holder(BenchmarkState state) {
+        return state.fsm.holder();
+    }
+}
@@ -0,0 +1,101 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Замеры методов LoggerFSM при включенном и выключенном логировании.
+ * Результат логгера-заглушки возвращается из каждого замера, чтобы JIT не выбросил форматирование.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggerFSMBenchmark {
+
+    @Benchmark
+    public long logTrace(BenchmarkState state) {
+        state.fsm.getLogger().logTrace("message {} {}", "arg", 1);
+        return state.logger.getSink();
+    }
+
+    @Benchmark
+    public long logDebug(BenchmarkState state) {
+        state.fsm.getLogger().logDebug("message {} {}", "arg", 1);
+        return state.logger.getSink();
+    }
+
+    @Benchmark
+    public long logInfo(BenchmarkState state) {
+        state.fsm.getLogger().logInfo("message {} {}", "arg", 1);
+        return state.logger.getSink();
+    }
+
+    @Benchmark
+    public long logWarn(BenchmarkState state) {
+        state.fsm.getLogger().logWarn("message {} {}", "arg", 1);
+        return state.logger.getSink();
+    }
+
+    @Benchmark
+    public long logError(BenchmarkState state) {
+        state.fsm.getLogger().logError("message {} {}", "arg", 1);
+        return state.logger.getSink();
+    }
+
+    @Benchmark
+    public long logIncomingRequest(BenchmarkState state) {
+        state.fsm.getLogger().logIncomingRequest(state.payload);
+        return state.logger.getSink();
+    }
+
+    @Benchmark
+    public long logOutgoingReply(BenchmarkState state) {
+        state.fsm.getLogger().logOutgoingReply(state.headers, state.payload);
+        return state.logger.getSink();
+    }
+
+    @Benchmark
+    public long logScriptRequest(BenchmarkState state) {
+        state.fsm.getLogger().logScriptRequest(ServiceImpl.REMOTE_API_SAMPLE, 10_000, state.headers, state.payload);
+        return state.logger.getSink();
+    }
+
+    @Benchmark
+    public long logRemoteRequest(BenchmarkState state) {
+        state.fsm.getLogger().logRemoteRequest(ServiceImpl.REMOTE_API_SAMPLE, 10_000, state.headers, state.payload);
+        return state.logger.getSink();
+    }
+
+    @Benchmark
+    public long logRemoteRequestWithModuleId(BenchmarkState state) {
+        state.fsm.getLogger().logRemoteRequest(ServiceImpl.REMOTE_API_SAMPLE, 10_000, "module-1", state.headers, state.payload);
+        return state.logger.getSink();
+    }
+
+    @Benchmark
+    public long logRemoteRequestNoResponse(BenchmarkState state) {
+        state.fsm.getLogger().logRemoteRequest(ServiceImpl.REMOTE_API_SAMPLE, state.headers, state.payload);
+        return state.logger.getSink();
+    }
+
+    @Benchmark
+    public long logRetriedRequest(BenchmarkState state) {
+        state.fsm.getLogger().logRetriedRequest(ServiceImpl.REMOTE_API_SAMPLE, 2, 10_000, state.headers, state.payload);
+        return state.logger.getSink();
+    }
+
+    @Benchmark
+    public long logRemoteReply(BenchmarkState state) {
+        state.fsm.getLogger().logRemoteReply(ServiceImpl.REMOTE_API_SAMPLE, state.payload);
+        return state.logger.getSink();
+    }
+}
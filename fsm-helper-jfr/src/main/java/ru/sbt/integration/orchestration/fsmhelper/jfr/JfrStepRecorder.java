@@ -0,0 +1,126 @@
+package ru.sbt.integration.orchestration.fsmhelper.jfr;
+
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import ru.sbt.integration.orchestration.fsmhelper.ExtendedFSM;
+import ru.sbt.integration.orchestration.fsmhelper.Service;
+import ru.sbt.integration.orchestration.fsmhelper.StepRecorder;
+
+/**
+ * Запись шагов сценариев в JDK Flight Recorder. Включается один раз при старте приложения:
+ * <pre>
+ * JfrStepRecorder.install();
+ * </pre>
+ * Классы событий регистрируются при установке, поэтому при выключенной записи ExtendedFSM
+ * проверяет только флаги включенности типов событий и объекты событий не создаются.
+ * Запись: jcmd &lt;pid&gt; JFR.start settings=profile filename=fsm.jfr, разбор - StepAnalyzer.
+ */
+public final class JfrStepRecorder implements StepRecorder {
+
+    public static final JfrStepRecorder INSTANCE = new JfrStepRecorder();
+
+    private final EventType step;
+    private final EventType request;
+    private final EventType response;
+    private final EventType retry;
+
+    private JfrStepRecorder() {
+        FlightRecorder.register(StepEvent.class);
+        FlightRecorder.register(RequestEvent.class);
+        FlightRecorder.register(ResponseEvent.class);
+        FlightRecorder.register(RetryEvent.class);
+        step = EventType.getEventType(StepEvent.class);
+        request = EventType.getEventType(RequestEvent.class);
+        response = EventType.getEventType(ResponseEvent.class);
+        retry = EventType.getEventType(RetryEvent.class);
+    }
+
+    /**
+     * Устанавливает запись событий для всех сценариев JVM, см. ExtendedFSM.setStepRecorder
+     */
+    public static void install() {
+        ExtendedFSM.setStepRecorder(INSTANCE);
+    }
+
+    /**
+     * Отключает запись событий
+     */
+    public static void uninstall() {
+        if (ExtendedFSM.getStepRecorder() == INSTANCE)
+            ExtendedFSM.setStepRecorder(StepRecorder.NOOP);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return step.isEnabled() || request.isEnabled() || response.isEnabled() || retry.isEnabled();
+    }
+
+    @Override
+    public Object stepStarted(String script, String transactionId, String event, long waitMillis) {
+        if (!step.isEnabled())
+            return null;
+        StepEvent stepEvent = new StepEvent();
+        stepEvent.script = script;
+        stepEvent.transactionId = transactionId;
+        stepEvent.event = event;
+        stepEvent.waitMillis = waitMillis;
+        stepEvent.begin();
+        return stepEvent;
+    }
+
+    @Override
+    public void stepFinished(Object step, String state) {
+        if (!(step instanceof StepEvent))
+            return;
+        StepEvent stepEvent = (StepEvent) step;
+        stepEvent.end();
+        if (stepEvent.shouldCommit()) {
+            stepEvent.state = state;
+            stepEvent.commit();
+        }
+    }
+
+    @Override
+    public void requestSent(String script, String transactionId, String state, Service service, long timeout) {
+        RequestEvent event = new RequestEvent();
+        if (!event.shouldCommit())
+            return;
+        event.script = script;
+        event.transactionId = transactionId;
+        event.state = state;
+        event.service = service != null ? service.service() : null;
+        event.method = service != null ? service.method() : null;
+        event.timeout = timeout;
+        event.commit();
+    }
+
+    @Override
+    public void responseReceived(String script, String transactionId, String state, Service service, long latency, boolean timeout) {
+        ResponseEvent event = new ResponseEvent();
+        if (!event.shouldCommit())
+            return;
+        event.script = script;
+        event.transactionId = transactionId;
+        event.state = state;
+        event.service = service != null ? service.service() : null;
+        event.method = service != null ? service.method() : null;
+        event.latency = latency;
+        event.timeout = timeout;
+        event.commit();
+    }
+
+    @Override
+    public void retry(String script, String transactionId, String state, Service service, int attempt, long delay) {
+        RetryEvent event = new RetryEvent();
+        if (!event.shouldCommit())
+            return;
+        event.script = script;
+        event.transactionId = transactionId;
+        event.state = state;
+        event.service = service != null ? service.service() : null;
+        event.method = service != null ? service.method() : null;
+        event.attempt = attempt;
+        event.delay = delay;
+        event.commit();
+    }
+}
@@ -0,0 +1,25 @@
+package ru.sbt.integration.orchestration.fsmhelper.jfr;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Отправка запроса сервису
+ */
+@Name(RequestEvent.NAME)
+@Label("Scenario Request")
+class RequestEvent extends ScenarioEvent {
+
+    static final String NAME = "ru.sbt.fsmhelper.Request";
+
+    @Label("Service")
+    String service;
+
+    @Label("Method")
+    String method;
+
+    @Label("Timeout")
+    @Timespan(Timespan.MILLISECONDS)
+    long timeout;
+}
@@ -0,0 +1,28 @@
+package ru.sbt.integration.orchestration.fsmhelper.jfr;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Ответ сервиса или таймаут ожидания ответа
+ */
+@Name(ResponseEvent.NAME)
+@Label("Scenario Response")
+class ResponseEvent extends ScenarioEvent {
+
+    static final String NAME = "ru.sbt.fsmhelper.Response";
+
+    @Label("Service")
+    String service;
+
+    @Label("Method")
+    String method;
+
+    @Label("Latency")
+    @Timespan(Timespan.MILLISECONDS)
+    long latency;
+
+    @Label("Timeout")
+    boolean timeout;
+}
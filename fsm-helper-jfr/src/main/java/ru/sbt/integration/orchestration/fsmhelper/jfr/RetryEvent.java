@@ -0,0 +1,28 @@
+package ru.sbt.integration.orchestration.fsmhelper.jfr;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Повторная отправка запроса RetryFSM
+ */
+@Name(RetryEvent.NAME)
+@Label("Scenario Retry")
+class RetryEvent extends ScenarioEvent {
+
+    static final String NAME = "ru.sbt.fsmhelper.Retry";
+
+    @Label("Service")
+    String service;
+
+    @Label("Method")
+    String method;
+
+    @Label("Attempt")
+    int attempt;
+
+    @Label("Delay")
+    @Timespan(Timespan.MILLISECONDS)
+    long delay;
+}
@@ -0,0 +1,23 @@
+package ru.sbt.integration.orchestration.fsmhelper.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Общие поля событий сценария: сценарий, транзакция и состояние (MDC ExtendedFSM.STATE)
+ */
+@Category({"Orchestration", "FSM Helper"})
+@StackTrace(false)
+abstract class ScenarioEvent extends Event {
+
+    @Label("Script")
+    String script;
+
+    @Label("Transaction ID")
+    String transactionId;
+
+    @Label("State")
+    String state;
+}
@@ -0,0 +1,300 @@
+package ru.sbt.integration.orchestration.fsmhelper.jfr;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Разбор записи JFR с событиями JfrStepRecorder: время транзакций по сценариям и разбивка по состояниям
+ * самых медленных сценариев. Ожидание между шагами относится к состоянию, в котором транзакция ждала,
+ * то есть к состоянию на конец предыдущего шага.
+ * <pre>
+ * java -cp fsm-helper-jfr.jar:fsm-helper.jar ru.sbt.integration.orchestration.fsmhelper.jfr.StepAnalyzer fsm.jfr [количество сценариев]
+ * </pre>
+ */
+public final class StepAnalyzer {
+
+    private static final int DEFAULT_TOP = 5;
+    private static final String UNKNOWN = "-";
+
+    private final List<Step> steps = new ArrayList<>();
+    private final Map<String, Script> scripts = new HashMap<>();
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: StepAnalyzer <recording.jfr> [scripts]");
+            System.exit(1);
+        }
+        StepAnalyzer analyzer = read(Paths.get(args[0]));
+        analyzer.print(System.out, args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_TOP);
+    }
+
+    /**
+     * Метод читает запись JFR
+     *
+     * @param file - файл записи
+     * @return StepAnalyzer с результатами разбора
+     */
+    public static StepAnalyzer read(Path file) throws IOException {
+        StepAnalyzer analyzer = new StepAnalyzer();
+        try (RecordingFile recording = new RecordingFile(file)) {
+            while (recording.hasMoreEvents())
+                analyzer.accept(recording.readEvent());
+        }
+        analyzer.complete();
+        return analyzer;
+    }
+
+    private void accept(RecordedEvent event) {
+        switch (event.getEventType().getName()) {
+            case StepEvent.NAME:
+                steps.add(new Step(event.getString("script"), event.getString("transactionId"), event.getString("state"),
+                        event.getStartTime().getEpochSecond() * 1_000_000 + event.getStartTime().getNano() / 1000,
+                        event.getDuration().toNanos() / 1000, event.getLong("waitMillis")));
+                break;
+            case ResponseEvent.NAME:
+                Samples latency = script(event.getString("script")).service(event.getString("service"), event.getString("method"));
+                latency.add(event.getLong("latency") * 1000);
+                if (event.getBoolean("timeout"))
+                    latency.failures++;
+                break;
+            case RetryEvent.NAME:
+                script(event.getString("script")).service(event.getString("service"), event.getString("method")).retries++;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Собирает шаги в транзакции по времени начала
+     */
+    private void complete() {
+        steps.sort(Comparator.comparingLong(step -> step.startMicros));
+        Map<String, Transaction> transactions = new HashMap<>();
+        for (Step step : steps) {
+            Script script = script(step.script);
+            String key = step.script + '/' + step.transactionId;
+            Transaction transaction = transactions.get(key);
+            if (transaction == null) {
+                transaction = new Transaction(script);
+                transactions.put(key, transaction);
+            }
+            String state = step.state != null ? step.state : UNKNOWN;
+            script.state(state).add(step.durationMicros);
+            transaction.totalMicros += step.durationMicros;
+            if (transaction.lastState != null && step.waitMillis >= 0) {
+                script.state(transaction.lastState).getWaits().add(step.waitMillis * 1000);
+                transaction.totalMicros += step.waitMillis * 1000;
+            }
+            transaction.lastState = state;
+        }
+        for (Transaction transaction : transactions.values())
+            transaction.script.transactions.add(transaction.totalMicros);
+        steps.clear();
+    }
+
+    private Script script(String name) {
+        return scripts.computeIfAbsent(name != null ? name : UNKNOWN, Script::new);
+    }
+
+    /**
+     * @return сценарии по убыванию 95-го перцентиля времени транзакции
+     */
+    public List<Script> getSlowestScripts() {
+        List<Script> result = new ArrayList<>(scripts.values());
+        result.sort(Comparator.comparingLong((Script script) -> script.transactions.percentile(0.95)).reversed());
+        return result;
+    }
+
+    /**
+     * Метод выводит разбивку по состояниям top самых медленных сценариев
+     */
+    public void print(PrintStream out, int top) {
+        List<Script> slowest = getSlowestScripts();
+        for (Script script : slowest.subList(0, Math.min(top, slowest.size()))) {
+            Samples total = script.transactions;
+            out.printf("%s: transactions=%d p50=%s p95=%s p99=%s max=%s%n", script.name, total.size(),
+                    ms(total.percentile(0.5)), ms(total.percentile(0.95)), ms(total.percentile(0.99)), ms(total.max()));
+            long all = 0;
+            for (Samples state : script.states.values())
+                all += state.sum() + state.getWaits().sum();
+            out.printf("  %-24s %8s %9s %9s %9s %9s %9s %9s %6s%n",
+                    "state", "steps", "p50", "p95", "p99", "max", "wait p50", "wait p95", "share");
+            for (Map.Entry<String, Samples> entry : script.states.entrySet()) {
+                Samples state = entry.getValue();
+                out.printf("  %-24s %8d %9s %9s %9s %9s %9s %9s %5.1f%%%n", entry.getKey(), state.size(),
+                        ms(state.percentile(0.5)), ms(state.percentile(0.95)), ms(state.percentile(0.99)), ms(state.max()),
+                        ms(state.getWaits().percentile(0.5)), ms(state.getWaits().percentile(0.95)),
+                        all > 0 ? 100.0 * (state.sum() + state.getWaits().sum()) / all : 0.0);
+            }
+            if (!script.services.isEmpty()) {
+                out.printf("  %-24s %8s %9s %9s %9s %9s %9s%n", "service", "responses", "p50", "p95", "p99", "timeouts", "retries");
+                for (Map.Entry<String, Samples> entry : script.services.entrySet()) {
+                    Samples service = entry.getValue();
+                    out.printf("  %-24s %8d %9s %9s %9s %9d %9d%n", entry.getKey(), service.size(),
+                            ms(service.percentile(0.5)), ms(service.percentile(0.95)), ms(service.percentile(0.99)),
+                            service.failures, service.retries);
+                }
+            }
+            out.println();
+        }
+    }
+
+    private static String ms(long micros) {
+        return String.format("%.2f", micros / 1000.0);
+    }
+
+    private static final class Step {
+        final String script;
+        final String transactionId;
+        final String state;
+        final long startMicros;
+        final long durationMicros;
+        final long waitMillis;
+
+        Step(String script, String transactionId, String state, long startMicros, long durationMicros, long waitMillis) {
+            this.script = script;
+            this.transactionId = transactionId;
+            this.state = state;
+            this.startMicros = startMicros;
+            this.durationMicros = durationMicros;
+            this.waitMillis = waitMillis;
+        }
+    }
+
+    private static final class Transaction {
+        final Script script;
+        String lastState;
+        long totalMicros;
+
+        Transaction(Script script) {
+            this.script = script;
+        }
+    }
+
+    /**
+     * Статистика сценария: время транзакций, шагов по состояниям и ответов сервисов
+     */
+    public static final class Script {
+        private final String name;
+        private final Samples transactions = new Samples();
+        private final Map<String, Samples> states = new LinkedHashMap<>();
+        private final Map<String, Samples> services = new LinkedHashMap<>();
+
+        Script(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return время транзакций в мкс: сумма шагов и ожиданий между ними
+         */
+        public Samples getTransactions() {
+            return transactions;
+        }
+
+        /**
+         * @return длительность шагов в мкс по состояниям, Samples.getWaits - ожидание в состоянии
+         */
+        public Map<String, Samples> getStates() {
+            return states;
+        }
+
+        /**
+         * @return время ответа в мкс по сервисам
+         */
+        public Map<String, Samples> getServices() {
+            return services;
+        }
+
+        Samples state(String state) {
+            return states.computeIfAbsent(state, s -> new Samples());
+        }
+
+        Samples service(String service, String method) {
+            return services.computeIfAbsent((service != null ? service : UNKNOWN) + '.' + (method != null ? method : UNKNOWN),
+                    s -> new Samples());
+        }
+    }
+
+    /**
+     * Набор измерений в мкс
+     */
+    public static final class Samples {
+        private long[] values = new long[16];
+        private int size;
+        private boolean sorted = true;
+        private Samples waits;
+        private long failures;
+        private long retries;
+
+        void add(long value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+            sorted = false;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long sum() {
+            long sum = 0;
+            for (int i = 0; i < size; i++)
+                sum += values[i];
+            return sum;
+        }
+
+        public long max() {
+            return percentile(1.0);
+        }
+
+        /**
+         * @param quantile - от 0 до 1
+         * @return значение перцентиля, 0 - если измерений нет
+         */
+        public long percentile(double quantile) {
+            if (size == 0)
+                return 0;
+            if (!sorted) {
+                Arrays.sort(values, 0, size);
+                sorted = true;
+            }
+            int index = (int) Math.ceil(quantile * size) - 1;
+            return values[Math.max(0, Math.min(size - 1, index))];
+        }
+
+        /**
+         * @return ожидание следующего события в состоянии, для статистики состояний
+         */
+        public Samples getWaits() {
+            if (waits == null)
+                waits = new Samples();
+            return waits;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package ru.sbt.integration.orchestration.fsmhelper.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Шаг сценария: от начала обработки события до создания действия
+ */
+@Name(StepEvent.NAME)
+@Label("Scenario Step")
+@Description("Processing of one event by an ExtendedFSM scenario")
+class StepEvent extends ScenarioEvent {
+
+    static final String NAME = "ru.sbt.fsmhelper.Step";
+
+    @Label("Event")
+    String event;
+
+    @Label("Wait Before Step")
+    @Description("Time since the previous step of the transaction ended, -1 if unknown")
+    @Timespan(Timespan.MILLISECONDS)
+    long waitMillis;
+}
@@ -0,0 +1,183 @@
+package ru.sbt.integration.orchestration.fsmhelper.testkit;
+
+import org.slf4j.helpers.MarkerIgnoringBase;
+import org.slf4j.helpers.MessageFormatter;
+
+/**
+ * Логгер-заглушка. Форматирует сообщение так же, как это делает бэкенд slf4j, но никуда его не пишет,
+ * т.о. в замер попадает стоимость подготовки сообщения без стоимости аппендеров.
+ */
+public class DiscardingLogger extends MarkerIgnoringBase {
+
+    private final boolean enabled;
+    private long sink;
+
+    public DiscardingLogger(boolean enabled) {
+        this.enabled = enabled;
+        this.name = "fsm-helper-testkit";
+    }
+
+    /**
+     * Суммарная длина отформатированных сообщений, не дает JIT выбросить форматирование
+     */
+    public long getSink() {
+        return sink;
+    }
+
+    private void format(String msg, Object... args) {
+        if (enabled) {
+            String message = MessageFormatter.arrayFormat(msg, args).getMessage();
+            sink += message.length();
+        }
+    }
+
+    @Override
+    public boolean isTraceEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void trace(String msg) {
+        format(msg);
+    }
+
+    @Override
+    public void trace(String format, Object arg) {
+        format(format, arg);
+    }
+
+    @Override
+    public void trace(String format, Object arg1, Object arg2) {
+        format(format, arg1, arg2);
+    }
+
+    @Override
+    public void trace(String format, Object... arguments) {
+        format(format, arguments);
+    }
+
+    @Override
+    public void trace(String msg, Throwable t) {
+        format(msg, t);
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void debug(String msg) {
+        format(msg);
+    }
+
+    @Override
+    public void debug(String format, Object arg) {
+        format(format, arg);
+    }
+
+    @Override
+    public void debug(String format, Object arg1, Object arg2) {
+        format(format, arg1, arg2);
+    }
+
+    @Override
+    public void debug(String format, Object... arguments) {
+        format(format, arguments);
+    }
+
+    @Override
+    public void debug(String msg, Throwable t) {
+        format(msg, t);
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void info(String msg) {
+        format(msg);
+    }
+
+    @Override
+    public void info(String format, Object arg) {
+        format(format, arg);
+    }
+
+    @Override
+    public void info(String format, Object arg1, Object arg2) {
+        format(format, arg1, arg2);
+    }
+
+    @Override
+    public void info(String format, Object... arguments) {
+        format(format, arguments);
+    }
+
+    @Override
+    public void info(String msg, Throwable t) {
+        format(msg, t);
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void warn(String msg) {
+        format(msg);
+    }
+
+    @Override
+    public void warn(String format, Object arg) {
+        format(format, arg);
+    }
+
+    @Override
+    public void warn(String format, Object arg1, Object arg2) {
+        format(format, arg1, arg2);
+    }
+
+    @Override
+    public void warn(String format, Object... arguments) {
+        format(format, arguments);
+    }
+
+    @Override
+    public void warn(String msg, Throwable t) {
+        format(msg, t);
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void error(String msg) {
+        format(msg);
+    }
+
+    @Override
+    public void error(String format, Object arg) {
+        format(format, arg);
+    }
+
+    @Override
+    public void error(String format, Object arg1, Object arg2) {
+        format(format, arg1, arg2);
+    }
+
+    @Override
+    public void error(String format, Object... arguments) {
+        format(format, arguments);
+    }
+
+    @Override
+    public void error(String msg, Throwable t) {
+        format(msg, t);
+    }
+}
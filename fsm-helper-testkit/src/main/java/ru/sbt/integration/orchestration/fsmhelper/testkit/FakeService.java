@@ -0,0 +1,54 @@
+package ru.sbt.integration.orchestration.fsmhelper.testkit;
+
+import ru.sbt.integration.orchestration.fsmcore.messages.SimpleMessage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Фейковый удаленный сервис или подсценарий, отвечающий на запросы сценария в LoadRunner.
+ */
+@FunctionalInterface
+public interface FakeService {
+
+    /**
+     * @param request - сообщение, отправленное сценарием
+     * @return тело ответа
+     */
+    Object answer(SimpleMessage request);
+
+    /**
+     * @param request - сообщение, отправленное сценарием
+     * @return заголовки ответа, по умолчанию - копия заголовков запроса
+     */
+    default Map<String, Object> replyHeaders(SimpleMessage request) {
+        return request.getHeaders() != null ? new HashMap<>(request.getHeaders()) : new HashMap<String, Object>();
+    }
+
+    /**
+     * @param headers - заголовки ответа по сообщению, отправленному сценарием
+     * @return сервис с теми же ответами, но с заголовками headers
+     */
+    default FakeService withReplyHeaders(Function<SimpleMessage, Map<String, Object>> headers) {
+        FakeService answer = this;
+        return new FakeService() {
+            @Override
+            public Object answer(SimpleMessage request) {
+                return answer.answer(request);
+            }
+
+            @Override
+            public Map<String, Object> replyHeaders(SimpleMessage request) {
+                return headers.apply(request);
+            }
+        };
+    }
+
+    /**
+     * @return сервис, который возвращает тело запроса без изменений
+     */
+    static FakeService echo() {
+        return SimpleMessage::getBody;
+    }
+}
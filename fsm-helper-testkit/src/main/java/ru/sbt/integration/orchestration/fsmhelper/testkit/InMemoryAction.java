@@ -0,0 +1,108 @@
+package ru.sbt.integration.orchestration.fsmhelper.testkit;
+
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmcore.messages.SimpleMessage;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Действие, созданное InMemoryActionFactory. Хранит все, что нужно LoadRunner, чтобы его исполнить.
+ */
+public class InMemoryAction implements Action {
+
+    public enum Kind {
+        REMOTE_CALL, REMOTE_CALL_NO_RESPONSE, SCRIPT_CALL, PARALLEL_CALL, REPLY, RAISE_EVENT, WAIT, FINISH, ERROR_FINISH
+    }
+
+    /**
+     * Один исходящий запрос: на удаленный сервис или в подсценарий.
+     */
+    public static class Call {
+        private final String target;
+        private final SimpleMessage message;
+        private final long timeout;
+        private final String moduleId;
+
+        public Call(String target, SimpleMessage message, long timeout, String moduleId) {
+            this.target = target;
+            this.message = message;
+            this.timeout = timeout;
+            this.moduleId = moduleId;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        public SimpleMessage getMessage() {
+            return message;
+        }
+
+        public long getTimeout() {
+            return timeout;
+        }
+
+        public String getModuleId() {
+            return moduleId;
+        }
+    }
+
+    private final Kind kind;
+    private final List<Call> calls;
+    private final SimpleMessage message;
+    private final long timeout;
+    private final String eventName;
+    private final Exception error;
+
+    InMemoryAction(Kind kind, List<Call> calls, SimpleMessage message, long timeout, String eventName, Exception error) {
+        this.kind = kind;
+        this.calls = calls;
+        this.message = message;
+        this.timeout = timeout;
+        this.eventName = eventName;
+        this.error = error;
+    }
+
+    static InMemoryAction calls(Kind kind, List<Call> calls) {
+        return new InMemoryAction(kind, calls, null, 0, null, null);
+    }
+
+    static InMemoryAction of(Kind kind) {
+        return new InMemoryAction(kind, Collections.<Call>emptyList(), null, 0, null, null);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return исходящие запросы действия, для действий без запросов - пустой список
+     */
+    public List<Call> getCalls() {
+        return calls;
+    }
+
+    public SimpleMessage getMessage() {
+        return message;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public String getEventName() {
+        return eventName;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * @return true, если после действия сценарий ожидает ответ
+     */
+    public boolean awaitsResponse() {
+        return kind == Kind.REMOTE_CALL || kind == Kind.SCRIPT_CALL || kind == Kind.PARALLEL_CALL || kind == Kind.WAIT;
+    }
+}
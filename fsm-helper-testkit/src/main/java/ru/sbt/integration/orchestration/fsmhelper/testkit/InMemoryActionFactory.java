@@ -0,0 +1,80 @@
+package ru.sbt.integration.orchestration.fsmhelper.testkit;
+
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmcore.messages.ActionFactory;
+import ru.sbt.integration.orchestration.fsmcore.messages.SimpleMessage;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.InMemoryAction.Call;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.InMemoryAction.Kind;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Фабрика действий, которая ничего не отправляет, а создает InMemoryAction для исполнения в LoadRunner.
+ */
+public class InMemoryActionFactory implements ActionFactory {
+
+    private static final Action FINISH = InMemoryAction.of(Kind.FINISH);
+
+    @Override
+    public Action RemoteCall(String service, SimpleMessage message, long timeout) {
+        return RemoteCall(service, message, timeout, null);
+    }
+
+    @Override
+    public Action RemoteCall(String service, SimpleMessage message, long timeout, String moduleId) {
+        return InMemoryAction.calls(Kind.REMOTE_CALL, Collections.singletonList(new Call(service, message, timeout, moduleId)));
+    }
+
+    @Override
+    public Action RemoteCallNoResponse(String service, SimpleMessage message) {
+        return InMemoryAction.calls(Kind.REMOTE_CALL_NO_RESPONSE, Collections.singletonList(new Call(service, message, 0, null)));
+    }
+
+    @Override
+    public Action ScriptCall(String script, SimpleMessage message, long timeout) {
+        return InMemoryAction.calls(Kind.SCRIPT_CALL, Collections.singletonList(new Call(script, message, timeout, null)));
+    }
+
+    @Override
+    public Action ParallelCall(RemoteCallArgs[] args) {
+        List<Call> calls = new ArrayList<>(args.length);
+        for (RemoteCallArgs arg : args)
+            calls.add(new Call(arg.getService(), arg.getMessage(), arg.getTimeout(), null));
+        return InMemoryAction.calls(Kind.PARALLEL_CALL, calls);
+    }
+
+    @Override
+    public Action ParallelCall(ScriptCallArgs[] args) {
+        List<Call> calls = new ArrayList<>(args.length);
+        for (ScriptCallArgs arg : args)
+            calls.add(new Call(arg.getService(), arg.getMessage(), arg.getTimeout(), null));
+        return InMemoryAction.calls(Kind.PARALLEL_CALL, calls);
+    }
+
+    @Override
+    public Action Reply(SimpleMessage message) {
+        return new InMemoryAction(Kind.REPLY, Collections.<Call>emptyList(), message, 0, null, null);
+    }
+
+    @Override
+    public Action RaiseEvent(String eventName) {
+        return new InMemoryAction(Kind.RAISE_EVENT, Collections.<Call>emptyList(), null, 0, eventName, null);
+    }
+
+    @Override
+    public Action Wait(long timeout) {
+        return new InMemoryAction(Kind.WAIT, Collections.<Call>emptyList(), null, timeout, null, null);
+    }
+
+    @Override
+    public Action FinishExecution() {
+        return FINISH;
+    }
+
+    @Override
+    public Action ErrorFinishExecution(Exception e) {
+        return new InMemoryAction(Kind.ERROR_FINISH, Collections.<Call>emptyList(), null, 0, null, e);
+    }
+}
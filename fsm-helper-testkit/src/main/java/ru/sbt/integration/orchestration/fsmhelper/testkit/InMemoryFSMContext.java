@@ -0,0 +1,75 @@
+package ru.sbt.integration.orchestration.fsmhelper.testkit;
+
+import org.slf4j.Logger;
+import ru.sbt.integration.orchestration.fsmcore.FSMContext;
+import ru.sbt.integration.orchestration.fsmcore.messages.ActionFactory;
+import ru.sbt.integration.orchestration.fsmcore.messages.MessageFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Контекст одной транзакции сценария, живущий целиком в памяти процесса.
+ */
+public class InMemoryFSMContext implements FSMContext {
+
+    private static final ActionFactory ACTION_FACTORY = new InMemoryActionFactory();
+    private static final MessageFactory MESSAGE_FACTORY = new InMemoryMessageFactory();
+
+    private final Map<String, Object> stateData = new HashMap<>();
+    private final InMemoryGlobalContext globalContext;
+    private final String serviceName;
+    private final String transactionId;
+    private final Logger logger;
+
+    public InMemoryFSMContext(String serviceName, String transactionId, Logger logger) {
+        this(serviceName, transactionId, logger, new InMemoryGlobalContext());
+    }
+
+    public InMemoryFSMContext(String serviceName, String transactionId, Logger logger, InMemoryGlobalContext globalContext) {
+        this.serviceName = serviceName;
+        this.transactionId = transactionId;
+        this.logger = logger;
+        this.globalContext = globalContext;
+    }
+
+    @Override
+    public ActionFactory getActionFactory() {
+        return ACTION_FACTORY;
+    }
+
+    @Override
+    public MessageFactory getMessageFactory() {
+        return MESSAGE_FACTORY;
+    }
+
+    @Override
+    public Map<String, Object> getStateData() {
+        return stateData;
+    }
+
+    @Override
+    public void putToGlobalContext(String key, Object value, long storageDuration) {
+        globalContext.put(key, value, storageDuration);
+    }
+
+    @Override
+    public Object getFromGlobalContext(String key) {
+        return globalContext.get(key);
+    }
+
+    @Override
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    @Override
+    public String getTransactionID() {
+        return transactionId;
+    }
+
+    @Override
+    public Logger getLogger() {
+        return logger;
+    }
+}
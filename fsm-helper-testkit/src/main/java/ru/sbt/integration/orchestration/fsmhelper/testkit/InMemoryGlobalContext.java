@@ -0,0 +1,41 @@
+package ru.sbt.integration.orchestration.fsmhelper.testkit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Глобальный контекст, общий для всех транзакций одного прогона. Учитывает время хранения ключа.
+ */
+public class InMemoryGlobalContext {
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param storageDuration - время хранения в мс, значение меньше или равное 0 - без ограничения
+     */
+    public void put(String key, Object value, long storageDuration) {
+        long expiresAt = storageDuration > 0 ? System.currentTimeMillis() + storageDuration : Long.MAX_VALUE;
+        entries.put(key, new Entry(value, expiresAt));
+    }
+
+    public Object get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+        if (entry.expiresAt < System.currentTimeMillis()) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private final long expiresAt;
+
+        private Entry(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package ru.sbt.integration.orchestration.fsmhelper.testkit;
+
+import ru.sbt.integration.orchestration.fsmcore.messages.SimpleMessage;
+
+import java.util.Map;
+
+public class InMemoryMessage implements SimpleMessage {
+
+    private final Map<String, Object> headers;
+    private final Object body;
+
+    public InMemoryMessage(Map<String, Object> headers, Object body) {
+        this.headers = headers;
+        this.body = body;
+    }
+
+    @Override
+    public Map<String, Object> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public Object getBody() {
+        return body;
+    }
+}
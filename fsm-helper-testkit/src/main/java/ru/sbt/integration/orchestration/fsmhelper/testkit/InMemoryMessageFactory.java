@@ -0,0 +1,14 @@
+package ru.sbt.integration.orchestration.fsmhelper.testkit;
+
+import ru.sbt.integration.orchestration.fsmcore.messages.MessageFactory;
+import ru.sbt.integration.orchestration.fsmcore.messages.SimpleMessage;
+
+import java.util.Map;
+
+public class InMemoryMessageFactory implements MessageFactory {
+
+    @Override
+    public SimpleMessage createSimpleMessage(Map<String, Object> headers, Object body) {
+        return new InMemoryMessage(headers, body);
+    }
+}
@@ -0,0 +1,24 @@
+package ru.sbt.integration.orchestration.fsmhelper.testkit;
+
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+
+/**
+ * Событие, поднятое сценарием действием RaiseEvent. LoadRunner передает его в handleEvent следующим шагом.
+ */
+public class InMemoryRaisedEvent implements Event {
+
+    private final String eventName;
+
+    public InMemoryRaisedEvent(String eventName) {
+        this.eventName = eventName;
+    }
+
+    public String getEventName() {
+        return eventName;
+    }
+
+    @Override
+    public String toString() {
+        return "RaisedEvent(" + eventName + ")";
+    }
+}
@@ -0,0 +1,210 @@
+package ru.sbt.integration.orchestration.fsmhelper.testkit;
+
+import org.slf4j.MDC;
+import ru.sbt.integration.orchestration.fsmcore.FSM;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventResponseReceived;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.event.EventTimeout;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmcore.messages.SimpleMessage;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.InMemoryAction.Call;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LoadRunner.FakeServiceBinding;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Одна транзакция сценария в LoadRunner. Шаги транзакции исполняются строго последовательно,
+ * ответы сервисов, пришедшие одновременно, ждут завершения текущего шага.
+ * <p>
+ * Как и ядро, транзакция передает в handleEvent: ответы сервисов - EventResponseReceived, таймаут запроса
+ * или действия Wait - EventTimeout, событие действия RaiseEvent - InMemoryRaisedEvent. Ответ, пришедший позже
+ * таймаута запроса, не передается. Ожидание Wait отменяется любым следующим событием.
+ */
+class InMemoryTransaction {
+
+    /**
+     * Ключ MDC с текущим шагом сценария, см. ExtendedFSM.STATE
+     */
+    private static final String STATE = "state";
+
+    enum Outcome {
+        COMPLETED, FAILED, TIMED_OUT
+    }
+
+    private final LoadRunner.Run run;
+    private final FSM fsm;
+    private final InMemoryFSMContext context;
+    private final SimpleMessage start;
+    private long startedAt;
+    private int pending;
+    private int raised;
+    private long waitGeneration;
+    private boolean waiting;
+    private boolean finished;
+
+    InMemoryTransaction(LoadRunner.Run run, FSM fsm, InMemoryFSMContext context, Map<String, Object> headers, Object request) {
+        this.run = run;
+        this.fsm = fsm;
+        this.context = context;
+        this.start = context.getMessageFactory().createSimpleMessage(headers, request);
+    }
+
+    synchronized void start() {
+        startedAt = System.nanoTime();
+        fsm.setContext(context);
+        if (run.transactionTimeout > 0)
+            run.timer.schedule(() -> run.workers.execute(this::expire), run.transactionTimeout, TimeUnit.MILLISECONDS);
+        step(new EventStartTransaction(start));
+    }
+
+    private void step(Event event) {
+        if (finished)
+            return;
+        // any event cancels the current Wait
+        waiting = false;
+        waitGeneration++;
+        MDC.remove(STATE);
+        long allocatedBefore = LoadRunner.allocatedBytes();
+        long stepStartedAt = System.nanoTime();
+        Action action;
+        try {
+            action = fsm.handleEvent(event);
+        } catch (RuntimeException e) {
+            action = null;
+        }
+        long duration = System.nanoTime() - stepStartedAt;
+        long allocated = LoadRunner.allocatedBytes() - allocatedBefore;
+        String state = MDC.get(STATE);
+        run.recordStep(state != null ? state : event.getClass().getSimpleName(), duration, allocated);
+        execute(action);
+    }
+
+    private void execute(Action action) {
+        if (!(action instanceof InMemoryAction)) {
+            finish(Outcome.FAILED);
+            return;
+        }
+        InMemoryAction inMemoryAction = (InMemoryAction) action;
+        switch (inMemoryAction.getKind()) {
+            case FINISH:
+                finish(Outcome.COMPLETED);
+                return;
+            case ERROR_FINISH:
+                finish(Outcome.FAILED);
+                return;
+            case REMOTE_CALL:
+            case SCRIPT_CALL:
+            case PARALLEL_CALL:
+                for (Call call : inMemoryAction.getCalls()) {
+                    if (!send(call)) {
+                        finish(Outcome.FAILED);
+                        return;
+                    }
+                }
+                break;
+            case REMOTE_CALL_NO_RESPONSE:
+                for (Call call : inMemoryAction.getCalls()) {
+                    if (!notify(call)) {
+                        finish(Outcome.FAILED);
+                        return;
+                    }
+                }
+                break;
+            case RAISE_EVENT:
+                raised++;
+                String eventName = inMemoryAction.getEventName();
+                run.workers.execute(() -> raise(eventName));
+                break;
+            case WAIT:
+                waiting = true;
+                long generation = waitGeneration;
+                run.timer.schedule(() -> run.workers.execute(() -> waitTimeout(generation)),
+                        inMemoryAction.getTimeout(), TimeUnit.MILLISECONDS);
+                break;
+            default:
+                break;
+        }
+        if (pending == 0 && raised == 0 && !waiting)
+            finish(inMemoryAction.awaitsResponse() ? Outcome.TIMED_OUT : Outcome.COMPLETED);
+    }
+
+    private boolean send(Call call) {
+        FakeServiceBinding service = run.service(call.getTarget());
+        if (service == null)
+            return false;
+        long delay = service.latency.nextDelay(ThreadLocalRandom.current());
+        pending++;
+        if (call.getTimeout() > 0 && delay > call.getTimeout())
+            run.timer.schedule(() -> run.workers.execute(this::timeout), call.getTimeout(), TimeUnit.MILLISECONDS);
+        else
+            run.timer.schedule(() -> run.workers.execute(() -> respond(service, call)), delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * Запрос без ожидания ответа: фейковый сервис вызывается, ответ сценарию не передается
+     */
+    private boolean notify(Call call) {
+        FakeServiceBinding service = run.service(call.getTarget());
+        if (service == null)
+            return false;
+        run.workers.execute(() -> {
+            try {
+                service.answer.answer(call.getMessage());
+            } catch (RuntimeException e) {
+                // nobody awaits the response
+            }
+        });
+        return true;
+    }
+
+    private synchronized void respond(FakeServiceBinding service, Call call) {
+        if (finished)
+            return;
+        pending--;
+        Object body;
+        Map<String, Object> headers;
+        try {
+            body = service.answer.answer(call.getMessage());
+            headers = service.answer.replyHeaders(call.getMessage());
+        } catch (RuntimeException e) {
+            finish(Outcome.FAILED);
+            return;
+        }
+        step(new EventResponseReceived(context.getMessageFactory().createSimpleMessage(headers, body)));
+    }
+
+    private synchronized void timeout() {
+        if (finished)
+            return;
+        pending--;
+        step(new EventTimeout());
+    }
+
+    private synchronized void waitTimeout(long generation) {
+        if (finished || generation != waitGeneration)
+            return;
+        step(new EventTimeout());
+    }
+
+    private synchronized void raise(String eventName) {
+        if (finished)
+            return;
+        raised--;
+        step(new InMemoryRaisedEvent(eventName));
+    }
+
+    private synchronized void expire() {
+        finish(Outcome.TIMED_OUT);
+    }
+
+    private void finish(Outcome outcome) {
+        if (finished)
+            return;
+        finished = true;
+        run.finished(outcome, System.nanoTime() - startedAt);
+    }
+}
@@ -0,0 +1,40 @@
+package ru.sbt.integration.orchestration.fsmhelper.testkit;
+
+import java.util.Random;
+
+/**
+ * Распределение времени ответа фейкового сервиса.
+ */
+public interface LatencyDistribution {
+
+    /**
+     * @param random - генератор потока, исполняющего запрос
+     * @return задержка ответа в мс
+     */
+    long nextDelay(Random random);
+
+    static LatencyDistribution fixed(long millis) {
+        return random -> millis;
+    }
+
+    static LatencyDistribution uniform(long minMillis, long maxMillis) {
+        if (maxMillis < minMillis)
+            throw new IllegalArgumentException("max latency is less than min latency");
+        return random -> minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+    }
+
+    static LatencyDistribution exponential(double meanMillis) {
+        return random -> Math.round(-meanMillis * Math.log(1 - random.nextDouble()));
+    }
+
+    /**
+     * Логнормальное распределение, хорошо описывает реальные сервисы с длинным хвостом.
+     *
+     * @param medianMillis - медиана задержки
+     * @param sigma        - разброс, чем больше, тем длиннее хвост
+     */
+    static LatencyDistribution logNormal(double medianMillis, double sigma) {
+        double mu = Math.log(medianMillis);
+        return random -> Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+    }
+}
@@ -0,0 +1,42 @@
+package ru.sbt.integration.orchestration.fsmhelper.testkit;
+
+import java.util.Arrays;
+
+/**
+ * Накопитель замеров одного шага сценария: длительность шага в нс и выделенная им память в байтах.
+ */
+class LatencyRecorder {
+
+    private long[] durations = new long[256];
+    private int count;
+    private long allocatedBytes;
+
+    synchronized void record(long durationNanos, long allocated) {
+        if (count == durations.length)
+            durations = Arrays.copyOf(durations, count * 2);
+        durations[count++] = durationNanos;
+        if (allocated > 0)
+            allocatedBytes += allocated;
+    }
+
+    synchronized StateStats snapshot(String name) {
+        long[] sorted = Arrays.copyOf(durations, count);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long duration : sorted)
+            total += duration;
+        return new StateStats(name, count,
+                count == 0 ? 0 : total / count,
+                percentile(sorted, 0.5),
+                percentile(sorted, 0.99),
+                count == 0 ? 0 : sorted[count - 1],
+                count == 0 ? 0 : allocatedBytes / count);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0)
+            return 0;
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
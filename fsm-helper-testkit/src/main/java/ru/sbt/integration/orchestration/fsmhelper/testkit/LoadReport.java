@@ -0,0 +1,84 @@
+package ru.sbt.integration.orchestration.fsmhelper.testkit;
+
+import java.util.Map;
+
+/**
+ * Результат прогона LoadRunner.
+ */
+public class LoadReport {
+
+    private final long transactions;
+    private final long completed;
+    private final long failed;
+    private final long timedOut;
+    private final long elapsedMillis;
+    private final StateStats transactionStats;
+    private final Map<String, StateStats> stateStats;
+
+    LoadReport(long transactions, long completed, long failed, long timedOut, long elapsedMillis,
+               StateStats transactionStats, Map<String, StateStats> stateStats) {
+        this.transactions = transactions;
+        this.completed = completed;
+        this.failed = failed;
+        this.timedOut = timedOut;
+        this.elapsedMillis = elapsedMillis;
+        this.transactionStats = transactionStats;
+        this.stateStats = stateStats;
+    }
+
+    public long getTransactions() {
+        return transactions;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return транзакции, не завершенные за LoadRunner.withTransactionTimeout, и транзакции, которые ждут ответ,
+     * не отправив ни одного запроса
+     */
+    public long getTimedOut() {
+        return timedOut;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return количество завершенных транзакций в секунду
+     */
+    public double getThroughput() {
+        return elapsedMillis == 0 ? 0 : transactions * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * @return время транзакции целиком, от старта до завершения, включая ожидание ответов сервисов
+     */
+    public StateStats getTransactionStats() {
+        return transactionStats;
+    }
+
+    /**
+     * @return статистика по шагам сценария, ключ - значение MDC state после шага
+     */
+    public Map<String, StateStats> getStateStats() {
+        return stateStats;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder()
+                .append(String.format("transactions:%d completed:%d failed:%d timed out:%d elapsed:%dms throughput:%.1f tps%n",
+                        transactions, completed, failed, timedOut, elapsedMillis, getThroughput()))
+                .append(transactionStats).append(System.lineSeparator());
+        for (StateStats stats : stateStats.values())
+            report.append(stats).append(System.lineSeparator());
+        return report.toString();
+    }
+}
@@ -0,0 +1,229 @@
+package ru.sbt.integration.orchestration.fsmhelper.testkit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.sbt.integration.orchestration.fsmcore.FSM;
+import ru.sbt.integration.orchestration.fsmhelper.Service;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Прогон множества параллельных транзакций сценария без оркестровщика.
+ * Удаленные сервисы и подсценарии заменяются фейковыми сервисами с заданным распределением задержки ответа.
+ * <p>
+ * Пример:
+ * <pre>
+ * LoadReport report = LoadRunner.forScenario(MyScenario::new)
+ *         .withTransactions(10_000)
+ *         .withConcurrency(200)
+ *         .withRequests(i -&gt; new MyRequest(i))
+ *         .withService(ServiceImpl.REMOTE_API_SAMPLE, LatencyDistribution.logNormal(20, 0.5), FakeService.echo())
+ *         .run();
+ * </pre>
+ */
+public class LoadRunner {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final Supplier<? extends FSM> scenario;
+    private final Map<String, FakeServiceBinding> services = new HashMap<>();
+    private final InMemoryGlobalContext globalContext = new InMemoryGlobalContext();
+    private String scenarioName = "scenario";
+    private int transactions = 1_000;
+    private int concurrency = 100;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long transactionTimeout = 60_000;
+    private IntFunction<?> requests = i -> null;
+    private Map<String, Object> headers = Collections.emptyMap();
+    private Logger logger;
+
+    private LoadRunner(Supplier<? extends FSM> scenario) {
+        this.scenario = scenario;
+    }
+
+    /**
+     * @param scenario - фабрика сценария, вызывается один раз на транзакцию
+     */
+    public static LoadRunner forScenario(Supplier<? extends FSM> scenario) {
+        return new LoadRunner(scenario);
+    }
+
+    public LoadRunner withScenarioName(String scenarioName) {
+        this.scenarioName = scenarioName;
+        return this;
+    }
+
+    public LoadRunner withTransactions(int transactions) {
+        this.transactions = transactions;
+        return this;
+    }
+
+    /**
+     * @param concurrency - максимальное количество одновременно незавершенных транзакций
+     */
+    public LoadRunner withConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * @param threads - количество рабочих потоков, исполняющих шаги сценария
+     */
+    public LoadRunner withThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Транзакция, не завершенная за это время, прерывается и учитывается как TIMED_OUT.
+     * Защищает прогон от сценария, который ждет бесконечно.
+     *
+     * @param transactionTimeout - таймаут транзакции в мс, 0 - без ограничения
+     */
+    public LoadRunner withTransactionTimeout(long transactionTimeout) {
+        this.transactionTimeout = transactionTimeout;
+        return this;
+    }
+
+    /**
+     * @param requests - фабрика тела стартового сообщения по номеру транзакции
+     */
+    public LoadRunner withRequests(IntFunction<?> requests) {
+        this.requests = requests;
+        return this;
+    }
+
+    public LoadRunner withHeaders(Map<String, Object> headers) {
+        this.headers = headers;
+        return this;
+    }
+
+    /**
+     * По умолчанию используется логгер slf4j с именем сценария, т.о. в замер попадает стоимость настроенного бэкенда.
+     */
+    public LoadRunner withLogger(Logger logger) {
+        this.logger = logger;
+        return this;
+    }
+
+    public LoadRunner withService(Service service, LatencyDistribution latency, FakeService answer) {
+        return withService(service.service(), latency, answer);
+    }
+
+    public LoadRunner withService(String service, LatencyDistribution latency, FakeService answer) {
+        services.put(service, new FakeServiceBinding(latency, answer));
+        return this;
+    }
+
+    public LoadReport run() throws InterruptedException {
+        Run run = new Run();
+        long startedAt = System.nanoTime();
+        try {
+            for (int i = 0; i < transactions; i++) {
+                run.inFlight.acquire();
+                InMemoryFSMContext context = new InMemoryFSMContext(scenarioName, scenarioName + "-" + i,
+                        logger != null ? logger : LoggerFactory.getLogger(scenarioName), globalContext);
+                InMemoryTransaction transaction = new InMemoryTransaction(run, scenario.get(), context,
+                        new HashMap<>(headers), requests.apply(i));
+                run.workers.execute(transaction::start);
+            }
+            run.done.await();
+        } finally {
+            run.workers.shutdownNow();
+            run.timer.shutdownNow();
+        }
+        return run.report(System.nanoTime() - startedAt);
+    }
+
+    static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return 0;
+    }
+
+    static final class FakeServiceBinding {
+        final LatencyDistribution latency;
+        final FakeService answer;
+
+        private FakeServiceBinding(LatencyDistribution latency, FakeService answer) {
+            this.latency = latency;
+            this.answer = answer;
+        }
+    }
+
+    /**
+     * Состояние одного прогона, общее для всех транзакций.
+     */
+    final class Run {
+        final ExecutorService workers = Executors.newFixedThreadPool(threads, daemon("fsm-worker"));
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(daemon("fsm-timer"));
+        final Semaphore inFlight = new Semaphore(concurrency);
+        final long transactionTimeout = LoadRunner.this.transactionTimeout;
+        final CountDownLatch done = new CountDownLatch(transactions);
+        private final ConcurrentMap<String, LatencyRecorder> states = new ConcurrentHashMap<>();
+        private final LatencyRecorder transactionRecorder = new LatencyRecorder();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder timedOut = new LongAdder();
+
+        FakeServiceBinding service(String name) {
+            return services.get(name);
+        }
+
+        void recordStep(String state, long durationNanos, long allocated) {
+            states.computeIfAbsent(state, s -> new LatencyRecorder()).record(durationNanos, allocated);
+        }
+
+        void finished(InMemoryTransaction.Outcome outcome, long durationNanos) {
+            switch (outcome) {
+                case COMPLETED:
+                    completed.increment();
+                    break;
+                case FAILED:
+                    failed.increment();
+                    break;
+                case TIMED_OUT:
+                    timedOut.increment();
+                    break;
+            }
+            transactionRecorder.record(durationNanos, 0);
+            inFlight.release();
+            done.countDown();
+        }
+
+        LoadReport report(long elapsedNanos) {
+            Map<String, StateStats> stateStats = new LinkedHashMap<>();
+            for (Map.Entry<String, LatencyRecorder> state : new TreeMap<>(states).entrySet())
+                stateStats.put(state.getKey(), state.getValue().snapshot(state.getKey()));
+            return new LoadReport(transactions, completed.sum(), failed.sum(), timedOut.sum(), elapsedNanos / 1_000_000,
+                    transactionRecorder.snapshot("transaction"), stateStats);
+        }
+    }
+
+    private static ThreadFactory daemon(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,68 @@
+package ru.sbt.integration.orchestration.fsmhelper.testkit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Статистика одного шага (состояния) сценария за прогон. Времена в нс.
+ */
+public class StateStats {
+
+    private final String state;
+    private final long count;
+    private final long mean;
+    private final long p50;
+    private final long p99;
+    private final long max;
+    private final long allocatedBytesPerStep;
+
+    StateStats(String state, long count, long mean, long p50, long p99, long max, long allocatedBytesPerStep) {
+        this.state = state;
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.max = max;
+        this.allocatedBytesPerStep = allocatedBytesPerStep;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMean() {
+        return mean;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return среднее количество байт, выделенных за шаг, 0 если JVM не поддерживает замер
+     */
+    public long getAllocatedBytesPerStep() {
+        return allocatedBytesPerStep;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-30s count:%8d mean:%8dus p50:%8dus p99:%8dus max:%8dus alloc:%8dB/step",
+                state, count, micros(mean), micros(p50), micros(p99), micros(max), allocatedBytesPerStep);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,62 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveTimeoutTest {
+
+    private static final AdaptiveTimeoutConfig CONFIG = AdaptiveTimeoutConfig.of(99, 2, 30, 500, 3, 500);
+
+    @Test
+    public void timeoutFollowsObservedLatency() throws InterruptedException {
+        TestService service = new TestService().withTimeout(1_000).withAdaptiveTimeout(CONFIG);
+        assertEquals(1_000, AdaptiveTimeout.timeoutOf(service));
+
+        TestRunners.single(() -> new Scenario(service))
+                .withTransactions(4)
+                .withService(service, random -> 20, request -> "reply")
+                .run();
+        // the computed value is cached for a tenth of the window
+        Thread.sleep(60);
+
+        int timeout = AdaptiveTimeout.timeoutOf(service);
+        assertTrue("timeout " + timeout, timeout >= 36 && timeout < 100);
+    }
+
+    @Test
+    public void timeoutIsClampedToFloorAndServiceTimeout() throws InterruptedException {
+        TestService fast = new TestService().withTimeout(1_000).withAdaptiveTimeout(CONFIG);
+        TestService capped = new TestService().withTimeout(100).withAdaptiveTimeout(CONFIG);
+        for (int i = 0; i < 3; i++) {
+            AdaptiveTimeout.forService(fast).record(1);
+            AdaptiveTimeout.forService(capped).record(400);
+        }
+        Thread.sleep(60);
+
+        assertEquals(30, AdaptiveTimeout.timeoutOf(fast));
+        assertEquals(100, AdaptiveTimeout.timeoutOf(capped));
+    }
+
+    private static class Scenario extends ExtendedFSM {
+        private final Service service;
+
+        Scenario(Service service) {
+            this.service = service;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            if (event instanceof EventStartTransaction) {
+                getBody(event);
+                return call(service, "request");
+            }
+            getInput(event, String.class);
+            return end();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.MessageFormatter;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.DiscardingLogger;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.InMemoryFSMContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncLogPipelineTest {
+
+    private final RecordingLogger logger = new RecordingLogger();
+
+    @Test
+    public void failedRecordIsCountedAsDroppedAndReported() {
+        AsyncLogPipeline pipeline = new AsyncLogPipeline(16, 4, AsyncLogPipeline.OverflowPolicy.DROP, 1).start();
+
+        assertTrue(pipeline.offer(logger, Level.INFO, "boom", new Object[0]));
+        assertTrue(pipeline.offer(logger, Level.INFO, "ok {}", new Object[]{1}));
+        pipeline.close();
+
+        assertEquals(1, pipeline.getWritten());
+        assertEquals(1, pipeline.getDropped());
+        assertEquals(1, logger.messages.size());
+        assertEquals(1, logger.failures.size());
+    }
+
+    @Test
+    public void pipelineThatIsNotRunningRejectsRecords() {
+        AsyncLogPipeline pipeline = new AsyncLogPipeline(16, 4, AsyncLogPipeline.OverflowPolicy.BLOCK, 1);
+
+        assertFalse(pipeline.offer(logger, Level.INFO, "ok", new Object[0]));
+        pipeline.start().close();
+        assertFalse(pipeline.offer(logger, Level.INFO, "ok", new Object[0]));
+        assertEquals(0, pipeline.getDropped());
+    }
+
+    @Test
+    public void startAndCloseAreIdempotent() {
+        AsyncLogPipeline pipeline = new AsyncLogPipeline(16, 4, AsyncLogPipeline.OverflowPolicy.DROP, 1);
+
+        assertSame(pipeline, pipeline.start());
+        assertSame(pipeline, pipeline.start());
+        pipeline.close();
+        pipeline.close();
+        pipeline.start();
+        assertFalse(pipeline.isRunning());
+    }
+
+    @Test
+    public void payloadIsRenderedBeforeItLeavesScenarioThread() throws InterruptedException {
+        ExtendedFSM fsm = scenario();
+        AsyncLogPipeline pipeline = new AsyncLogPipeline(16, 4, AsyncLogPipeline.OverflowPolicy.DROP, 1).start();
+        fsm.getLogger().turnOnAsyncLogging(pipeline);
+        fsm.getLogger().turnOnLogging();
+        List<String> reply = new ArrayList<>(Collections.singletonList("sent"));
+
+        // the worker is busy until the payload has been changed
+        fsm.getLogger().logInfo("wait");
+        fsm.getLogger().logOutgoingReply(null, reply);
+        reply.add("changed after log");
+        logger.release.countDown();
+        pipeline.close();
+
+        assertEquals(2, logger.messages.size());
+        assertTrue(logger.messages.get(1), logger.messages.get(1).contains("payload:\"[sent]\""));
+    }
+
+    @Test
+    public void loggerWritesSynchronouslyWhenPipelineIsNotRunning() {
+        ExtendedFSM fsm = scenario();
+        AsyncLogPipeline pipeline = new AsyncLogPipeline(16, 4, AsyncLogPipeline.OverflowPolicy.DROP, 1);
+        fsm.getLogger().turnOnAsyncLogging(pipeline);
+
+        fsm.getLogger().logInfo("before start");
+        assertEquals(1, logger.messages.size());
+
+        pipeline.start();
+        fsm.getLogger().logInfo("while running");
+        pipeline.close();
+        assertEquals(2, logger.messages.size());
+        assertEquals(1, pipeline.getWritten());
+
+        fsm.getLogger().logInfo("after close");
+        assertEquals(3, logger.messages.size());
+    }
+
+    private ExtendedFSM scenario() {
+        ExtendedFSM fsm = new ExtendedFSM() {
+            @Override
+            public Action handleEvent(Event event) {
+                return null;
+            }
+        };
+        fsm.setContext(new InMemoryFSMContext("scenario", "tid", logger));
+        return fsm;
+    }
+
+    private static final class RecordingLogger extends DiscardingLogger {
+        private final List<String> messages = new CopyOnWriteArrayList<>();
+        private final List<Throwable> failures = new CopyOnWriteArrayList<>();
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        RecordingLogger() {
+            super(true);
+        }
+
+        @Override
+        public void info(String format, Object... arguments) {
+            if (format.startsWith("boom"))
+                throw new ConcurrentModificationException();
+            if (format.endsWith("wait")) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            messages.add(MessageFormatter.arrayFormat(format, arguments).getMessage());
+        }
+
+        @Override
+        public void info(String msg) {
+            info(msg, new Object[0]);
+        }
+
+        @Override
+        public void warn(String msg, Throwable t) {
+            failures.add(t);
+        }
+    }
+}
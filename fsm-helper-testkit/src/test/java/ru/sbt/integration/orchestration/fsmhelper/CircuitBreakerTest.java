@@ -0,0 +1,136 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.event.EventTimeout;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LoadReport;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CircuitBreakerTest {
+
+    private static final CircuitBreakerConfig CONFIG = CircuitBreakerConfig.of(0.5, 2, 1_000, 30, 1);
+
+    @Test
+    public void breakerIsSharedByServiceAndMethod() {
+        String name = "breaker-shared-" + System.nanoTime();
+        CircuitBreaker breaker = CircuitBreaker.forService(new TestService(name).withCircuitBreaker(CONFIG));
+
+        assertSame(breaker, CircuitBreaker.forService(new TestService(name).withCircuitBreaker(CONFIG)));
+    }
+
+    @Test
+    public void lateResponseDoesNotCloseHalfOpenBreaker() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(CONFIG);
+        long sentBeforeOpen = System.currentTimeMillis();
+        breaker.onFailure(sentBeforeOpen);
+        breaker.onFailure(sentBeforeOpen);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(40);
+        assertEquals(true, breaker.tryAcquire());
+        long probeSentAt = System.currentTimeMillis();
+        breaker.onSuccess(sentBeforeOpen);
+        breaker.onFailure(sentBeforeOpen);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        breaker.onSuccess(probeSentAt);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void errorReplyReplacesSuccessFromPreviousBucket() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(CONFIG);
+        long bucketMillis = CONFIG.getWindowMillis() / 10;
+        long sentAt = System.currentTimeMillis();
+        breaker.onSuccess(sentAt);
+
+        Thread.sleep(bucketMillis - System.currentTimeMillis() % bucketMillis + 1);
+        breaker.onErrorReply(sentAt);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.onFailure(System.currentTimeMillis());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void openBreakerRejectsCallsWithoutSending() throws InterruptedException {
+        TestService service = new TestService().withTimeout(20).withCircuitBreaker(CONFIG);
+        AtomicInteger requests = new AtomicInteger();
+
+        LoadReport report = TestRunners.single(() -> new Scenario(service))
+                .withTransactions(5)
+                .withService(service, random -> {
+                    requests.incrementAndGet();
+                    return 200;
+                }, request -> "late")
+                .run();
+
+        assertEquals(2, requests.get());
+        assertEquals(2, report.getCompleted());
+        assertEquals(3, report.getFailed());
+    }
+
+    @Test
+    public void errorRepliesOpenBreaker() throws InterruptedException {
+        TestService service = new TestService().withCircuitBreaker(CONFIG);
+        AtomicInteger requests = new AtomicInteger();
+
+        LoadReport report = TestRunners.single(() -> new ErrorReplyScenario(service))
+                .withTransactions(5)
+                .withService(service, random -> {
+                    requests.incrementAndGet();
+                    return 1;
+                }, request -> "error")
+                .run();
+
+        assertEquals(2, requests.get());
+        assertEquals(CircuitBreaker.State.OPEN, CircuitBreaker.forService(service).getState());
+        assertEquals(3, report.getFailed());
+    }
+
+    private static class Scenario extends ExtendedFSM {
+        private final Service service;
+
+        Scenario(Service service) {
+            this.service = service;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            if (event instanceof EventStartTransaction) {
+                getBody(event);
+                return call(service, "request");
+            }
+            if (event instanceof EventTimeout)
+                registerTimeout();
+            return end();
+        }
+    }
+
+    private static class ErrorReplyScenario extends ExtendedFSM {
+        private final Service service;
+
+        ErrorReplyScenario(Service service) {
+            this.service = service;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            if (event instanceof EventStartTransaction) {
+                getBody(event);
+                return call(service, "request");
+            }
+            getInput(event, String.class).fold(reply -> {
+                if ("error".equals(reply))
+                    registerError();
+            }, error -> registerError());
+            return end();
+        }
+    }
+}
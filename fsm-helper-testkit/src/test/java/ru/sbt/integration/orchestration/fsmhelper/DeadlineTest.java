@@ -0,0 +1,43 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.event.EventTimeout;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LoadReport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeadlineTest {
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void deprecatedScriptCallTimeoutIsClampedToDeadline() throws InterruptedException {
+        TestService service = new TestService();
+        boolean[] timedOut = new boolean[1];
+
+        LoadReport report = TestRunners.single(() -> new ExtendedFSM() {
+            @Override
+            protected long transactionTimeout() {
+                return 50;
+            }
+
+            @Override
+            public Action handleEvent(Event event) {
+                if (event instanceof EventStartTransaction) {
+                    getBody(event);
+                    return scriptCall(service, "request", 5_000, null);
+                }
+                if (event instanceof EventTimeout)
+                    timedOut[0] = true;
+                return end();
+            }
+        }).withService(service, random -> 2_000, request -> "late").run();
+
+        assertEquals(1, report.getCompleted());
+        assertTrue(timedOut[0]);
+        assertTrue(report.getElapsedMillis() < 1_000);
+    }
+}
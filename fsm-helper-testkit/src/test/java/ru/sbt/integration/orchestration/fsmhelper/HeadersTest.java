@@ -0,0 +1,79 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LoadReport;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class HeadersTest {
+
+    @Test
+    public void copiesShareTableUntilWritten() {
+        Headers source = Headers.empty().with("a", 1).with("b", 2);
+        Headers copy = Headers.of(source);
+
+        copy.put("a", 10);
+        source.put("c", 3);
+
+        assertEquals(1, source.get("a"));
+        assertEquals(10, copy.get("a"));
+        assertNull(copy.get("c"));
+        assertEquals(3, source.size());
+    }
+
+    @Test
+    public void largeHeadersSpillToHashMap() {
+        Headers headers = Headers.empty();
+        for (int i = 0; i <= Headers.MAX_ARRAY_SIZE; i++)
+            headers.put("h" + i, i);
+        headers.remove("h0");
+
+        assertEquals(Headers.MAX_ARRAY_SIZE, headers.size());
+        assertEquals(Headers.MAX_ARRAY_SIZE, headers.get("h" + Headers.MAX_ARRAY_SIZE));
+        assertNull(headers.get("h0"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void sharedEmptyIsImmutable() {
+        assertSame(Headers.EMPTY, Headers.builder().build());
+        Headers.EMPTY.put("a", 1);
+    }
+
+    @Test
+    public void sharedCallerHeadersAreNotChangedBySend() throws InterruptedException {
+        TestService service = new TestService();
+        Map<String, Object> shared = Headers.of(Collections.singletonMap("tag", "x"));
+        Set<Object> indexes = ConcurrentHashMap.newKeySet();
+
+        LoadReport report = TestRunners.single(() -> new ExtendedFSM() {
+            @Override
+            public Action handleEvent(Event event) {
+                if (event instanceof EventStartTransaction) {
+                    getBody(event);
+                    return parallelCall(Collections.<Service>nCopies(3, service), Collections.<Object>nCopies(3, "request"),
+                            Collections.nCopies(3, shared));
+                }
+                getInput(event, String.class);
+                return holder().getBatch().getReceived() < 3 ? waitAction(1_000) : end();
+            }
+        }).withService(service, random -> 1, request -> {
+            assertEquals("x", request.getHeaders().get("tag"));
+            indexes.add(request.getHeaders().get(ExtendedFSM.PARALLEL_INDEX_HEADER));
+            return "reply";
+        }).run();
+
+        assertEquals(1, report.getCompleted());
+        assertEquals(3, indexes.size());
+        assertEquals(Collections.singletonMap("tag", "x"), shared);
+    }
+}
@@ -0,0 +1,100 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.event.EventTimeout;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LoadReport;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HedgeTest {
+
+    @Test
+    public void duplicateAnswersWhenFirstCopyIsSlow() throws InterruptedException {
+        TestService service = new TestService().withTimeout(1_000).withHedgePolicy(HedgePolicy.fixed(20));
+        AtomicInteger requests = new AtomicInteger();
+
+        LoadReport report = TestRunners.single(() -> new Scenario(service))
+                .withService(service, random -> requests.incrementAndGet() == 1 ? 5_000 : 10, request -> "reply")
+                .run();
+
+        assertEquals(2, requests.get());
+        assertEquals(1, report.getCompleted());
+        assertTrue(report.getElapsedMillis() < 1_000);
+    }
+
+    @Test
+    public void noDuplicateWhenFirstCopyAnswersInTime() throws InterruptedException {
+        TestService service = new TestService().withTimeout(1_000).withHedgePolicy(HedgePolicy.fixed(200));
+        AtomicInteger requests = new AtomicInteger();
+
+        LoadReport report = TestRunners.single(() -> new Scenario(service))
+                .withTransactions(3)
+                .withService(service, random -> {
+                    requests.incrementAndGet();
+                    return 10;
+                }, request -> "reply")
+                .run();
+
+        assertEquals(3, requests.get());
+        assertEquals(3, report.getCompleted());
+    }
+
+    @Test
+    public void hedgeHoldsItsOwnPermit() throws InterruptedException {
+        TestService service = new TestService().withTimeout(300).withHedgePolicy(HedgePolicy.fixed(20))
+                .withLimit(ServiceLimitConfig.of(0, 0, 2, ServiceLimitConfig.Policy.FAIL_FAST, 0));
+        AtomicInteger requests = new AtomicInteger();
+
+        LoadReport report = TestRunners.single(() -> new Scenario(service))
+                .withService(service, random -> requests.incrementAndGet() == 1 ? 1_000 : 10, request -> "reply")
+                .run();
+
+        assertEquals(2, requests.get());
+        assertEquals(1, report.getCompleted());
+        assertEquals(0, ServiceLimiter.forService(service).getInFlight());
+    }
+
+    @Test
+    public void hedgeIsSkippedWithoutPermit() throws InterruptedException {
+        TestService service = new TestService().withTimeout(100).withHedgePolicy(HedgePolicy.fixed(20))
+                .withLimit(ServiceLimitConfig.of(0, 0, 1, ServiceLimitConfig.Policy.FAIL_FAST, 0));
+        AtomicInteger requests = new AtomicInteger();
+
+        LoadReport report = TestRunners.single(() -> new Scenario(service))
+                .withService(service, random -> {
+                    requests.incrementAndGet();
+                    return 1_000;
+                }, request -> "late")
+                .run();
+
+        assertEquals(1, requests.get());
+        assertEquals(1, report.getFailed());
+    }
+
+    private static class Scenario extends ExtendedFSM {
+        private final Service service;
+
+        Scenario(Service service) {
+            this.service = service;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            if (event instanceof EventStartTransaction) {
+                getBody(event);
+                return hedgedCall(service, "request");
+            }
+            if (event instanceof EventTimeout)
+                return hedge();
+            if (!acceptHedgedResponse(event))
+                return waitAction(1_000);
+            return end();
+        }
+    }
+}
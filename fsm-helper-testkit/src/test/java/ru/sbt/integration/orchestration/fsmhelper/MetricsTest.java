@@ -0,0 +1,94 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.event.EventTimeout;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+    private final InMemoryMetricsRegistry registry = new InMemoryMetricsRegistry();
+    private MetricsRegistry previous;
+
+    @Before
+    public void setUp() {
+        previous = ExtendedFSM.getMetricsRegistry();
+        ExtendedFSM.setMetricsRegistry(registry);
+    }
+
+    @After
+    public void tearDown() {
+        ExtendedFSM.setMetricsRegistry(previous);
+    }
+
+    @Test
+    public void histogramKeepsRelativePrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1_000; i++)
+            histogram.record(i);
+
+        assertEquals(1_000, histogram.getCount());
+        assertEquals(1_000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 500.5 / 16);
+        assertEquals(500, histogram.getValueAtPercentile(50), 500 / 16);
+        assertEquals(990, histogram.getValueAtPercentile(99), 990 / 16);
+    }
+
+    @Test
+    public void latencyAndTimeoutsAreRecordedPerService() throws InterruptedException {
+        TestService fast = new TestService().withTimeout(1_000);
+        TestService slow = new TestService().withTimeout(10);
+
+        TestRunners.single(() -> new Scenario(fast))
+                .withTransactions(3)
+                .withService(fast, random -> 30, request -> "reply")
+                .run();
+        TestRunners.single(() -> new Scenario(slow))
+                .withTransactions(2)
+                .withService(slow, random -> 200, request -> "late")
+                .run();
+
+        ServiceMetrics fastMetrics = metricsOf(fast);
+        assertEquals(3, fastMetrics.getLatency().getCount());
+        assertTrue(fastMetrics.getLatency().getValueAtPercentile(50) >= 28);
+        assertEquals(0, fastMetrics.getTimeouts());
+
+        ServiceMetrics slowMetrics = metricsOf(slow);
+        assertEquals(0, slowMetrics.getLatency().getCount());
+        assertEquals(2, slowMetrics.getTimeouts());
+    }
+
+    private ServiceMetrics metricsOf(Service service) {
+        for (ServiceMetrics metrics : registry.getMetrics())
+            if (metrics.getService().equals(service.service()) && metrics.getMethod().equals(service.method()))
+                return metrics;
+        throw new AssertionError("no metrics for " + service.service());
+    }
+
+    private static class Scenario extends ExtendedFSM {
+        private final Service service;
+
+        Scenario(Service service) {
+            this.service = service;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            if (event instanceof EventStartTransaction) {
+                getBody(event);
+                return call(service, "request");
+            }
+            if (event instanceof EventTimeout)
+                registerTimeout();
+            else
+                getInput(event, String.class);
+            return end();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.FakeService;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.InMemoryRaisedEvent;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LoadReport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelBatchTest {
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final List<Object> results = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void windowedCallKeepsResultsInRequestOrder() throws InterruptedException {
+        TestService service = new TestService();
+
+        LoadReport report = TestRunners.single(() -> new Scenario(service))
+                .withService(service, random -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    return 5 + random.nextInt(20);
+                }, request -> {
+                    inFlight.decrementAndGet();
+                    return request.getBody() + "-" + request.getHeaders().get("tag");
+                })
+                .run();
+
+        assertEquals(1, report.getCompleted());
+        assertEquals(Arrays.asList("a-0", "b-1", "c-2", "d-3", "e-4"), results);
+        assertTrue(maxInFlight.get() <= 2);
+    }
+
+    @Test
+    public void replyIsCorrelatedOnlyByIndex() throws InterruptedException {
+        TestService service = new TestService().withTimeout(50);
+
+        LoadReport report = TestRunners.single(() -> new Scenario(service))
+                .withService(service, random -> 1, FakeService.echo().withReplyHeaders(request -> {
+                    Map<String, Object> headers = new HashMap<>(request.getHeaders());
+                    Object index = headers.get(ExtendedFSM.PARALLEL_INDEX_HEADER);
+                    // the transport passes headers as strings, and one reply loses its index
+                    if ("c".equals(request.getBody()))
+                        headers.remove(ExtendedFSM.PARALLEL_INDEX_HEADER);
+                    else
+                        headers.put(ExtendedFSM.PARALLEL_INDEX_HEADER, String.valueOf(index));
+                    return headers;
+                }))
+                .run();
+
+        assertEquals(1, report.getCompleted());
+        assertEquals(Arrays.asList("a", "b", null, "d", "e"), results);
+    }
+
+    @Test
+    public void indexIsParsedFromNumberOrString() {
+        ParallelBatch batch = new ParallelBatch(Arrays.<Service>asList(new TestService(), new TestService()),
+                Arrays.<Object>asList("a", "b"), null, false, 2, 0, null);
+        batch.sent(0, 0, 100);
+        batch.sent(1, 0, 100);
+
+        assertEquals(1, batch.correlate(1L));
+        assertEquals(1, batch.correlate(" 1"));
+        assertEquals(-1, batch.correlate("one"));
+        assertEquals(-1, batch.correlate(2));
+        assertEquals(-1, batch.correlate(null));
+        batch.received(1, "b");
+        assertEquals(-1, batch.correlate("1"));
+        assertNull(batch.getResult(0));
+    }
+
+    private class Scenario extends ExtendedFSM {
+        private final Service service;
+
+        Scenario(Service service) {
+            this.service = service;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            if (event instanceof EventStartTransaction) {
+                getBody(event);
+                List<Object> bodies = Arrays.asList("a", "b", "c", "d", "e");
+                List<Map<String, Object>> headers = new ArrayList<>();
+                for (int i = 0; i < bodies.size(); i++)
+                    headers.add(Collections.singletonMap("tag", i));
+                return windowedParallelCall(Collections.nCopies(bodies.size(), service), bodies, headers, 2);
+            }
+            if (event instanceof InMemoryRaisedEvent) {
+                results.addAll(holder().getBatch().getResults());
+                return end();
+            }
+            return parallelNext(event);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.InMemoryRaisedEvent;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LoadReport;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelQuorumTest {
+
+    private volatile ParallelBatch completed;
+
+    @Test
+    public void callCompletesOnceQuorumAnswers() throws InterruptedException {
+        TestService fast = new TestService().withTimeout(1_000);
+        TestService slow = new TestService().withTimeout(1_000);
+
+        LoadReport report = TestRunners.single(() -> new Scenario(Arrays.<Service>asList(fast, slow, fast), 2))
+                .withService(fast, random -> 10, request -> "fast")
+                .withService(slow, random -> 500, request -> "slow")
+                .run();
+
+        assertEquals(1, report.getCompleted());
+        assertTrue(report.getElapsedMillis() < 500);
+        assertTrue(completed.isQuorumReached());
+        assertEquals(2, completed.getReceived());
+        assertTrue(completed.isReceived(0));
+        assertFalse(completed.isReceived(1));
+        assertEquals("fast", completed.getResult(2));
+    }
+
+    @Test
+    public void callCompletesWhenQuorumIsUnreachable() throws InterruptedException {
+        TestService fast = new TestService().withTimeout(1_000);
+        TestService slow = new TestService().withTimeout(30);
+
+        LoadReport report = TestRunners.single(() -> new Scenario(Arrays.<Service>asList(slow, slow, fast), 2))
+                .withService(fast, random -> 300, request -> "fast")
+                .withService(slow, random -> 1_000, request -> "slow")
+                .run();
+
+        assertEquals(1, report.getCompleted());
+        assertTrue(report.getElapsedMillis() < 300);
+        assertFalse(completed.isQuorumReached());
+        assertEquals(2, completed.getFailed());
+    }
+
+    private class Scenario extends ExtendedFSM {
+        private final List<Service> services;
+        private final int quorum;
+
+        Scenario(List<Service> services, int quorum) {
+            this.services = services;
+            this.quorum = quorum;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            if (event instanceof EventStartTransaction) {
+                getBody(event);
+                return parallelCallQuorum(services, Collections.<Object>nCopies(services.size(), "request"), quorum);
+            }
+            if (event instanceof InMemoryRaisedEvent) {
+                completed = holder().getBatch();
+                return end();
+            }
+            return parallelNext(event);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.event.EventTimeout;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LoadReport;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelResultsTest {
+
+    private volatile List<ValueOrError<String, String>> values;
+
+    @Test
+    public void repliesAreStoredByRequestIndex() throws InterruptedException {
+        TestService slow = new TestService();
+        TestService fast = new TestService();
+        Map<String, Object> callerHeaders = new HashMap<>();
+        callerHeaders.put("tag", "x");
+
+        LoadReport report = TestRunners.single(() -> new Scenario(Arrays.<Service>asList(slow, fast, slow), callerHeaders))
+                .withService(slow, random -> 60, request -> "slow-" + request.getBody())
+                .withService(fast, random -> 5, request -> "fast-" + request.getBody())
+                .run();
+
+        assertEquals(1, report.getCompleted());
+        assertEquals("slow-0", values.get(0).get());
+        assertEquals("fast-1", values.get(1).get());
+        assertEquals("slow-2", values.get(2).get());
+        // the caller's headers are copied, not mutated
+        assertEquals(Collections.singletonMap("tag", "x"), callerHeaders);
+    }
+
+    @Test
+    public void timedOutSlotIsReportedAsError() throws InterruptedException {
+        TestService fast = new TestService();
+        TestService slow = new TestService().withTimeout(30);
+
+        TestRunners.single(() -> new Scenario(Arrays.<Service>asList(fast, slow), null))
+                .withService(fast, random -> 5, request -> "fast")
+                .withService(slow, random -> 1_000, request -> "slow")
+                .run();
+
+        assertEquals("fast", values.get(0).get());
+        assertTrue(values.get(1).isError());
+    }
+
+    private class Scenario extends ExtendedFSM {
+        private final List<Service> services;
+        private final Map<String, Object> headers;
+
+        Scenario(List<Service> services, Map<String, Object> headers) {
+            this.services = services;
+            this.headers = headers;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            if (event instanceof EventStartTransaction) {
+                getBody(event);
+                return parallelCall(services, Arrays.<Object>asList(0, 1, 2).subList(0, services.size()),
+                        Collections.nCopies(services.size(), headers));
+            }
+            if (event instanceof EventTimeout)
+                registerTimeout();
+            else
+                getInput(event, String.class);
+            ParallelBatch batch = holder().getBatch();
+            if (batch.getReceived() + batch.getFailed() < batch.size())
+                return waitAction(1_000);
+            values = batch.getValues();
+            return end();
+        }
+    }
+}
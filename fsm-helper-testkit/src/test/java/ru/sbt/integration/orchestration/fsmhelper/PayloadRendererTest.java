@@ -0,0 +1,104 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.DiscardingLogger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadRendererTest {
+
+    @Test
+    public void rendersFieldsOnOneLineWithoutStatics() {
+        assertEquals("Payload[name=a, next=null]", PayloadRenderer.DEFAULT.render(new Payload("a")));
+    }
+
+    @Test
+    public void cycleAndLengthAreBounded() {
+        Payload payload = new Payload("a");
+        payload.next = payload;
+        assertEquals("Payload[name=a, next=Payload[...]]", PayloadRenderer.DEFAULT.render(payload));
+
+        String rendered = new PayloadRenderer(5, 10).render(new Payload("0123456789abcdef"));
+        assertEquals("Payload[na...", rendered);
+    }
+
+    @Test
+    public void payloadIsRenderedOnlyWhenMessageIsFormatted() throws InterruptedException {
+        TestService service = new TestService();
+        AtomicInteger renders = new AtomicInteger();
+
+        // the backend accepts the message but never formats it
+        TestRunners.single(() -> new Scenario(service, new CountingMap(renders)))
+                .withService(service, random -> 1, request -> "reply")
+                .withLogger(new DiscardingLogger(true) {
+                    @Override
+                    public void info(String format, Object... arguments) {
+                    }
+                })
+                .run();
+        assertEquals(0, renders.get());
+
+        TestRunners.single(() -> new Scenario(service, new CountingMap(renders)))
+                .withService(service, random -> 1, request -> "reply")
+                .withLogger(new DiscardingLogger(true))
+                .run();
+        assertTrue(renders.get() > 0);
+    }
+
+    private static class Payload {
+        private static final String CONSTANT = "static";
+
+        private final String name;
+        private Payload next;
+
+        Payload(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class CountingMap extends HashMap<String, Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient AtomicInteger renders;
+
+        CountingMap(AtomicInteger renders) {
+            this.renders = renders;
+            put("key", "value");
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            renders.incrementAndGet();
+            return super.entrySet();
+        }
+    }
+
+    private static class Scenario extends ExtendedFSM {
+        private final Service service;
+        private final Object body;
+
+        Scenario(Service service, Object body) {
+            this.service = service;
+            this.body = body;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            if (event instanceof EventStartTransaction) {
+                getLogger().turnOnLogging();
+                getBody(event);
+                return call(service, body);
+            }
+            return end();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PayloadRetentionTest {
+
+    private volatile Object sentBody;
+    private volatile Object retainedAfterSend;
+    private volatile Object retainedAfterReply;
+
+    @Test
+    public void referenceIsReleasedWhenReplyArrives() throws InterruptedException {
+        run(new TestService());
+
+        assertSame(sentBody, retainedAfterSend);
+        assertNull(retainedAfterReply);
+    }
+
+    @Test
+    public void noneKeepsNothing() throws InterruptedException {
+        run(new TestService().withPayloadRetention(PayloadRetention.NONE));
+
+        assertNull(retainedAfterSend);
+    }
+
+    @Test
+    public void copyIsNotAffectedByLaterChanges() throws InterruptedException {
+        run(new TestService().withPayloadRetention(PayloadRetention.COPY));
+
+        assertEquals(Collections.singletonList("sent"), retainedAfterSend);
+    }
+
+    private void run(TestService service) throws InterruptedException {
+        TestRunners.single(() -> new Scenario(service))
+                .withService(service, random -> 1, request -> "reply")
+                .run();
+    }
+
+    private class Scenario extends ExtendedFSM {
+        private final Service service;
+
+        Scenario(Service service) {
+            this.service = service;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            if (event instanceof EventStartTransaction) {
+                getBody(event);
+                List<String> body = new ArrayList<>(Collections.singletonList("sent"));
+                sentBody = body;
+                Action action = call(service, body);
+                body.add("changed after send");
+                retainedAfterSend = holder().getBody();
+                return action;
+            }
+            getInput(event, String.class);
+            retainedAfterReply = holder().getBody();
+            return end();
+        }
+    }
+}
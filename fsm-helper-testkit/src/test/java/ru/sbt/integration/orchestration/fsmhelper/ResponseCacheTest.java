@@ -0,0 +1,105 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LatencyDistribution;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LoadReport;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ResponseCacheTest {
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Test
+    public void replyIsCachedAfterTypeCheck() throws InterruptedException {
+        TestService service = new TestService().withResponseCache(ResponseCacheConfig.of(100));
+
+        LoadReport report = TestRunners.single(() -> new Scenario(service, false))
+                .withTransactions(3)
+                .withService(service, LatencyDistribution.fixed(1), request -> {
+                    requests.incrementAndGet();
+                    return "response";
+                })
+                .run();
+
+        assertEquals(3, report.getCompleted());
+        assertEquals(1, requests.get());
+        assertEquals(2, ResponseCache.forService(service).getHits());
+    }
+
+    @Test
+    public void replyOfUnexpectedTypeIsNotCached() throws InterruptedException {
+        TestService service = new TestService().withResponseCache(ResponseCacheConfig.of(100));
+
+        LoadReport report = TestRunners.single(() -> new Scenario(service, false))
+                .withTransactions(3)
+                .withService(service, LatencyDistribution.fixed(1), request -> requests.incrementAndGet())
+                .run();
+
+        assertEquals(3, report.getFailed());
+        assertEquals(3, requests.get());
+        assertNull(ResponseCache.forService(service).get("request"));
+    }
+
+    @Test
+    public void replyReadByGetBodyIsCached() throws InterruptedException {
+        TestService service = new TestService().withResponseCache(ResponseCacheConfig.of(100));
+
+        LoadReport report = TestRunners.single(() -> new Scenario(service, true))
+                .withTransactions(3)
+                .withService(service, LatencyDistribution.fixed(1), request -> {
+                    requests.incrementAndGet();
+                    return "response";
+                })
+                .run();
+
+        assertEquals(3, report.getCompleted());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void rejectedReplyIsNotCached() throws InterruptedException {
+        TestService service = new TestService()
+                .withResponseCache(ResponseCacheConfig.of(100, response -> !"error".equals(response)));
+
+        TestRunners.single(() -> new Scenario(service, false))
+                .withTransactions(3)
+                .withService(service, LatencyDistribution.fixed(1), request -> {
+                    requests.incrementAndGet();
+                    return "error";
+                })
+                .run();
+
+        assertEquals(3, requests.get());
+        assertNull(ResponseCache.forService(service).get("request"));
+    }
+
+    private static class Scenario extends ExtendedFSM {
+        private final Service service;
+        private final boolean readBody;
+
+        Scenario(Service service, boolean readBody) {
+            this.service = service;
+            this.readBody = readBody;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            if (event instanceof EventStartTransaction) {
+                getBody(event);
+                return cachedCall(service, "request", 60_000);
+            }
+            if (readBody)
+                return getBody(event) != null ? end() : actionFactory().ErrorFinishExecution(new IllegalStateException());
+            return getInput(event, String.class).foldWithReturn(
+                    response -> end(),
+                    error -> actionFactory().ErrorFinishExecution(new IllegalStateException(error)));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.event.EventTimeout;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LatencyDistribution;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LoadReport;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RetryFSMTest {
+
+    private final InMemoryMetricsRegistry metrics = new InMemoryMetricsRegistry();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger retriesLeft = new AtomicInteger(-1);
+
+    @Before
+    public void setUp() {
+        ExtendedFSM.setMetricsRegistry(metrics);
+    }
+
+    @After
+    public void tearDown() {
+        ExtendedFSM.setMetricsRegistry(new InMemoryMetricsRegistry());
+    }
+
+    @Test
+    public void retriesWithBackoffUntilSuccess() throws InterruptedException {
+        TestService service = new TestService().withRetries(2, RetryPolicy.exponential(20, 2, 100, RetryPolicy.Jitter.NONE));
+
+        LoadReport report = TestRunners.single(() -> new Scenario(service, 0))
+                .withService(service, LatencyDistribution.fixed(1), request -> requests.incrementAndGet() <= 2 ? "error" : "ok")
+                .run();
+
+        assertEquals(1, report.getCompleted());
+        assertEquals(3, requests.get());
+        assertEquals(2, metricsOf(service).getRetries());
+        assertTrue(report.getElapsedMillis() >= 60);
+    }
+
+    @Test
+    public void refusedRetryDoesNotSpendAttempt() throws InterruptedException {
+        TestService service = new TestService().withRetries(2, RetryPolicy.exponential(50, 1, 50, RetryPolicy.Jitter.NONE));
+
+        LoadReport report = TestRunners.single(() -> new Scenario(service, 20))
+                .withService(service, LatencyDistribution.fixed(1), request -> {
+                    requests.incrementAndGet();
+                    return "error";
+                })
+                .run();
+
+        assertEquals(1, report.getCompleted());
+        assertEquals(1, requests.get());
+        assertEquals(2, retriesLeft.get());
+        assertEquals(0, metricsOf(service).getRetries());
+    }
+
+    @Test
+    public void retryAfterTimeoutIsRecordedAsTimeout() throws InterruptedException {
+        TestService service = new TestService().withTimeout(20).withRetries(1, RetryPolicy.IMMEDIATE);
+
+        TestRunners.single(() -> new Scenario(service, 0))
+                .withService(service, random -> {
+                    requests.incrementAndGet();
+                    return 200;
+                }, request -> "late")
+                .run();
+
+        assertEquals(2, requests.get());
+        assertEquals(2, metricsOf(service).getTimeouts());
+    }
+
+    private ServiceMetrics metricsOf(Service service) {
+        for (ServiceMetrics serviceMetrics : metrics.getMetrics())
+            if (serviceMetrics.getService().equals(service.service()))
+                return serviceMetrics;
+        return new ServiceMetrics(service.service(), service.method());
+    }
+
+    private class Scenario extends RetryFSM {
+        private final Service service;
+        private final long transactionTimeout;
+
+        Scenario(Service service, long transactionTimeout) {
+            this.service = service;
+            this.transactionTimeout = transactionTimeout;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            if (event instanceof EventStartTransaction) {
+                getBody(event);
+                return call(service, "request");
+            }
+            // the backoff wait is over
+            if (event instanceof EventTimeout)
+                return retryCall();
+            return "error".equals(getBody(event)) ? retryCall() : end();
+        }
+
+        @Override
+        protected long transactionTimeout() {
+            return transactionTimeout;
+        }
+
+        @Override
+        protected Action deadlineExceededAction() {
+            retriesLeft.set(holder().getRetries());
+            return end();
+        }
+    }
+}
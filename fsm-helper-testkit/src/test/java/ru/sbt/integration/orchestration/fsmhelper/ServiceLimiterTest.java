@@ -0,0 +1,86 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.event.EventTimeout;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LoadReport;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ServiceLimiterTest {
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Test
+    public void failFastRejectsCallsOverLimit() throws InterruptedException {
+        LoadReport report = run(ServiceLimitConfig.of(0, 0, 1, ServiceLimitConfig.Policy.FAIL_FAST, 0));
+
+        assertEquals(1, requests.get());
+        assertEquals(1, report.getCompleted());
+        assertEquals(3, report.getFailed());
+    }
+
+    @Test
+    public void queuedCallsAreSentWhenPermitIsReleased() throws InterruptedException {
+        LoadReport report = run(ServiceLimitConfig.of(0, 0, 1, ServiceLimitConfig.Policy.QUEUE, 5_000));
+
+        assertEquals(4, requests.get());
+        assertEquals(4, report.getCompleted());
+        assertTrue(maxInFlight.get() <= 1);
+    }
+
+    @Test
+    public void shedCallsFinishWithoutSending() throws InterruptedException {
+        LoadReport report = run(ServiceLimitConfig.of(0, 0, 1, ServiceLimitConfig.Policy.SHED, 0));
+
+        assertEquals(1, requests.get());
+        assertEquals(4, report.getCompleted());
+    }
+
+    private LoadReport run(ServiceLimitConfig limit) throws InterruptedException {
+        TestService service = new TestService().withLimit(limit);
+        return TestRunners.single(() -> new Scenario(service))
+                .withTransactions(4)
+                .withConcurrency(4)
+                .withService(service, random -> {
+                    requests.incrementAndGet();
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    return 50;
+                }, request -> {
+                    inFlight.decrementAndGet();
+                    return "reply";
+                })
+                .run();
+    }
+
+    private static class Scenario extends ExtendedFSM {
+        private final Service service;
+
+        Scenario(Service service) {
+            this.service = service;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            if (event instanceof EventStartTransaction) {
+                getBody(event);
+                return call(service, "request");
+            }
+            if (event instanceof EventTimeout) {
+                if (isCallQueued())
+                    return resumeQueuedCall();
+                registerTimeout();
+            } else {
+                getInput(event, String.class);
+            }
+            return end();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.event.EventTimeout;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LatencyDistribution;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LoadReport;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SingleFlightTest {
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Test
+    public void followersReceiveLeaderResponse() throws InterruptedException {
+        TestService service = new TestService();
+
+        LoadReport report = TestRunners.single(() -> new Scenario(service, false))
+                .withTransactions(3)
+                .withConcurrency(3)
+                .withService(service, LatencyDistribution.fixed(100), request -> {
+                    requests.incrementAndGet();
+                    return "response";
+                })
+                .run();
+
+        assertEquals(3, report.getCompleted());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void followerSendsRequestWhenFlightIsLost() throws InterruptedException {
+        TestService service = new TestService();
+
+        LoadReport report = TestRunners.single(() -> new Scenario(service, true))
+                .withTransactions(2)
+                .withConcurrency(2)
+                .withService(service, LatencyDistribution.fixed(100), request -> {
+                    requests.incrementAndGet();
+                    return "response";
+                })
+                .run();
+
+        assertEquals(2, report.getCompleted());
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void endFailsLedFlight() throws InterruptedException {
+        TestService service = new TestService();
+
+        TestRunners.single(() -> new ExtendedFSM() {
+            @Override
+            public Action handleEvent(Event event) {
+                getBody(event);
+                singleFlightCall(service, "request");
+                return end();
+            }
+        }).withService(service, LatencyDistribution.fixed(1), request -> "response").run();
+
+        assertTrue(SingleFlight.join(service, "request", System.currentTimeMillis() + 1_000).tryLead());
+    }
+
+    @Test
+    public void pollIntervalFollowsServiceTimeout() {
+        ExtendedFSM scenario = new Scenario(null, false);
+
+        assertEquals(50, scenario.singleFlightPollInterval(new TestService().withTimeout(1_000)));
+        assertEquals(5, scenario.singleFlightPollInterval(new TestService().withTimeout(20)));
+    }
+
+    private static class Scenario extends ExtendedFSM {
+        private final Service service;
+        private final boolean loseFlight;
+
+        Scenario(Service service, boolean loseFlight) {
+            this.service = service;
+            this.loseFlight = loseFlight;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            if (event instanceof EventStartTransaction) {
+                getBody(event);
+                return singleFlightCall(service, "request");
+            }
+            if (event instanceof EventTimeout) {
+                // state restored on another node has no live flight
+                if (loseFlight)
+                    holder().withFlight(null, false);
+                return awaitSingleFlight();
+            }
+            return getInput(event, String.class).foldWithReturn(
+                    response -> end(),
+                    error -> actionFactory().ErrorFinishExecution(new IllegalStateException(error)));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.After;
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LatencyDistribution;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LoadReport;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpanExporterTest {
+
+    @After
+    public void tearDown() {
+        ExtendedFSM.setSpanExporter(SpanExporter.NOOP);
+    }
+
+    @Test
+    public void errorFinishExportsScenarioSpan() throws InterruptedException {
+        InMemorySpanExporter exporter = new InMemorySpanExporter();
+        ExtendedFSM.setSpanExporter(exporter);
+        TestService service = new TestService();
+
+        LoadReport report = TestRunners.single(() -> new ExtendedFSM() {
+            @Override
+            public Action handleEvent(Event event) {
+                if (event instanceof EventStartTransaction) {
+                    getBody(event);
+                    return call(service, "request");
+                }
+                getBody(event);
+                return errorEnd(new IllegalStateException("rejected"));
+            }
+        }).withService(service, LatencyDistribution.fixed(1), request -> "response").run();
+
+        assertEquals(1, report.getFailed());
+        List<InMemorySpanExporter.Span> spans = exporter.getSpans();
+        assertEquals(2, spans.size());
+        assertEquals(SpanExporter.Kind.CALL, spans.get(0).getKind());
+        assertFalse(spans.get(0).isError());
+        assertEquals(SpanExporter.Kind.SCENARIO, spans.get(1).getKind());
+        assertTrue(spans.get(1).isError());
+    }
+
+    @Test
+    public void fileExporterWritesSpansInBackground() throws IOException {
+        Path file = Files.createTempFile("spans", ".tsv");
+        try {
+            FileSpanExporter exporter = new FileSpanExporter(file, 1_000);
+            for (int i = 0; i < 500; i++)
+                exporter.export(1, 2, i + 1, 0, SpanExporter.Kind.CALL, "service", "method", 1_000, 5, false);
+            exporter.close();
+            exporter.export(1, 2, 1, 0, SpanExporter.Kind.CALL, "service", "method", 1_000, 5, false);
+
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            assertEquals(500, lines.size());
+            assertTrue(lines.get(0).endsWith("\tCALL\tservice\tmethod\t1000\t5\tfalse"));
+            assertEquals(1, exporter.getDropped());
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventResponseReceived;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.DiscardingLogger;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.InMemoryFSMContext;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StateFlushTest {
+
+    @Test
+    public void deferredHolderIsWrittenOncePerStep() {
+        CountingContext context = new CountingContext();
+        Scenario scenario = new Scenario(new TestService(), true, false);
+        scenario.setContext(context);
+
+        scenario.handleEvent(new EventStartTransaction(context.getMessageFactory().createSimpleMessage(new HashMap<>(), "start")));
+        FSMHolder holder = (FSMHolder) context.getStateData().get(FSMHolder.FSM_HOLDER_NAME);
+        context.stateData.puts = 0;
+
+        scenario.handleEvent(new EventResponseReceived(context.getMessageFactory().createSimpleMessage(new HashMap<>(), "reply")));
+
+        assertEquals(1, context.stateData.puts);
+        assertSame(holder, context.getStateData().get(FSMHolder.FSM_HOLDER_NAME));
+        assertTrue(holder.getSentAt() > 0);
+        assertFalse(holder.isDirty());
+    }
+
+    @Test
+    public void holderIsWrittenThroughByDefault() {
+        CountingContext context = new CountingContext();
+        Scenario scenario = new Scenario(new TestService(), false, true);
+        scenario.setContext(context);
+
+        scenario.handleEvent(new EventStartTransaction(context.getMessageFactory().createSimpleMessage(new HashMap<>(), "start")));
+
+        assertEquals(1, context.stateData.puts);
+        assertEquals("changed", scenario.holder().getStart());
+        assertFalse(scenario.holder().isDirty());
+    }
+
+    @Test
+    public void deferredHolderNeedsFlushWithRawActionFactory() {
+        CountingContext context = new CountingContext();
+        Scenario scenario = new Scenario(new TestService(), true, true);
+        scenario.setContext(context);
+
+        scenario.handleEvent(new EventStartTransaction(context.getMessageFactory().createSimpleMessage(new HashMap<>(), "start")));
+
+        assertEquals(0, context.stateData.puts);
+        assertTrue(scenario.holder().isDirty());
+    }
+
+    private static class Scenario extends ExtendedFSM {
+        private final Service service;
+        private final boolean deferred;
+        private final boolean rawAction;
+
+        Scenario(Service service, boolean deferred, boolean rawAction) {
+            this.service = service;
+            this.deferred = deferred;
+            this.rawAction = rawAction;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            if (rawAction) {
+                // only the change below is counted
+                holder();
+                ((CountingMap) getContext().getStateData()).puts = 0;
+                holder().withStart("changed");
+                return getContext().getActionFactory().FinishExecution();
+            }
+            if (event instanceof EventStartTransaction)
+                getBody(event);
+            else
+                getInput(event, String.class);
+            return call(service, "request");
+        }
+
+        @Override
+        protected boolean deferStateWrites() {
+            return deferred;
+        }
+    }
+
+    private static final class CountingContext extends InMemoryFSMContext {
+        private final CountingMap stateData = new CountingMap();
+
+        CountingContext() {
+            super("scenario", "tid", new DiscardingLogger(false));
+        }
+
+        @Override
+        public Map<String, Object> getStateData() {
+            return stateData;
+        }
+    }
+
+    private static final class CountingMap extends HashMap<String, Object> {
+        private static final long serialVersionUID = 1L;
+
+        private int puts;
+
+        @Override
+        public Object put(String key, Object value) {
+            if (FSMHolder.FSM_HOLDER_NAME.equals(key))
+                puts++;
+            return super.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.DiscardingLogger;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.InMemoryFSMContext;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LoadReport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class StateKeyTest {
+
+    private static final StateKey<String> TEXT = StateKey.of("state-key-test", String.class);
+    private static final StateKey<Integer> NUMBER = StateKey.of("state-key-test", Integer.class);
+
+    @Test
+    public void keyIsDeclaredPerNameAndType() {
+        assertSame(TEXT, StateKey.of("state-key-test", String.class));
+        assertNotSame(TEXT, NUMBER);
+        assertEquals(Integer.class, NUMBER.getType());
+    }
+
+    @Test
+    public void keysWithSameNameShareStateEntry() throws InterruptedException {
+        List<Object> seen = new ArrayList<>();
+
+        LoadReport report = TestRunners.single(() -> new ExtendedFSM() {
+            @Override
+            public Action handleEvent(Event event) {
+                getBody(event);
+                putToState(TEXT, "text");
+                seen.add(getFromState(NUMBER));
+                putToState(NUMBER, 5);
+                seen.add(getFromState(TEXT));
+                flushState();
+                seen.add(stateData().get("state-key-test"));
+                return end();
+            }
+        }).run();
+
+        assertEquals(1, report.getCompleted());
+        assertEquals(Arrays.asList(null, null, 5), seen);
+    }
+
+    @Test
+    public void typedWriteReachesStateDataWithoutFlush() {
+        InMemoryFSMContext context = new InMemoryFSMContext("scenario", "tid", new DiscardingLogger(false));
+        ExtendedFSM scenario = new ExtendedFSM() {
+            @Override
+            public Action handleEvent(Event event) {
+                putToState(TEXT, "text");
+                // the action is built without ExtendedFSM, nothing is flushed
+                return getContext().getActionFactory().FinishExecution();
+            }
+        };
+        scenario.setContext(context);
+
+        scenario.handleEvent(start(context));
+
+        assertEquals("text", context.getStateData().get("state-key-test"));
+    }
+
+    @Test
+    public void deferredWriteIsReadBeforeFlush() {
+        InMemoryFSMContext context = new InMemoryFSMContext("scenario", "tid", new DiscardingLogger(false));
+        List<Object> seen = new ArrayList<>();
+        ExtendedFSM scenario = new ExtendedFSM() {
+            @Override
+            public Action handleEvent(Event event) {
+                getContext().getStateData().put("state-key-test", "stored");
+                seen.add(getFromState(TEXT));
+                putToState(TEXT, "text");
+                seen.add(getContext().getStateData().get("state-key-test"));
+                seen.add(getFromState(TEXT));
+                seen.add(getFromState(NUMBER));
+                return actionFactory().FinishExecution();
+            }
+
+            @Override
+            protected boolean deferStateWrites() {
+                return true;
+            }
+        };
+        scenario.setContext(context);
+
+        scenario.handleEvent(start(context));
+
+        assertEquals(Arrays.asList("stored", "stored", "text", null), seen);
+        assertEquals("text", context.getStateData().get("state-key-test"));
+    }
+
+    private static Event start(InMemoryFSMContext context) {
+        return new EventStartTransaction(context.getMessageFactory().createSimpleMessage(new HashMap<>(), "start"));
+    }
+}
@@ -0,0 +1,123 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.After;
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.event.EventTimeout;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+public class StepRecorderTest {
+
+    private final RecordingRecorder recorder = new RecordingRecorder();
+
+    @After
+    public void tearDown() {
+        ExtendedFSM.setStepRecorder(StepRecorder.NOOP);
+    }
+
+    @Test
+    public void stepsRequestsAndResponsesAreRecorded() throws InterruptedException {
+        TestService service = new TestService("recorded");
+        ExtendedFSM.setStepRecorder(recorder);
+
+        TestRunners.single(() -> new Scenario(service))
+                .withService(service, random -> 5, request -> "reply")
+                .run();
+
+        assertEquals(Arrays.asList(
+                "start EventStartTransaction", "request recorded", "finish",
+                "start EventResponseReceived", "response recorded", "finish"), recorder.events);
+    }
+
+    @Test
+    public void timeoutIsRecordedAsFailedResponse() throws InterruptedException {
+        TestService service = new TestService("recorded").withTimeout(10);
+        ExtendedFSM.setStepRecorder(recorder);
+
+        // registerTimeout starts the step without an event
+        TestRunners.single(() -> new Scenario(service))
+                .withService(service, random -> 1_000, request -> "late")
+                .run();
+
+        assertEquals(Arrays.asList(
+                "start EventStartTransaction", "request recorded", "finish",
+                "start null", "timeout recorded", "finish"), recorder.events);
+    }
+
+    @Test
+    public void disabledRecorderIsNotCalled() throws InterruptedException {
+        TestService service = new TestService();
+        recorder.enabled = false;
+        ExtendedFSM.setStepRecorder(recorder);
+
+        TestRunners.single(() -> new Scenario(service))
+                .withService(service, random -> 1, request -> "reply")
+                .run();
+
+        assertEquals(0, recorder.events.size());
+    }
+
+    private static class Scenario extends ExtendedFSM {
+        private final Service service;
+
+        Scenario(Service service) {
+            this.service = service;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            if (event instanceof EventStartTransaction) {
+                getBody(event);
+                return call(service, "request");
+            }
+            if (event instanceof EventTimeout)
+                registerTimeout();
+            else
+                getInput(event, String.class);
+            return end();
+        }
+    }
+
+    private static final class RecordingRecorder implements StepRecorder {
+        private final List<String> events = new CopyOnWriteArrayList<>();
+        private volatile boolean enabled = true;
+
+        @Override
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        @Override
+        public Object stepStarted(String script, String transactionId, String event, long waitMillis) {
+            events.add("start " + event);
+            return this;
+        }
+
+        @Override
+        public void stepFinished(Object step, String state) {
+            events.add("finish");
+        }
+
+        @Override
+        public void requestSent(String script, String transactionId, String state, Service service, long timeout) {
+            events.add("request " + service.service());
+        }
+
+        @Override
+        public void responseReceived(String script, String transactionId, String state, Service service, long latency, boolean timeout) {
+            events.add((timeout ? "timeout " : "response ") + service.service());
+        }
+
+        @Override
+        public void retry(String script, String transactionId, String state, Service service, int attempt, long delay) {
+            events.add("retry " + service.service());
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import ru.sbt.integration.orchestration.fsmcore.FSM;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.DiscardingLogger;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LoadRunner;
+
+import java.util.function.Supplier;
+
+final class TestRunners {
+
+    private TestRunners() {
+    }
+
+    /**
+     * @return прогон одной транзакции сценария без записи логов
+     */
+    static LoadRunner single(Supplier<? extends FSM> scenario) {
+        return LoadRunner.forScenario(scenario)
+                .withTransactions(1)
+                .withConcurrency(1)
+                .withTransactionTimeout(10_000)
+                .withLogger(new DiscardingLogger(false));
+    }
+}
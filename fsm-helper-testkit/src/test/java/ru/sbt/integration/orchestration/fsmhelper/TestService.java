@@ -0,0 +1,130 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Сервис для тестов. Каждый экземпляр получает уникальное имя, т.к. предохранители, кеши и ограничения
+ * сервисов общие для JVM.
+ */
+final class TestService implements Service {
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private final String service;
+    private int timeout = 1_000;
+    private int retries;
+    private RetryPolicy retryPolicy = RetryPolicy.IMMEDIATE;
+    private CircuitBreakerConfig circuitBreaker = CircuitBreakerConfig.DISABLED;
+    private AdaptiveTimeoutConfig adaptiveTimeout = AdaptiveTimeoutConfig.DISABLED;
+    private HedgePolicy hedgePolicy = HedgePolicy.DISABLED;
+    private ResponseCacheConfig responseCache = ResponseCacheConfig.DISABLED;
+    private PayloadRetention payloadRetention = PayloadRetention.INHERIT;
+    private ServiceLimitConfig limit = ServiceLimitConfig.DISABLED;
+
+    TestService() {
+        this("test-service-" + COUNTER.incrementAndGet());
+    }
+
+    /**
+     * @param service - имя сервиса, экземпляры с одинаковым именем делят объекты реестров JVM
+     */
+    TestService(String service) {
+        this.service = service;
+    }
+
+    TestService withTimeout(int timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    TestService withRetries(int retries, RetryPolicy retryPolicy) {
+        this.retries = retries;
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    TestService withCircuitBreaker(CircuitBreakerConfig circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        return this;
+    }
+
+    TestService withAdaptiveTimeout(AdaptiveTimeoutConfig adaptiveTimeout) {
+        this.adaptiveTimeout = adaptiveTimeout;
+        return this;
+    }
+
+    TestService withHedgePolicy(HedgePolicy hedgePolicy) {
+        this.hedgePolicy = hedgePolicy;
+        return this;
+    }
+
+    TestService withResponseCache(ResponseCacheConfig responseCache) {
+        this.responseCache = responseCache;
+        return this;
+    }
+
+    TestService withPayloadRetention(PayloadRetention payloadRetention) {
+        this.payloadRetention = payloadRetention;
+        return this;
+    }
+
+    TestService withLimit(ServiceLimitConfig limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    @Override
+    public String service() {
+        return service;
+    }
+
+    @Override
+    public String method() {
+        return "method";
+    }
+
+    @Override
+    public int timeout() {
+        return timeout;
+    }
+
+    @Override
+    public int retries() {
+        return retries;
+    }
+
+    @Override
+    public RetryPolicy retryPolicy() {
+        return retryPolicy;
+    }
+
+    @Override
+    public CircuitBreakerConfig circuitBreaker() {
+        return circuitBreaker;
+    }
+
+    @Override
+    public AdaptiveTimeoutConfig adaptiveTimeout() {
+        return adaptiveTimeout;
+    }
+
+    @Override
+    public HedgePolicy hedgePolicy() {
+        return hedgePolicy;
+    }
+
+    @Override
+    public ResponseCacheConfig responseCache() {
+        return responseCache;
+    }
+
+    @Override
+    public PayloadRetention payloadRetention() {
+        return payloadRetention;
+    }
+
+    @Override
+    public ServiceLimitConfig limit() {
+        return limit;
+    }
+}
@@ -0,0 +1,106 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventResponseReceived;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LatencyDistribution;
+import ru.sbt.integration.orchestration.fsmhelper.testkit.LoadReport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TransitionTest {
+
+    @Test
+    public void raisedEventIsDispatchedByName() throws InterruptedException {
+        TestService service = new TestService().withResponseCache(ResponseCacheConfig.of(100));
+        List<String> handled = Collections.synchronizedList(new ArrayList<>());
+
+        LoadReport report = TestRunners.single(() -> new Scenario(service, handled, Scenario.Outcome.COMPLETE))
+                .withTransactions(2)
+                .withService(service, LatencyDistribution.fixed(1), request -> "response")
+                .run();
+
+        assertEquals(2, report.getCompleted());
+        assertEquals(Arrays.asList("response in CALLED", "finish in DONE", "cached in CALLED", "finish in DONE"), handled);
+    }
+
+    @Test
+    public void failedHandlerKeepsState() throws InterruptedException {
+        for (Scenario.Outcome outcome : Arrays.asList(Scenario.Outcome.ERROR, Scenario.Outcome.THROW)) {
+            TestService service = new TestService();
+            List<Scenario> scenarios = Collections.synchronizedList(new ArrayList<>());
+
+            LoadReport report = TestRunners.single(() -> {
+                Scenario scenario = new Scenario(service, new ArrayList<>(), outcome);
+                scenarios.add(scenario);
+                return scenario;
+            }).withService(service, LatencyDistribution.fixed(1), request -> "response").run();
+
+            assertEquals(1, report.getFailed());
+            assertEquals("CALLED", scenarios.get(0).currentState());
+        }
+    }
+
+    static class Scenario extends ExtendedFSM {
+
+        enum Outcome {COMPLETE, ERROR, THROW}
+
+        private final Service service;
+        private final List<String> handled;
+        private final Outcome outcome;
+
+        Scenario(Service service, List<String> handled, Outcome outcome) {
+            this.service = service;
+            this.handled = handled;
+            this.outcome = outcome;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            return dispatch(event);
+        }
+
+        @Transition(from = START_STATE, on = EventStartTransaction.class, to = "CALLED")
+        protected Action start(EventStartTransaction event) {
+            getBody(event);
+            return cachedCall(service, "request", 60_000);
+        }
+
+        @Transition(from = "CALLED", on = EventResponseReceived.class, to = "DONE")
+        protected Action response(EventResponseReceived event) {
+            getInput(event, String.class);
+            return handled("response");
+        }
+
+        @Transition(from = "CALLED", on = Event.class, event = CACHED_RESPONSE_EVENT, to = "DONE")
+        protected Action cached(Event event) {
+            getInput(event, String.class);
+            return handled("cached");
+        }
+
+        @Transition(from = "DONE", on = Event.class)
+        protected Action finish() {
+            handled.add("finish in " + currentState());
+            return end();
+        }
+
+        private Action handled(String name) {
+            handled.add(name + " in " + currentState());
+            switch (outcome) {
+                case ERROR:
+                    return errorEnd(new IllegalStateException(name));
+                case THROW:
+                    throw new IllegalStateException(name);
+                default:
+                    return raiseEvent("finish");
+            }
+        }
+    }
+}
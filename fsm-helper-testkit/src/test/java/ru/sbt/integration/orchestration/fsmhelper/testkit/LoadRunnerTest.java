@@ -0,0 +1,120 @@
+package ru.sbt.integration.orchestration.fsmhelper.testkit;
+
+import org.junit.Test;
+import ru.sbt.integration.orchestration.fsmcore.FSM;
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
+import ru.sbt.integration.orchestration.fsmcore.event.EventTimeout;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmcore.messages.ActionFactory;
+import ru.sbt.integration.orchestration.fsmcore.messages.ActionFactory.RemoteCallArgs;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+
+public class LoadRunnerTest {
+
+    private final List<String> events = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void raisedEventIsPassedToScenario() throws InterruptedException {
+        LoadReport report = run(event -> {
+            if (event instanceof EventStartTransaction)
+                return actions().RaiseEvent("next");
+            if (event instanceof InMemoryRaisedEvent && "next".equals(((InMemoryRaisedEvent) event).getEventName()))
+                return actions().FinishExecution();
+            return actions().ErrorFinishExecution(new IllegalStateException());
+        }, 0, 0);
+
+        assertEquals(1, report.getCompleted());
+        assertEquals(Collections.singletonList("RaisedEvent(next)"), events.subList(1, events.size()));
+    }
+
+    @Test
+    public void waitEndsWithTimeoutEvent() throws InterruptedException {
+        LoadReport report = run(event -> event instanceof EventTimeout
+                ? actions().FinishExecution()
+                : actions().Wait(10), 0, 0);
+
+        assertEquals(1, report.getCompleted());
+        assertEquals(2, events.size());
+    }
+
+    @Test
+    public void callTimeoutIsPassedToScenarioAndLateResponseIsDropped() throws InterruptedException {
+        LoadReport report = run(event -> {
+            if (event instanceof EventStartTransaction)
+                return actions().RemoteCall("svc", message(), 20);
+            // late response must not cancel the wait
+            if (event instanceof EventTimeout && events.size() == 2)
+                return actions().Wait(300);
+            if (event instanceof EventTimeout)
+                return actions().FinishExecution();
+            return actions().ErrorFinishExecution(new IllegalStateException());
+        }, 200, 0);
+
+        assertEquals(1, report.getCompleted());
+        assertEquals(3, events.size());
+    }
+
+    @Test
+    public void responseCancelsWait() throws InterruptedException {
+        LoadReport report = run(event -> {
+            if (event instanceof EventStartTransaction)
+                return actions().ParallelCall(new RemoteCallArgs[]{
+                        new RemoteCallArgs("svc", message(), 1_000), new RemoteCallArgs("slow", message(), 1_000)});
+            if (event instanceof EventTimeout)
+                return actions().ErrorFinishExecution(new IllegalStateException());
+            return events.size() == 2 ? actions().Wait(1_000) : actions().FinishExecution();
+        }, 10, 50);
+
+        assertEquals(1, report.getCompleted());
+        assertEquals(3, events.size());
+    }
+
+    @Test
+    public void transactionTimeoutStopsEndlessScenario() throws InterruptedException {
+        LoadReport report = LoadRunner.forScenario(() -> new Scenario(event -> actions().Wait(5)))
+                .withTransactions(1)
+                .withTransactionTimeout(100)
+                .withLogger(new DiscardingLogger(false))
+                .run();
+
+        assertEquals(1, report.getTimedOut());
+    }
+
+    private LoadReport run(Function<Event, Action> handler, long latency, long slowLatency) throws InterruptedException {
+        return LoadRunner.forScenario(() -> new Scenario(handler))
+                .withTransactions(1)
+                .withLogger(new DiscardingLogger(false))
+                .withService("svc", LatencyDistribution.fixed(latency), FakeService.echo())
+                .withService("slow", LatencyDistribution.fixed(slowLatency), FakeService.echo())
+                .run();
+    }
+
+    private static ActionFactory actions() {
+        return new InMemoryActionFactory();
+    }
+
+    private static InMemoryMessage message() {
+        return new InMemoryMessage(Collections.<String, Object>emptyMap(), "ping");
+    }
+
+    private class Scenario extends FSM {
+        private final Function<Event, Action> handler;
+
+        Scenario(Function<Event, Action> handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public Action handleEvent(Event event) {
+            events.add(event.toString().startsWith("RaisedEvent") ? event.toString() : event.getClass().getSimpleName());
+            return handler.apply(event);
+        }
+    }
+}
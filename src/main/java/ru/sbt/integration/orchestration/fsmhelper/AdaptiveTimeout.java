@@ -0,0 +1,82 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Адаптивный таймаут сервиса, общий для всех сценариев JVM.
+ * Таймаут равен перцентилю времени ответа за последнее окно, умноженному на factor, в пределах floor..ceiling.
+ * Service.timeout() остается значением до накопления статистики и верхней границей.
+ */
+public class AdaptiveTimeout {
+
+    private static final ConcurrentMap<ServiceKey, AdaptiveTimeout> TIMEOUTS = new ConcurrentHashMap<>();
+
+    private final Service service;
+    private final AdaptiveTimeoutConfig config;
+    private final RollingLatency latency;
+    private volatile long cachedTimeout;
+    private volatile long cachedAt;
+
+    public AdaptiveTimeout(Service service, AdaptiveTimeoutConfig config) {
+        this.service = service;
+        this.config = config;
+        this.latency = new RollingLatency(config.getWindowMillis());
+        this.cachedTimeout = service.timeout();
+    }
+
+    /**
+     * Метод возвращает адаптивный таймаут сервиса, null - если у сервиса он выключен
+     *
+     * @param service - сервис
+     * @return AdaptiveTimeout или null
+     */
+    public static AdaptiveTimeout forService(Service service) {
+        if (service == null || !service.adaptiveTimeout().isEnabled())
+            return null;
+        ServiceKey key = ServiceKey.of(service);
+        AdaptiveTimeout timeout = TIMEOUTS.get(key);
+        if (timeout == null)
+            timeout = TIMEOUTS.computeIfAbsent(key, k -> new AdaptiveTimeout(service, service.adaptiveTimeout()));
+        return timeout;
+    }
+
+    /**
+     * Метод возвращает таймаут сервиса: адаптивный, если он включен, иначе Service.timeout()
+     *
+     * @param service - сервис
+     * @return таймаут в мс
+     */
+    public static int timeoutOf(Service service) {
+        AdaptiveTimeout timeout = forService(service);
+        return timeout == null ? service.timeout() : (int) timeout.getTimeout();
+    }
+
+    /**
+     * @param millis - время ответа сервиса в мс
+     */
+    public void record(long millis) {
+        latency.record(millis);
+    }
+
+    /**
+     * @return текущий таймаут в мс
+     */
+    public long getTimeout() {
+        long now = System.currentTimeMillis();
+        if (now - cachedAt >= config.getWindowMillis() / 10) {
+            cachedTimeout = compute();
+            cachedAt = now;
+        }
+        return cachedTimeout;
+    }
+
+    private long compute() {
+        long value = latency.getValueAtPercentile(config.getPercentile(), config.getMinimumSamples());
+        if (value < 0)
+            return service.timeout();
+        long ceiling = Math.min(config.getCeiling(), service.timeout());
+        long timeout = (long) (value * config.getFactor());
+        return Math.max(Math.min(config.getFloor(), ceiling), Math.min(timeout, ceiling));
+    }
+}
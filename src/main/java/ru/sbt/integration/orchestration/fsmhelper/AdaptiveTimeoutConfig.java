@@ -0,0 +1,76 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+/**
+ * Настройки адаптивного таймаута сервиса, см. AdaptiveTimeout.
+ */
+public final class AdaptiveTimeoutConfig {
+
+    /**
+     * Адаптивный таймаут выключен, используется Service.timeout(). Поведение по умолчанию
+     */
+    public static final AdaptiveTimeoutConfig DISABLED = new AdaptiveTimeoutConfig(false, 0, 0, 0, 0, 0, 0);
+
+    private final boolean enabled;
+    private final double percentile;
+    private final double factor;
+    private final long floor;
+    private final long ceiling;
+    private final int minimumSamples;
+    private final long windowMillis;
+
+    private AdaptiveTimeoutConfig(boolean enabled, double percentile, double factor, long floor, long ceiling,
+                                  int minimumSamples, long windowMillis) {
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.factor = factor;
+        this.floor = floor;
+        this.ceiling = ceiling;
+        this.minimumSamples = minimumSamples;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @param percentile     - перцентиль времени ответа, от 0 до 100, например 99
+     * @param factor         - множитель перцентиля, например 1.5
+     * @param floor          - минимальный таймаут в мс
+     * @param ceiling        - максимальный таймаут в мс, дополнительно ограничен Service.timeout()
+     * @param minimumSamples - минимальное количество ответов в окне, до этого используется Service.timeout()
+     * @param windowMillis   - длина окна в мс, по которому считается перцентиль
+     * @return включенный адаптивный таймаут
+     */
+    public static AdaptiveTimeoutConfig of(double percentile, double factor, long floor, long ceiling,
+                                           int minimumSamples, long windowMillis) {
+        if (percentile <= 0 || percentile > 100 || factor < 1 || floor < 1 || ceiling < floor
+                || minimumSamples < 1 || windowMillis < 1)
+            throw new IllegalArgumentException("adaptive timeout false parameters");
+        return new AdaptiveTimeoutConfig(true, percentile, factor, floor, ceiling, minimumSamples, windowMillis);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    public double getFactor() {
+        return factor;
+    }
+
+    public long getFloor() {
+        return floor;
+    }
+
+    public long getCeiling() {
+        return ceiling;
+    }
+
+    public int getMinimumSamples() {
+        return minimumSamples;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+}
@@ -0,0 +1,351 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.slf4j.Logger;
+import org.slf4j.MDC;
+import org.slf4j.event.Level;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Асинхронная запись логов LoggerFSM.
+ * Поток, исполняющий шаг сценария, только кладет запись в ограниченный кольцевой буфер без блокировок,
+ * фоновый поток забирает записи пачками, строит строки payload и передает их в логгер.
+ * <p>
+ * Технические поля (сценарий, tid, шаг, тип записи), MDC потока сценария, заголовки и тела сообщений
+ * фиксируются в момент вызова: payload записывается в строку в потоке сценария, до помещения в буфер.
+ * Остальные аргументы пользовательских сообщений форматируются в фоновом потоке, поэтому передавать в лог
+ * следует неизменяемые объекты. Запись, при построении которой возникла ошибка, учитывается как отброшенная.
+ * <p>
+ * Пока буфер не запущен или после close записи не принимаются, LoggerFSM пишет их синхронно.
+ */
+public class AsyncLogPipeline implements AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final int DEFAULT_SAMPLE_RATE = 10;
+
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+    private static final long BLOCK_PARK_NANOS = 100_000;
+
+    private static volatile AsyncLogPipeline shared;
+
+    /**
+     * Поведение при заполненном буфере
+     */
+    public enum OverflowPolicy {
+        /**
+         * Запись отбрасывается
+         */
+        DROP,
+        /**
+         * Когда буфер заполнен больше чем наполовину, принимается только каждая N-ая запись, при полном буфере - отбрасывается
+         */
+        SAMPLE,
+        /**
+         * Поток сценария ждет, пока в буфере освободится место
+         */
+        BLOCK
+    }
+
+    private final AtomicReferenceArray<LogRecord> buffer;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    private final int batchSize;
+    private final OverflowPolicy policy;
+    private final int sampleRate;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sampled = new LongAdder();
+    private final AtomicLong sampleCounter = new AtomicLong();
+
+    private final Thread worker;
+    private final AtomicInteger offering = new AtomicInteger();
+    private volatile boolean running;
+    private boolean started;
+
+    /**
+     * @param capacity   - размер буфера, округляется вверх до степени двойки
+     * @param batchSize  - максимальное количество записей, обрабатываемых фоновым потоком за один проход
+     * @param policy     - поведение при заполненном буфере
+     * @param sampleRate - для OverflowPolicy.SAMPLE: принимается каждая sampleRate-ая запись
+     */
+    public AsyncLogPipeline(int capacity, int batchSize, OverflowPolicy policy, int sampleRate) {
+        if (capacity < 2 || batchSize < 1 || sampleRate < 1)
+            throw new IllegalArgumentException("async log pipeline false parameters");
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+        this.mask = size - 1;
+        this.batchSize = batchSize;
+        this.policy = policy;
+        this.sampleRate = sampleRate;
+        this.worker = new Thread(this::drainLoop, "fsm-helper-async-log");
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Общий для всех сценариев JVM буфер с настройками по умолчанию. Создается и запускается при первом обращении.
+     */
+    public static AsyncLogPipeline shared() {
+        AsyncLogPipeline pipeline = shared;
+        if (pipeline == null) {
+            synchronized (AsyncLogPipeline.class) {
+                pipeline = shared;
+                if (pipeline == null) {
+                    pipeline = new AsyncLogPipeline(DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, OverflowPolicy.DROP, DEFAULT_SAMPLE_RATE).start();
+                    Runtime.getRuntime().addShutdownHook(new Thread(pipeline::close, "fsm-helper-async-log-shutdown"));
+                    shared = pipeline;
+                }
+            }
+        }
+        return pipeline;
+    }
+
+    /**
+     * Запускает фоновый поток. Повторный вызов, в том числе после close, ничего не делает
+     */
+    public synchronized AsyncLogPipeline start() {
+        if (!started) {
+            started = true;
+            running = true;
+            worker.start();
+        }
+        return this;
+    }
+
+    /**
+     * Останавливает фоновый поток, предварительно записав все записи из буфера
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (!running)
+                return;
+            running = false;
+        }
+        LockSupport.unpark(worker);
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // an offer that saw the pipeline running may still be putting its record
+        while (offering.get() > 0)
+            Thread.yield();
+        while (size() > 0)
+            drain();
+    }
+
+    /**
+     * Кладет запись в буфер с учетом OverflowPolicy
+     *
+     * @return true, если запись принята или отброшена по OverflowPolicy, false - если буфер не запущен или закрыт,
+     * и запись нужно записать синхронно
+     */
+    boolean offer(Logger logger, Level level, String template, Object[] args) {
+        offering.incrementAndGet();
+        try {
+            if (!running)
+                return false;
+            switch (policy) {
+                case BLOCK:
+                    LogRecord record = record(logger, level, template, args);
+                    while (!tryOffer(record)) {
+                        if (!running)
+                            return false;
+                        LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    }
+                    return true;
+                case SAMPLE:
+                    if (size() > mask / 2 && sampleCounter.incrementAndGet() % sampleRate != 0) {
+                        sampled.increment();
+                        return true;
+                    }
+                    return offerOrDrop(record(logger, level, template, args));
+                default:
+                    return offerOrDrop(record(logger, level, template, args));
+            }
+        } finally {
+            offering.decrementAndGet();
+        }
+    }
+
+    private static LogRecord record(Logger logger, Level level, String template, Object[] args) {
+        // the scenario may change a logged message after the step, payloads are rendered on its thread
+        for (int i = 0; i < args.length; i++)
+            args[i] = PayloadRenderer.snapshot(args[i]);
+        return new LogRecord(logger, level, template, args, MDC.getCopyOfContextMap());
+    }
+
+    /**
+     * @return true, если буфер запущен и принимает записи
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return количество записей, переданных в логгер
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * @return количество записей, отброшенных из-за заполненного буфера или ошибки при записи
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return количество записей, не прошедших выборку OverflowPolicy.SAMPLE
+     */
+    public long getSampled() {
+        return sampled.sum();
+    }
+
+    /**
+     * @return примерное количество записей в буфере
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    private boolean offerOrDrop(LogRecord record) {
+        if (!tryOffer(record))
+            dropped.increment();
+        return true;
+    }
+
+    private boolean tryOffer(LogRecord record) {
+        long position = tail.get();
+        for (; ; ) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    buffer.lazySet(index, record);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    private LogRecord poll() {
+        long position = head;
+        int index = (int) (position & mask);
+        if (sequences.get(index) != position + 1)
+            return null;
+        LogRecord record = buffer.get(index);
+        buffer.lazySet(index, null);
+        sequences.lazySet(index, position + mask + 1);
+        head = position + 1;
+        return record;
+    }
+
+    private void drainLoop() {
+        while (running || size() > 0) {
+            if (drain() == 0 && running)
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    /**
+     * @return количество записей, забранных из буфера
+     */
+    private int drain() {
+        int count = 0;
+        int failed = 0;
+        LogRecord record;
+        while (count < batchSize && (record = poll()) != null) {
+            if (!record.write())
+                failed++;
+            count++;
+        }
+        if (count > failed)
+            written.add(count - failed);
+        if (failed > 0)
+            dropped.add(failed);
+        return count;
+    }
+
+    /**
+     * Неизменяемый снимок записи лога
+     */
+    private static final class LogRecord {
+        private final Logger logger;
+        private final Level level;
+        private final String template;
+        private final Object[] args;
+        private final Map<String, String> mdc;
+
+        private LogRecord(Logger logger, Level level, String template, Object[] args, Map<String, String> mdc) {
+            this.logger = logger;
+            this.level = level;
+            this.template = template;
+            this.args = args;
+            this.mdc = mdc;
+        }
+
+        /**
+         * @return false, если запись не удалась
+         */
+        private boolean write() {
+            if (mdc != null)
+                MDC.setContextMap(mdc);
+            try {
+                switch (level) {
+                    case TRACE:
+                        logger.trace(template, args);
+                        break;
+                    case DEBUG:
+                        logger.debug(template, args);
+                        break;
+                    case INFO:
+                        logger.info(template, args);
+                        break;
+                    case WARN:
+                        logger.warn(template, args);
+                        break;
+                    case ERROR:
+                        logger.error(template, args);
+                        break;
+                }
+                return true;
+            } catch (RuntimeException e) {
+                // ошибка записи одной записи не должна останавливать фоновый поток
+                report(e);
+                return false;
+            } finally {
+                if (mdc != null)
+                    MDC.clear();
+            }
+        }
+
+        private void report(RuntimeException e) {
+            try {
+                logger.warn("Запись лога не удалась, шаблон: " + template, e);
+            } catch (RuntimeException ignored) {
+                // the logger itself is broken, the record is counted as dropped
+            }
+        }
+    }
+}
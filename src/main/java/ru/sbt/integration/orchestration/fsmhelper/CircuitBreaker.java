@@ -0,0 +1,189 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Предохранитель сервиса, общий для всех сценариев JVM.
+ * Считает успешные и неуспешные ответы в скользящем окне. Когда доля ошибок превышает порог,
+ * предохранитель размыкается и вызовы сервиса отклоняются сразу. По истечении времени размыкания
+ * пропускается несколько пробных вызовов: если все успешны - предохранитель замыкается, если нет - снова размыкается.
+ * Пока предохранитель не замкнут, учитываются только ответы на пробные вызовы: ответ на запрос, отправленный
+ * до размыкания, пробным не считается.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final ConcurrentMap<ServiceKey, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private final CircuitBreakerConfig config;
+    private final long bucketMillis;
+    private final AtomicLongArray bucketEpochs;
+    private final AtomicLongArray successes;
+    private final AtomicLongArray failures;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger probesInFlight = new AtomicInteger();
+    private final AtomicInteger probesSucceeded = new AtomicInteger();
+    private volatile long stateSince;
+
+    public CircuitBreaker(CircuitBreakerConfig config) {
+        this.config = config;
+        int buckets = config.getWindowBuckets();
+        this.bucketMillis = Math.max(1, config.getWindowMillis() / buckets);
+        this.bucketEpochs = new AtomicLongArray(buckets);
+        this.successes = new AtomicLongArray(buckets);
+        this.failures = new AtomicLongArray(buckets);
+    }
+
+    /**
+     * Метод возвращает предохранитель сервиса, null - если у сервиса предохранитель выключен.
+     * Предохранитель общий для всех экземпляров Service с одинаковыми service() и method()
+     *
+     * @param service - сервис
+     * @return CircuitBreaker или null
+     */
+    public static CircuitBreaker forService(Service service) {
+        if (service == null || !service.circuitBreaker().isEnabled())
+            return null;
+        ServiceKey key = ServiceKey.of(service);
+        CircuitBreaker breaker = BREAKERS.get(key);
+        if (breaker == null)
+            breaker = BREAKERS.computeIfAbsent(key, k -> new CircuitBreaker(service.circuitBreaker()));
+        return breaker;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * @return true, если вызов разрешен. Для пробного вызова результат обязательно фиксируется onSuccess/onFailure
+     */
+    public boolean tryAcquire() {
+        long now = System.currentTimeMillis();
+        switch (state.get()) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - stateSince < config.getOpenMillis())
+                    return false;
+                if (transition(State.OPEN, State.HALF_OPEN, now)) {
+                    probesInFlight.set(0);
+                    probesSucceeded.set(0);
+                }
+                return tryAcquire();
+            default:
+                // пробы, результат которых так и не пришел, не должны навсегда блокировать предохранитель
+                if (now - stateSince >= config.getOpenMillis() && transition(State.HALF_OPEN, State.HALF_OPEN, now))
+                    probesInFlight.set(0);
+                int probes = probesInFlight.incrementAndGet();
+                if (probes <= config.getHalfOpenProbes())
+                    return true;
+                probesInFlight.decrementAndGet();
+                return false;
+        }
+    }
+
+    /**
+     * @param sentAt - время отправки запроса в мс
+     */
+    public void onSuccess(long sentAt) {
+        long now = System.currentTimeMillis();
+        if (state.get() == State.HALF_OPEN) {
+            if (sentAt < stateSince)
+                return;
+            if (probesSucceeded.incrementAndGet() >= config.getHalfOpenProbes() && transition(State.HALF_OPEN, State.CLOSED, now))
+                resetWindow();
+            return;
+        }
+        successes.incrementAndGet(bucket(now));
+    }
+
+    /**
+     * @param sentAt - время отправки запроса в мс
+     */
+    public void onFailure(long sentAt) {
+        long now = System.currentTimeMillis();
+        State current = state.get();
+        if (current == State.HALF_OPEN) {
+            if (sentAt >= stateSince)
+                transition(State.HALF_OPEN, State.OPEN, now);
+            return;
+        }
+        if (current == State.OPEN)
+            return;
+        failures.incrementAndGet(bucket(now));
+        long failed = 0;
+        long total = 0;
+        long oldest = now / bucketMillis - bucketEpochs.length() + 1;
+        for (int i = 0; i < bucketEpochs.length(); i++) {
+            if (bucketEpochs.get(i) >= oldest) {
+                failed += failures.get(i);
+                total += failures.get(i) + successes.get(i);
+            }
+        }
+        if (total >= config.getMinimumCalls() && failed >= config.getFailureRateThreshold() * total)
+            transition(State.CLOSED, State.OPEN, now);
+    }
+
+    /**
+     * Заменяет учтенный onSuccess ответ на ошибку: сценарий прочитал ответ и признал его ошибкой
+     *
+     * @param sentAt - время отправки запроса в мс
+     */
+    public void onErrorReply(long sentAt) {
+        if (state.get() == State.CLOSED) {
+            // the success was counted when the reply arrived, in the current bucket or just before its start
+            long epoch = System.currentTimeMillis() / bucketMillis;
+            if (!revokeSuccess(epoch))
+                revokeSuccess(epoch - 1);
+        }
+        onFailure(sentAt);
+    }
+
+    private boolean revokeSuccess(long epoch) {
+        int index = (int) (epoch % bucketEpochs.length());
+        if (bucketEpochs.get(index) != epoch)
+            return false;
+        long count;
+        do {
+            count = successes.get(index);
+            if (count == 0)
+                return false;
+        } while (!successes.compareAndSet(index, count, count - 1));
+        return true;
+    }
+
+    private boolean transition(State from, State to, long now) {
+        if (state.compareAndSet(from, to)) {
+            stateSince = now;
+            return true;
+        }
+        return false;
+    }
+
+    private int bucket(long now) {
+        long epoch = now / bucketMillis;
+        int index = (int) (epoch % bucketEpochs.length());
+        long bucketEpoch = bucketEpochs.get(index);
+        if (bucketEpoch != epoch && bucketEpochs.compareAndSet(index, bucketEpoch, epoch)) {
+            successes.set(index, 0);
+            failures.set(index, 0);
+        }
+        return index;
+    }
+
+    private void resetWindow() {
+        for (int i = 0; i < bucketEpochs.length(); i++) {
+            bucketEpochs.set(i, 0);
+            successes.set(i, 0);
+            failures.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+/**
+ * Настройки предохранителя сервиса, см. CircuitBreaker.
+ */
+public final class CircuitBreakerConfig {
+
+    /**
+     * Предохранитель выключен, поведение по умолчанию
+     */
+    public static final CircuitBreakerConfig DISABLED = new CircuitBreakerConfig(false, 1, 1, 1, 1, 0, 1);
+
+    private final boolean enabled;
+    private final double failureRateThreshold;
+    private final int minimumCalls;
+    private final long windowMillis;
+    private final int windowBuckets;
+    private final long openMillis;
+    private final int halfOpenProbes;
+
+    private CircuitBreakerConfig(boolean enabled, double failureRateThreshold, int minimumCalls, long windowMillis,
+                                 int windowBuckets, long openMillis, int halfOpenProbes) {
+        this.enabled = enabled;
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumCalls = minimumCalls;
+        this.windowMillis = windowMillis;
+        this.windowBuckets = windowBuckets;
+        this.openMillis = openMillis;
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    /**
+     * @param failureRateThreshold - доля ошибок в окне, при которой предохранитель размыкается, от 0 до 1
+     * @param minimumCalls         - минимальное количество вызовов в окне, после которого оценивается доля ошибок
+     * @param windowMillis         - длина скользящего окна в мс, окно делится на 10 интервалов
+     * @param openMillis           - время в мс, в течение которого вызовы отклоняются сразу
+     * @param halfOpenProbes       - количество пробных вызовов после размыкания, успех всех замыкает предохранитель
+     * @return включенный предохранитель
+     */
+    public static CircuitBreakerConfig of(double failureRateThreshold, int minimumCalls, long windowMillis,
+                                          long openMillis, int halfOpenProbes) {
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1 || minimumCalls < 1 || windowMillis < 10
+                || openMillis < 1 || halfOpenProbes < 1)
+            throw new IllegalArgumentException("circuit breaker false parameters");
+        return new CircuitBreakerConfig(true, failureRateThreshold, minimumCalls, windowMillis, 10, openMillis, halfOpenProbes);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public int getWindowBuckets() {
+        return windowBuckets;
+    }
+
+    public long getOpenMillis() {
+        return openMillis;
+    }
+
+    public int getHalfOpenProbes() {
+        return halfOpenProbes;
+    }
+}
@@ -0,0 +1,13 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+/**
+ * Вызов сервиса отклонен, т.к. предохранитель сервиса разомкнут.
+ */
+public class CircuitBreakerOpenException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CircuitBreakerOpenException(Service service) {
+        super("circuit breaker is open for service " + service.service() + " method " + service.method());
+    }
+}
@@ -0,0 +1,13 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+/**
+ * Вызов сервиса отклонен, т.к. срок транзакции истек.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException(long deadline) {
+        super("transaction deadline exceeded " + (System.currentTimeMillis() - deadline) + " ms ago");
+    }
+}
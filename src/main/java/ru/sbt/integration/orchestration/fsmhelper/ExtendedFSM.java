@@ -1,18 +1,23 @@
 package ru.sbt.integration.orchestration.fsmhelper;
 
+import org.slf4j.MDC;
 import ru.sbt.integration.orchestration.fsmcore.FSM;
 import ru.sbt.integration.orchestration.fsmcore.event.Event;
 import ru.sbt.integration.orchestration.fsmcore.event.EventResponseReceived;
 import ru.sbt.integration.orchestration.fsmcore.event.EventStartTransaction;
 import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+import ru.sbt.integration.orchestration.fsmcore.messages.ActionFactory;
 import ru.sbt.integration.orchestration.fsmcore.messages.ActionFactory.RemoteCallArgs;
 import ru.sbt.integration.orchestration.fsmcore.messages.ActionFactory.ScriptCallArgs;
 import ru.sbt.integration.orchestration.fsmcore.messages.SimpleMessage;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
 
 
 public abstract class ExtendedFSM extends FSM {
@@ -27,8 +32,164 @@ public abstract class ExtendedFSM extends FSM {
      */
     protected final static String STATE = "state";
 
+    /**
+     * Состояние сценария с таблицей переходов до первого перехода, см. Transition
+     */
+    public final static String START_STATE = "START";
+
+    /**
+     * Название события, которое cachedCall поднимает при нахождении ответа в кеше,
+     * а awaitSingleFlight - при получении ответа другой транзакцией.
+     * Сценарий должен обрабатывать его так же, как ответ сервиса.
+     */
+    public final static String CACHED_RESPONSE_EVENT = "cachedResponse";
+
+    /**
+     * Название события, которое parallelNext поднимает, когда по всем запросам windowedParallelCall
+     * получен ответ или таймаут, либо parallelCallQuorum набрал кворум. Результаты - holder().getBatch()
+     */
+    public final static String PARALLEL_COMPLETED_EVENT = "parallelCompleted";
+
+    /**
+     * Заголовок параллельного запроса с индексом запроса в пачке, см. ParallelBatch
+     */
+    public final static String PARALLEL_INDEX_HEADER = "fsm-helper-parallel-index";
+
+    /**
+     * Заголовок W3C Trace Context, в котором передается контекст трассировки, см. TraceContext
+     */
+    public final static String TRACEPARENT_HEADER = "traceparent";
+
+    /**
+     * Заголовок со сроком транзакции в мс от начала эпохи. Передается во все исходящие запросы,
+     * подсценарий, запущенный таким запросом, наследует срок, см. transactionTimeout()
+     */
+    public final static String DEADLINE_HEADER = "fsm-helper-deadline";
+
+    /**
+     * Получатель метрик обращений к сервисам, общий для всех сценариев JVM
+     */
+    private static volatile MetricsRegistry metricsRegistry = new InMemoryMetricsRegistry();
+
+    /**
+     * Локальный кеш глобального контекста, общий для всех сценариев JVM. По умолчанию выключен
+     */
+    private static volatile GlobalNearCache globalNearCache;
+
+    /**
+     * Ключ, по которому в stateData хранится текущее состояние сценария с таблицей переходов
+     */
+    private static final StateKey<String> CURRENT_STATE = StateKey.of("fsm-helper-state", String.class);
+
+    /**
+     * Виды запросов, отложенных ограничением сервиса, см. resumeQueuedCall
+     */
+    private static final int QUEUED_CALL = 1;
+    private static final int QUEUED_NO_RESPONSE = 2;
+    private static final int QUEUED_PARALLEL_CALL = 3;
+
+    /**
+     * Получатель событий шагов сценария, общий для всех сценариев JVM. По умолчанию события не записываются
+     */
+    private static volatile StepRecorder stepRecorder = StepRecorder.NOOP;
+
+    /**
+     * Получатель span трассировки, общий для всех сценариев JVM. По умолчанию трассировка выключена
+     */
+    private static volatile SpanExporter spanExporter = SpanExporter.NOOP;
+
     protected final LoggerFSM logger = new LoggerFSM(this);
 
+    private Object step;
+
+    private boolean inStep;
+
+    private StateSlots stateSlots;
+
+    private FSMHolder cachedHolder;
+
+    private boolean transitioned;
+
+    private boolean finished;
+
+    /**
+     * Метод возвращает получатель метрик обращений к сервисам. По умолчанию - InMemoryMetricsRegistry.
+     *
+     * @return MetricsRegistry
+     */
+    public static MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * Замена получателя метрик обращений к сервисам для всех сценариев JVM.
+     * Для отключения сбора метрик - MetricsRegistry.NOOP.
+     *
+     * @param registry - получатель метрик
+     */
+    public static void setMetricsRegistry(MetricsRegistry registry) {
+        metricsRegistry = registry;
+    }
+
+    /**
+     * Метод возвращает локальный кеш глобального контекста, null - если он выключен.
+     *
+     * @return GlobalNearCache
+     */
+    public static GlobalNearCache getGlobalNearCache() {
+        return globalNearCache;
+    }
+
+    /**
+     * Включение локального кеша глобального контекста для всех сценариев JVM, null - выключение.
+     * Чтения ключей через getFromGlobal перестают обращаться в глобальный контекст, пока значение живо в кеше.
+     * Прочитанный из кеша объект общий для всех транзакций JVM, изменять его нельзя.
+     *
+     * @param nearCache - локальный кеш
+     */
+    public static void setGlobalNearCache(GlobalNearCache nearCache) {
+        globalNearCache = nearCache;
+    }
+
+    /**
+     * Метод возвращает получатель событий шагов сценария. По умолчанию - StepRecorder.NOOP.
+     *
+     * @return StepRecorder
+     */
+    public static StepRecorder getStepRecorder() {
+        return stepRecorder;
+    }
+
+    /**
+     * Замена получателя событий шагов сценария для всех сценариев JVM, см. модуль fsm-helper-jfr.
+     * Для отключения записи - StepRecorder.NOOP.
+     *
+     * @param recorder - получатель событий
+     */
+    public static void setStepRecorder(StepRecorder recorder) {
+        stepRecorder = recorder != null ? recorder : StepRecorder.NOOP;
+    }
+
+    /**
+     * Метод возвращает получатель span трассировки. По умолчанию - SpanExporter.NOOP.
+     *
+     * @return SpanExporter
+     */
+    public static SpanExporter getSpanExporter() {
+        return spanExporter;
+    }
+
+    /**
+     * Замена получателя span трассировки для всех сценариев JVM, например InMemorySpanExporter или FileSpanExporter.
+     * Транзакции, начатые после замены, принимают заголовок traceparent и передают его в исходящих запросах.
+     * Для отключения трассировки - SpanExporter.NOOP.
+     *
+     * @param exporter - получатель span
+     */
+    public static void setSpanExporter(SpanExporter exporter) {
+        spanExporter = exporter != null ? exporter : SpanExporter.NOOP;
+    }
+
     public LoggerFSM getLogger() {
         return logger;
     }
@@ -68,9 +229,19 @@ public abstract class ExtendedFSM extends FSM {
      * @return действие удаленного вызова на ОИП
      */
     protected Action call(Service service, Object body, Map<String, Object> headers) {
+        if (isDeadlineExceeded())
+            return deadlineExceededAction();
+        if (!acquireCircuitBreaker(service))
+            return circuitOpenAction(service, body);
         SimpleMessage message = createNewMessage(service, body, headers);
-        logger.logRemoteRequest(service, service.timeout(), headers, body);
-        return getContext().getActionFactory().RemoteCall(service.service(), message, service.timeout());
+        int timeout = callTimeout(service);
+        long wait = acquireCallPermit(service, timeout);
+        if (wait > 0)
+            return limitExceeded(service, message, QUEUED_CALL, null, wait);
+        logger.logRemoteRequest(service, timeout, headers, body);
+        traceRequest(service, timeout);
+        holder().withSentAt(System.currentTimeMillis(), 1, timeout);
+        return actionFactory().RemoteCall(service.service(), message, timeout);
     }
 
     /**
@@ -87,9 +258,294 @@ public abstract class ExtendedFSM extends FSM {
      * @return действие удаленного вызова на ОИП
      */
     protected Action call(Service service, Object body, Map<String, Object> headers, String moduleId) {
+        if (isDeadlineExceeded())
+            return deadlineExceededAction();
+        if (!acquireCircuitBreaker(service))
+            return circuitOpenAction(service, body);
+        SimpleMessage message = createNewMessage(service, body, headers);
+        int timeout = callTimeout(service);
+        long wait = acquireCallPermit(service, timeout);
+        if (wait > 0)
+            return limitExceeded(service, message, QUEUED_CALL, moduleId, wait);
+        logger.logRemoteRequest(service, timeout, moduleId, headers, body);
+        traceRequest(service, timeout);
+        holder().withSentAt(System.currentTimeMillis(), 1, timeout);
+        return actionFactory().RemoteCall(service.service(), message, timeout, moduleId);
+    }
+
+    /**
+     * Метод возвращает Action для вызова идемпотентного сервиса с отправкой дублирующего запроса.
+     * Запрос отправляется с таймаутом, равным задержке Service.hedgePolicy(). Если за это время ответ не пришел,
+     * сценарий при обработке таймаута вызывает hedge(), который отправляет дубль на оставшееся время.
+     * Побеждает первый ответ, опоздавший ответ отбрасывается, см. acceptHedgedResponse.
+     * Если политика выключена или задержка не меньше таймаута сервиса - выполняется обычный call.
+     *
+     * @param service - идентификатор вызываемого сервиса
+     * @param body    - объект отправляемый в запросе
+     * @return действие удаленного вызова на ОИП
+     */
+    protected Action hedgedCall(Service service, Object body) {
+        return hedgedCall(service, body, null);
+    }
+
+    /**
+     * См. hedgedCall(Service service, Object body)
+     *
+     * @param service - идентификатор вызываемого сервиса
+     * @param body    - объект отправляемый в запросе
+     * @param headers - Map<String, Object>
+     * @return действие удаленного вызова на ОИП
+     */
+    protected Action hedgedCall(Service service, Object body, Map<String, Object> headers) {
+        HedgePolicy policy = service.hedgePolicy();
+        return hedgedCall(service, body, headers, policy.isEnabled() ? policy.delayFor(service) : 0);
+    }
+
+    /**
+     * См. hedgedCall(Service service, Object body)
+     *
+     * @param service    - идентификатор вызываемого сервиса
+     * @param body       - объект отправляемый в запросе
+     * @param headers    - Map<String, Object>
+     * @param hedgeDelay - задержка в мс, после которой отправляется дублирующий запрос
+     * @return действие удаленного вызова на ОИП
+     */
+    protected Action hedgedCall(Service service, Object body, Map<String, Object> headers, long hedgeDelay) {
+        int timeout = callTimeout(service);
+        if (hedgeDelay <= 0 || hedgeDelay >= timeout)
+            return call(service, body, headers);
+        if (isDeadlineExceeded())
+            return deadlineExceededAction();
+        if (!acquireCircuitBreaker(service))
+            return circuitOpenAction(service, body);
         SimpleMessage message = createNewMessage(service, body, headers);
-        logger.logRemoteRequest(service, service.timeout(), moduleId, headers, body);
-        return getContext().getActionFactory().RemoteCall(service.service(), message, service.timeout(), moduleId);
+        long wait = acquireCallPermit(service, timeout);
+        if (wait > 0)
+            return limitExceeded(service, message, QUEUED_CALL, null, wait);
+        retainForResend(service, message);
+        logger.logRemoteRequest(service, hedgeDelay, headers, body);
+        traceRequest(service, hedgeDelay);
+        long now = System.currentTimeMillis();
+        holder()
+                .withHedge(now + timeout)
+                .withSentAt(now, 1, timeout);
+        return actionFactory().RemoteCall(service.service(), message, hedgeDelay);
+    }
+
+    /**
+     * Метод возвращает Action для отправки дублирующего запроса hedgedCall.
+     * Вызывается сценарием при обработке таймаута первой копии запроса.
+     * Если дубль уже был отправлен или общий таймаут истек, вызывается метод hedgeEndAction.
+     * Если предохранитель сервиса разомкнут или ограничение сервиса не дает разрешения, дубль не отправляется,
+     * ответ на первую копию ожидается до конца общего таймаута.
+     *
+     * @return действие удаленного вызова на ОИП или ожидания
+     */
+    protected Action hedge() {
+        FSMHolder holder = holder();
+        long now = System.currentTimeMillis();
+        long remaining = holder.getHedgeDeadline() - now;
+        if (holder.getHedgeDeadline() == 0 || holder.isHedgeCompleted() || holder.getHedgeAttempts() > 1 || remaining <= 0)
+            return hedgeEndAction();
+        if (isDeadlineExceeded())
+            return deadlineExceededAction();
+        remaining = deadlineTimeout(remaining);
+        Service service = holder.getService();
+        // the duplicate shares the expiry of the first copy, both permits are released together
+        long expiry = holder.getPermitExpiry() != 0 ? holder.getPermitExpiry() : holder.getHedgeDeadline();
+        if (!acquireCircuitBreaker(service) || acquirePermit(service, now, expiry) > 0) {
+            logger.logDebug("Дублирующий запрос к сервису {} не отправлен", service.service());
+            return waitAction(remaining);
+        }
+        SimpleMessage message = getContext().getMessageFactory().createSimpleMessage(holder.getHeaders(), holder.getBody());
+        logger.logRemoteRequest(service, remaining, holder.getHeaders(), holder.getBody());
+        traceRequest(service, remaining);
+        holder
+                .withHedgeAttempt()
+                .withSentAt(holder.getSentAt(), holder.getHedgeInFlight());
+        return actionFactory().RemoteCall(service.service(), message, remaining);
+    }
+
+    /**
+     * Метод проверяет ответ на hedgedCall. Первый ответ принимается, опоздавший ответ на другую копию запроса -
+     * нет, сценарий должен его проигнорировать (например, вернуть waitAction).
+     * Для ответов не на hedgedCall всегда возвращает true.
+     *
+     * @param event - входящее сообщение
+     * @return true, если ответ нужно обработать
+     */
+    protected boolean acceptHedgedResponse(Event event) {
+        FSMHolder holder = holder();
+        if (!(event instanceof EventResponseReceived) || holder.getHedgeDeadline() == 0)
+            return true;
+        if (!holder.hedgeResponseReceived())
+            return false;
+        // ответ на другую копию не учитывается в метриках
+        if (holder.getSentAt() > 0)
+            holder.withSentAt(holder.getSentAt(), 1);
+        return true;
+    }
+
+    /**
+     * Метод по-умолчанию возвращает ErrorFinishExecution, когда ответ на hedgedCall не получен за таймаут сервиса.
+     * Если нужна другая логика необходимо перегрузить данный метод
+     *
+     * @return действие завершения сценария
+     */
+    protected Action hedgeEndAction() {
+        logger.logInfo("Ответ на запрос с дублированием не получен");
+        holder().clearHedge();
+        return errorEnd(new IllegalStateException("hedged call timeout"));
+    }
+
+    /**
+     * Метод возвращает Action для вызова идемпотентного сервиса через кеш ответов, общий для всех транзакций JVM.
+     * Если ответ на такое же тело запроса есть в кеше, запрос не отправляется, а поднимается событие
+     * CACHED_RESPONSE_EVENT, при обработке которого getInput/getBody возвращают ответ из кеша.
+     * Иначе выполняется call, и ответ сохраняется в кеш, когда сценарий прочитал его через getInput
+     * (если ответ прошел проверку типа) или getBody. Ответ не кешируется, если его отклонила проверка
+     * ResponseCacheConfig.isCacheable, например, бизнес-ошибка.
+     * Закешированный объект ответа общий для всех транзакций JVM, изменять его нельзя.
+     * Если у сервиса кеш выключен (Service.responseCache()) - выполняется обычный call.
+     *
+     * @param service - идентификатор вызываемого сервиса
+     * @param body    - объект отправляемый в запросе, ключ кеша, должен реализовывать equals и hashCode
+     * @param ttl     - время жизни ответа в кеше в мс
+     * @return действие удаленного вызова на ОИП или поднятия события CACHED_RESPONSE_EVENT
+     */
+    protected Action cachedCall(Service service, Object body, long ttl) {
+        return cachedCall(service, body, null, ttl);
+    }
+
+    /**
+     * См. cachedCall(Service service, Object body, long ttl)
+     *
+     * @param service - идентификатор вызываемого сервиса
+     * @param body    - объект отправляемый в запросе, ключ кеша, должен реализовывать equals и hashCode
+     * @param headers - Map<String, Object>, не входят в ключ кеша
+     * @param ttl     - время жизни ответа в кеше в мс
+     * @return действие удаленного вызова на ОИП или поднятия события CACHED_RESPONSE_EVENT
+     */
+    protected Action cachedCall(Service service, Object body, Map<String, Object> headers, long ttl) {
+        ResponseCache cache = ResponseCache.forService(service);
+        if (cache == null || body == null)
+            return call(service, body, headers);
+        Object cached = cache.get(body);
+        if (cached != null) {
+            logger.logDebug("Ответ сервиса {} получен из кеша", service.service());
+            holder().withCachedResponse(cached);
+            return raiseEvent(CACHED_RESPONSE_EVENT);
+        }
+        Action action = call(service, body, headers);
+        holder().withCacheKey(body, ttl);
+        flushState();
+        return action;
+    }
+
+    /**
+     * Метод возвращает Action для вызова идемпотентного сервиса с объединением одинаковых запросов.
+     * Если другая транзакция JVM уже ждет ответ на запрос к тому же сервису и методу с равным телом, запрос
+     * не отправляется, а транзакция ждет (waitAction) ответ той транзакции. При обработке таймаута ожидания
+     * сценарий вызывает awaitSingleFlight(), который поднимает CACHED_RESPONSE_EVENT, когда ответ получен.
+     * Если ведущая транзакция ответ не получила, запрос отправляется самостоятельно.
+     *
+     * @param service - идентификатор вызываемого сервиса
+     * @param body    - объект отправляемый в запросе, должен реализовывать equals и hashCode
+     * @return действие удаленного вызова на ОИП или ожидания ответа другой транзакции
+     */
+    protected Action singleFlightCall(Service service, Object body) {
+        return singleFlightCall(service, body, null);
+    }
+
+    /**
+     * См. singleFlightCall(Service service, Object body)
+     *
+     * @param service - идентификатор вызываемого сервиса
+     * @param body    - объект отправляемый в запросе, должен реализовывать equals и hashCode
+     * @param headers - Map<String, Object>, не входят в ключ объединения
+     * @return действие удаленного вызова на ОИП или ожидания ответа другой транзакции
+     */
+    protected Action singleFlightCall(Service service, Object body, Map<String, Object> headers) {
+        if (body == null)
+            return call(service, body, headers);
+        SingleFlight.Flight flight = SingleFlight.join(service, body, System.currentTimeMillis() + callTimeout(service));
+        if (!flight.tryLead()) {
+            flight.follow();
+            logger.logDebug("Запрос к сервису {} ожидает ответ другой транзакции", service.service());
+            retainForResend(service, createNewMessage(service, body, headers));
+            holder().withFlight(flight, false);
+            return waitAction(singleFlightWait(service, flight));
+        }
+        FSMHolder holder = holder().withSentAt(0, 0);
+        Action action = call(service, body, headers);
+        // request was not sent (circuit breaker is open)
+        if (holder.getSentAt() == 0)
+            flight.fail();
+        else
+            holder.withFlight(flight, true);
+        flushState();
+        return action;
+    }
+
+    /**
+     * Метод проверяет ответ на запрос singleFlightCall, отправленный другой транзакцией.
+     * Вызывается сценарием при обработке таймаута ожидания.
+     * Если ответ получен - поднимает CACHED_RESPONSE_EVENT, если еще нет - продолжает ожидание,
+     * если ведущая транзакция ответ не получила - отправляет запрос самостоятельно.
+     * Ожидаемый запрос не сохраняется вместе с состоянием транзакции, поэтому после восстановления состояния
+     * запрос тоже отправляется самостоятельно.
+     *
+     * @return действие поднятия события, ожидания или удаленного вызова на ОИП
+     */
+    protected Action awaitSingleFlight() {
+        FSMHolder holder = holder();
+        SingleFlight.Flight flight = holder.getFlight();
+        if (holder.isFlightLeader() || flight == null && (holder.getService() == null || holder.getBody() == null))
+            return singleFlightEndAction();
+        if (flight == null) {
+            // the flight is not persisted, the state was restored without it
+            logger.logDebug("Ожидаемый запрос не найден, запрос к сервису {} отправляется", holder.getService().service());
+            return call(holder.getService(), holder.getBody(), holder.getHeaders());
+        }
+        if (flight.isDone() && !flight.isFailed() && flight.getResponse() != null) {
+            holder
+                    .withFlight(null, false)
+                    .withCachedResponse(flight.getResponse());
+            releasePayload();
+            return raiseEvent(CACHED_RESPONSE_EVENT);
+        }
+        if (!flight.isDone() && !flight.isExpired(System.currentTimeMillis()))
+            return waitAction(singleFlightWait(holder.getService(), flight));
+        logger.logDebug("Ответ другой транзакции не получен, запрос к сервису {} отправляется", holder.getService().service());
+        holder.withFlight(null, false);
+        return call(holder.getService(), holder.getBody(), holder.getHeaders());
+    }
+
+    /**
+     * Метод по-умолчанию возвращает ErrorFinishExecution, когда awaitSingleFlight вызван без ожидания ответа.
+     * Если нужна другая логика необходимо перегрузить данный метод
+     *
+     * @return действие завершения сценария
+     */
+    protected Action singleFlightEndAction() {
+        logger.logInfo("Ответ другой транзакции не ожидается");
+        return errorEnd(new IllegalStateException("no single flight call in progress"));
+    }
+
+    /**
+     * Метод возвращает интервал в мс, через который транзакция проверяет получение ответа другой транзакцией.
+     * По умолчанию - 1/20 таймаута сервиса, но не меньше 5 мс
+     *
+     * @param service - идентификатор вызываемого сервиса
+     * @return интервал в мс
+     */
+    protected long singleFlightPollInterval(Service service) {
+        return Math.max(5, timeoutOf(service) / 20);
+    }
+
+    private long singleFlightWait(Service service, SingleFlight.Flight flight) {
+        long remaining = flight.getDeadline() - System.currentTimeMillis();
+        return Math.max(1, Math.min(singleFlightPollInterval(service), remaining));
     }
 
     /**
@@ -99,7 +555,8 @@ public abstract class ExtendedFSM extends FSM {
      * @return действие вызова кастомного метода сценария
      */
     protected Action raiseEvent(String eventName) {
-        return getContext().getActionFactory().RaiseEvent(eventName);
+        holder().withRaisedEvent(eventName);
+        return actionFactory().RaiseEvent(eventName);
     }
 
     /**
@@ -109,7 +566,7 @@ public abstract class ExtendedFSM extends FSM {
      * @return действие ожидания ответа.
      */
     protected Action waitAction(long timeout) {
-        return getContext().getActionFactory().Wait(timeout);
+        return actionFactory().Wait(timeout);
     }
 
     /**
@@ -134,8 +591,12 @@ public abstract class ExtendedFSM extends FSM {
      */
     protected Action callNoResponse(Service service, Object body, Map<String, Object> headers) {
         SimpleMessage message = createNewMessage(service, body, headers);
+        long wait = acquireCallPermit(service, 0);
+        if (wait > 0)
+            return limitExceeded(service, message, QUEUED_NO_RESPONSE, null, wait);
         logger.logRemoteRequest(service, headers, body);
-        return getContext().getActionFactory().RemoteCallNoResponse(service.service(), message);
+        traceRequest(service, 0);
+        return actionFactory().RemoteCallNoResponse(service.service(), message);
     }
 
     /**
@@ -159,7 +620,7 @@ public abstract class ExtendedFSM extends FSM {
     protected Action reply(Object body, Map<String, Object> headers) {
         SimpleMessage message = createNewMessage(null, body, headers);
         logger.logOutgoingReply(headers, body);
-        return getContext().getActionFactory().Reply(message);
+        return actionFactory().Reply(message);
     }
 
     /**
@@ -175,7 +636,9 @@ public abstract class ExtendedFSM extends FSM {
 
     /**
      * Метод возвращает Action для паралельного вызова удаленных сервисов c ожиданием ответа
-     * Перегруженный метод, принимает дополнительно List<Map<String, Object>> headers, со своими заголовками
+     * Перегруженный метод, принимает дополнительно List<Map<String, Object>> headers, со своими заголовками.
+     * Ответы, прочитанные через getInput/getBody или parallelNext, сохраняются по индексу запроса
+     * в holder().getBatch(), см. ParallelBatch.getValue(int index)
      *
      * @param service - List<Service> список идентификаторов вызываемых сервисов
      * @param body    - List<Object> список объектов отправляемых в запросе
@@ -186,15 +649,289 @@ public abstract class ExtendedFSM extends FSM {
         RemoteCallArgs[] remoteCallArgs = new RemoteCallArgs[service.size()];
 
         if (service.size() != body.size() || (headers != null && headers.size() != body.size()))
-            return getContext().getActionFactory().ErrorFinishExecution(new IllegalArgumentException("parallel call false parameters"));
+            return errorEnd(new IllegalArgumentException("parallel call false parameters"));
+        if (isDeadlineExceeded())
+            return deadlineExceededAction();
 
+        ParallelBatch batch = new ParallelBatch(service, body, headers, false, Math.max(1, service.size()), 0, null);
+        long now = System.currentTimeMillis();
+        int[] timeouts = new int[service.size()];
+        for (int i = 0; i < timeouts.length; i++) {
+            timeouts[i] = callTimeout(service.get(i));
+            long wait = acquirePermit(service.get(i), now, now + timeouts[i]);
+            if (wait > 0) {
+                // the call is sent as a whole or not at all
+                for (int j = 0; j < i; j++)
+                    refundPermit(service.get(j), now + timeouts[j]);
+                holder().withBatch(batch);
+                return limitExceeded(service.get(i), null, QUEUED_PARALLEL_CALL, null, wait);
+            }
+        }
+        holder().nextTraceSeq();
+        if (holder().getQueuedSince() != 0)
+            holder().clearQueued();
         for (int i = 0; i < body.size(); i++) {
             Map<String, Object> curHeader = headers != null ? headers.get(i) : null;
-            SimpleMessage message = createNewMessage(service.get(i), body.get(i), curHeader);
-            logger.logRemoteRequest(service.get(i), service.get(i).timeout(), curHeader, body.get(i));
-            remoteCallArgs[i] = new RemoteCallArgs(service.get(i).service(), message, service.get(i).timeout());
+            SimpleMessage message = createNewMessage(service.get(i), body.get(i), curHeader, i);
+            int timeout = timeouts[i];
+            logger.logRemoteRequest(service.get(i), timeout, curHeader, body.get(i));
+            traceRequest(service.get(i), timeout);
+            remoteCallArgs[i] = new RemoteCallArgs(service.get(i).service(), message, timeout);
+            batch.sent(i, now, timeout);
+        }
+        holder().withBatch(batch);
+        registerParallelSend(service);
+        return actionFactory().ParallelCall(remoteCallArgs);
+    }
+
+    /**
+     * Метод возвращает Action для паралельного вызова удаленных сервисов, при котором одновременно ожидается
+     * не больше maxInFlight ответов. Сценарий передает каждое следующее событие (ответ или таймаут) в parallelNext,
+     * который отправляет следующие запросы по мере получения ответов. Когда ответы получены по всем запросам,
+     * поднимается событие PARALLEL_COMPLETED_EVENT, ответы по индексу запроса - holder().getBatch()
+     *
+     * @param service     - List<Service> список идентификаторов вызываемых сервисов
+     * @param body        - List<Object> список объектов отправляемых в запросе
+     * @param maxInFlight - максимальное количество одновременных запросов
+     * @return действие удаленного вызова на ОИП
+     */
+    protected Action windowedParallelCall(List<Service> service, List<Object> body, int maxInFlight) {
+        return windowedParallelCall(service, body, null, maxInFlight);
+    }
+
+    /**
+     * См. windowedParallelCall(List<Service> service, List<Object> body, int maxInFlight)
+     *
+     * @param service     - List<Service> список идентификаторов вызываемых сервисов
+     * @param body        - List<Object> список объектов отправляемых в запросе
+     * @param headers     - List<Map<String, Object>> список Map с заголовками
+     * @param maxInFlight - максимальное количество одновременных запросов
+     * @return действие удаленного вызова на ОИП
+     */
+    protected Action windowedParallelCall(List<Service> service, List<Object> body, List<Map<String, Object>> headers, int maxInFlight) {
+        return startBatch(service, body, headers, false, maxInFlight, 0, null);
+    }
+
+    /**
+     * Метод возвращает Action для паралельного вызова подсценариев, при котором одновременно ожидается
+     * не больше maxInFlight ответов. См. windowedParallelCall(List<Service> service, List<Object> body, int maxInFlight)
+     *
+     * @param service     - List<Service> список идентификаторов вызываемых подсценариев
+     * @param body        - List<Object> список объектов отправляемых в запросе
+     * @param maxInFlight - максимальное количество одновременных запросов
+     * @return действие удаленного вызова на ОИП
+     */
+    protected Action windowedParallelScriptCall(List<Service> service, List<Object> body, int maxInFlight) {
+        return windowedParallelScriptCall(service, body, null, maxInFlight);
+    }
+
+    /**
+     * См. windowedParallelScriptCall(List<Service> service, List<Object> body, int maxInFlight)
+     *
+     * @param service     - List<Service> список идентификаторов вызываемых подсценариев
+     * @param body        - List<Object> список объектов отправляемых в запросе
+     * @param headers     - List<Map<String, Object>> список Map с заголовками
+     * @param maxInFlight - максимальное количество одновременных запросов
+     * @return действие удаленного вызова на ОИП
+     */
+    protected Action windowedParallelScriptCall(List<Service> service, List<Object> body, List<Map<String, Object>> headers, int maxInFlight) {
+        return startBatch(service, body, headers, true, maxInFlight, 0, null);
+    }
+
+    /**
+     * Метод возвращает Action для паралельного вызова удаленных сервисов, который завершается после получения
+     * quorum ответов. Сценарий передает каждое следующее событие в parallelNext, после получения quorum ответов
+     * (или когда кворум уже недостижим из-за таймаутов) поднимается событие PARALLEL_COMPLETED_EVENT,
+     * результат - holder().getBatch(), см. ParallelBatch.isQuorumReached().
+     * Остальные запросы не отменяются, опоздавшие ответы сценарий отбрасывает с помощью acceptParallelResponse.
+     *
+     * @param service - List<Service> список идентификаторов вызываемых сервисов
+     * @param body    - List<Object> список объектов отправляемых в запросе
+     * @param quorum  - количество ответов, достаточное для завершения вызова
+     * @return действие удаленного вызова на ОИП
+     */
+    protected Action parallelCallQuorum(List<Service> service, List<Object> body, int quorum) {
+        return parallelCallQuorum(service, body, null, quorum);
+    }
+
+    /**
+     * См. parallelCallQuorum(List<Service> service, List<Object> body, int quorum)
+     *
+     * @param service - List<Service> список идентификаторов вызываемых сервисов
+     * @param body    - List<Object> список объектов отправляемых в запросе
+     * @param headers - List<Map<String, Object>> список Map с заголовками
+     * @param quorum  - количество ответов, достаточное для завершения вызова
+     * @return действие удаленного вызова на ОИП
+     */
+    protected Action parallelCallQuorum(List<Service> service, List<Object> body, List<Map<String, Object>> headers, int quorum) {
+        if (quorum < 1)
+            return errorEnd(new IllegalArgumentException("parallel call quorum false parameters"));
+        return startBatch(service, body, headers, false, Math.max(1, service.size()), quorum, null);
+    }
+
+    /**
+     * См. parallelCallQuorum(List<Service> service, List<Object> body, int quorum).
+     * Вызов завершается, когда выполнено условие condition, проверяемое после каждого ответа или таймаута,
+     * либо когда по всем запросам получен ответ или таймаут.
+     *
+     * @param service   - List<Service> список идентификаторов вызываемых сервисов
+     * @param body      - List<Object> список объектов отправляемых в запросе
+     * @param headers   - List<Map<String, Object>> список Map с заголовками
+     * @param condition - условие завершения вызова по полученным ответам
+     * @return действие удаленного вызова на ОИП
+     */
+    protected Action parallelCallQuorum(List<Service> service, List<Object> body, List<Map<String, Object>> headers, Predicate<ParallelBatch> condition) {
+        return startBatch(service, body, headers, false, Math.max(1, service.size()), 0, condition);
+    }
+
+    /**
+     * Метод проверяет, не является ли ответ опоздавшим ответом parallelCallQuorum, пришедшим после завершения вызова.
+     * Опоздавший ответ учитывается в метриках сервиса и сохраняется в пачке, но не меняет результат вызова,
+     * сценарий должен его проигнорировать (например, вернуть waitAction).
+     * Для остальных событий всегда возвращает true.
+     *
+     * @param event - входящее сообщение
+     * @return true, если ответ нужно обработать
+     */
+    protected boolean acceptParallelResponse(Event event) {
+        beginStep(event);
+        ParallelBatch batch = holder().getBatch();
+        if (!(event instanceof EventResponseReceived) || batch == null || !batch.isCompleted() || batch.getInFlight() == 0)
+            return true;
+        SimpleMessage message = ((EventResponseReceived) event).getMessage();
+        int index = batch.correlate(message != null && message.getHeaders() != null ? message.getHeaders().get(PARALLEL_INDEX_HEADER) : null);
+        if (index < 0)
+            return true;
+        recordSuccess(batch.getService(index), System.currentTimeMillis() - batch.getSentAt(index), index + 1);
+        batch.received(index, message.getBody());
+        holder().update();
+        return false;
+    }
+
+    /**
+     * Метод обрабатывает событие, полученное после windowedParallelCall или parallelCallQuorum: сохраняет ответ по индексу запроса,
+     * при таймауте отмечает запросы без ответа как неуспешные, и отправляет следующие запросы.
+     *
+     * @param event - входящее сообщение
+     * @return действие удаленного вызова на ОИП, ожидания следующего ответа или поднятия PARALLEL_COMPLETED_EVENT
+     */
+    protected Action parallelNext(Event event) {
+        beginStep(event);
+        ParallelBatch batch = holder().getBatch();
+        if (batch == null)
+            return errorEnd(new IllegalStateException("no windowed parallel call in progress"));
+        long now = System.currentTimeMillis();
+        if (event instanceof EventResponseReceived) {
+            SimpleMessage message = ((EventResponseReceived) event).getMessage();
+            Map<String, Object> headers = message != null ? message.getHeaders() : null;
+            Object correlation = headers != null ? headers.get(PARALLEL_INDEX_HEADER) : null;
+            int index = batch.correlate(correlation);
+            if (index >= 0) {
+                Object body = message != null ? message.getBody() : null;
+                recordSuccess(batch.getService(index), now - batch.getSentAt(index), index + 1);
+                logger.logIncomingRequest(body);
+                batch.received(index, body);
+            } else {
+                logger.logWarn("Ответ с индексом параллельного запроса {} не ожидается, ответ проигнорирован", correlation);
+            }
+        } else {
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.isExpired(i, now)) {
+                    recordFailure(batch.getService(i), now - batch.getSentAt(i), true, i + 1);
+                    batch.failed(i);
+                }
+            }
+        }
+        if (isDeadlineExceeded())
+            batch.failPending();
+        holder().update();
+        if (batch.complete())
+            return raiseEvent(PARALLEL_COMPLETED_EVENT);
+        Action action = sendBatch(batch);
+        if (action != null)
+            return action;
+        if (batch.complete())
+            return raiseEvent(PARALLEL_COMPLETED_EVENT);
+        return waitAction(Math.max(1, batch.nextDeadline() - now));
+    }
+
+    private Action startBatch(List<Service> service, List<Object> body, List<Map<String, Object>> headers, boolean script,
+                              int maxInFlight, int quorum, Predicate<ParallelBatch> condition) {
+        if (service.size() != body.size() || (headers != null && headers.size() != body.size()) || maxInFlight < 1
+                || quorum < 0 || quorum > service.size())
+            return errorEnd(new IllegalArgumentException("windowed parallel call false parameters"));
+        if (isDeadlineExceeded())
+            return deadlineExceededAction();
+        ParallelBatch batch = new ParallelBatch(service, body, headers, script, maxInFlight, quorum, condition);
+        holder().withBatch(batch).nextTraceSeq();
+        if (batch.size() == 0)
+            return raiseEvent(PARALLEL_COMPLETED_EVENT);
+        Action action = sendBatch(batch);
+        // every request was shed by service limits
+        return action != null ? action : raiseEvent(PARALLEL_COMPLETED_EVENT);
+    }
+
+    /**
+     * Отправляет запросы пачки, пока окно не заполнено. Запросы к удаленным сервисам получают разрешение
+     * ServiceLimiter: при политике QUEUE отправка останавливается до следующего события, при SHED запрос
+     * отмечается как неуспешный, при FAIL_FAST вызов завершается
+     *
+     * @return действие удаленного вызова на ОИП или ожидания разрешения, null - если отправлять нечего
+     */
+    private Action sendBatch(ParallelBatch batch) {
+        int first = batch.nextToSend();
+        if (first < 0)
+            return null;
+        int count = Math.min(batch.getMaxInFlight() - batch.getInFlight(), batch.size() - first);
+        RemoteCallArgs[] remoteCallArgs = batch.isScript() ? null : new RemoteCallArgs[count];
+        ScriptCallArgs[] scriptCallArgs = batch.isScript() ? new ScriptCallArgs[count] : null;
+        int[] indexes = new int[count];
+        int sent = 0;
+        long wait = 0;
+        long now = System.currentTimeMillis();
+        for (int index = first; index >= 0; index = batch.nextToSend()) {
+            Service service = batch.getService(index);
+            int timeout = callTimeout(service);
+            if (!batch.isScript()) {
+                wait = acquirePermit(service, now, now + timeout);
+                if (wait > 0) {
+                    metricsRegistry.recordRejected(service);
+                    ServiceLimitConfig.Policy policy = service.limit().getPolicy();
+                    if (policy == ServiceLimitConfig.Policy.SHED) {
+                        logger.logDebug("Запрос к сервису {} сброшен ограничением сервиса", service.service());
+                        batch.skipped(index);
+                        wait = 0;
+                        continue;
+                    }
+                    if (policy == ServiceLimitConfig.Policy.FAIL_FAST) {
+                        // requests of this round are never sent
+                        for (int i = 0; i < sent; i++)
+                            refundPermit(batch.getService(indexes[i]), batch.getExpiry(indexes[i]));
+                        return serviceOverloadedAction(service, batch.getBody(index));
+                    }
+                    // the rest is sent by parallelNext when permits are available
+                    break;
+                }
+            }
+            Map<String, Object> headers = indexedHeaders(batch.getHeaders(index), index);
+            SimpleMessage message = getContext().getMessageFactory().createSimpleMessage(headers, batch.getBody(index));
+            logger.logRemoteRequest(service, timeout, headers, batch.getBody(index));
+            traceRequest(service, timeout);
+            if (batch.isScript())
+                scriptCallArgs[sent] = new ScriptCallArgs(service.service(), message, timeout);
+            else
+                remoteCallArgs[sent] = new RemoteCallArgs(service.service(), message, timeout);
+            batch.sent(index, now, timeout);
+            indexes[sent++] = index;
         }
-        return getContext().getActionFactory().ParallelCall(remoteCallArgs);
+        holder().update();
+        if (sent == 0)
+            return wait > 0
+                    ? waitAction(batch.getInFlight() > 0 ? Math.max(1, Math.min(wait, batch.nextDeadline() - now)) : wait)
+                    : null;
+        return batch.isScript()
+                ? actionFactory().ParallelCall(Arrays.copyOf(scriptCallArgs, sent))
+                : actionFactory().ParallelCall(Arrays.copyOf(remoteCallArgs, sent));
     }
 
     /**
@@ -221,15 +958,25 @@ public abstract class ExtendedFSM extends FSM {
         ScriptCallArgs[] scriptCallArgs = new ScriptCallArgs[service.size()];
 
         if (service.size() != body.size() || (headers != null && headers.size() != body.size()))
-            return getContext().getActionFactory().ErrorFinishExecution(new IllegalArgumentException("parallel script call false parameters"));
+            return errorEnd(new IllegalArgumentException("parallel script call false parameters"));
+        if (isDeadlineExceeded())
+            return deadlineExceededAction();
 
+        ParallelBatch batch = new ParallelBatch(service, body, headers, true, Math.max(1, service.size()), 0, null);
+        holder().nextTraceSeq();
+        long now = System.currentTimeMillis();
         for (int i = 0; i < body.size(); i++) {
             Map<String, Object> curHeader = headers != null ? headers.get(i) : null;
-            SimpleMessage message = createNewMessage(service.get(i), body.get(i), curHeader);
-            logger.logRemoteRequest(service.get(i), service.get(i).timeout(), curHeader, body.get(i));
-            scriptCallArgs[i] = new ScriptCallArgs(service.get(i).service(), message, service.get(i).timeout());
+            SimpleMessage message = createNewMessage(service.get(i), body.get(i), curHeader, i);
+            int timeout = callTimeout(service.get(i));
+            logger.logRemoteRequest(service.get(i), timeout, curHeader, body.get(i));
+            traceRequest(service.get(i), timeout);
+            scriptCallArgs[i] = new ScriptCallArgs(service.get(i).service(), message, timeout);
+            batch.sent(i, now, timeout);
         }
-        return getContext().getActionFactory().ParallelCall(scriptCallArgs);
+        holder().withBatch(batch);
+        registerParallelSend(service);
+        return actionFactory().ParallelCall(scriptCallArgs);
     }
 
     /**
@@ -253,9 +1000,14 @@ public abstract class ExtendedFSM extends FSM {
      * @return действие вызова подценария на ОИП
      */
     protected Action scriptCall(Service service, Object body, Map<String, Object> headers) {
+        if (isDeadlineExceeded())
+            return deadlineExceededAction();
         SimpleMessage message = createNewMessage(service, body, headers);
-        logger.logScriptRequest(service, service.timeout(), headers, body);
-        return getContext().getActionFactory().ScriptCall(service.service(), message, service.timeout());
+        int timeout = callTimeout(service);
+        logger.logScriptRequest(service, timeout, headers, body);
+        traceRequest(service, timeout);
+        holder().withSentAt(System.currentTimeMillis(), 1, timeout);
+        return actionFactory().ScriptCall(service.service(), message, timeout);
     }
 
     /**
@@ -264,8 +1016,30 @@ public abstract class ExtendedFSM extends FSM {
      * @return действие завершения сценария
      */
     protected Action end() {
+        finished = true;
+        exportScenarioSpan(false);
+        releasePermits();
+        abandonFlight();
+        stateSlots = null;
+        cachedHolder = null;
         stateData().clear();
-        return getContext().getActionFactory().FinishExecution();
+        return actionFactory().FinishExecution();
+    }
+
+    /**
+     * Заканчивает исполнение сценария с ошибкой. Освобождает разрешения ограничений сервисов, отменяет
+     * ожидание ответа singleFlightCall и завершает span сценария с признаком ошибки. Обработчик перехода, завершивший сценарий этим методом,
+     * не переводит сценарий в состояние to, см. dispatch
+     *
+     * @param e - причина ошибки
+     * @return действие завершения сценария с ошибкой
+     */
+    protected Action errorEnd(Exception e) {
+        finished = true;
+        exportScenarioSpan(true);
+        releasePermits();
+        abandonFlight();
+        return actionFactory().ErrorFinishExecution(e);
     }
 
     /**
@@ -280,18 +1054,107 @@ public abstract class ExtendedFSM extends FSM {
 
         if (!value.isPresent())
             return ValueOrError.error("Incoming arguments is null");
-        if (!clazz.isAssignableFrom(value.get().getClass()))
+        if (!clazz.isAssignableFrom(value.get().getClass())) {
+            storeCachedResponse(null);
             return ValueOrError.error("Incoming arguments class is incorrect: expected " + clazz.getName() + ", actual " + value.get().getClass());
-        else
+        } else
             try {
                 ValueOrError<T, String> body = ValueOrError.value((T) value.get());
+                storeCachedResponse(value.get());
                 logger.logIncomingRequest(body);
                 return body;
             } catch (ClassCastException e) {
+                storeCachedResponse(null);
                 return ValueOrError.error(e.getMessage());
             }
     }
 
+    /**
+     * Метод обрабатывает событие по таблице переходов, созданной при компиляции по аннотациям Transition:
+     * выбирает обработчик по текущему состоянию, типу и названию события (см. eventName), вызывает обработчик
+     * и переводит сценарий в состояние to. Состояние не меняется, если обработчик сам вызвал transitionTo,
+     * завершил сценарий (end, errorEnd) или выбросил исключение.
+     * Используется в handleEvent сценария вместо цепочек instanceof:
+     * <pre>
+     * public Action handleEvent(Event event) {
+     *     return dispatch(event);
+     * }
+     * </pre>
+     * Если событие в текущем состоянии не обрабатывается, вызывается метод unexpectedEventAction.
+     *
+     * @param event - входящее сообщение
+     * @return действие, которое вернул обработчик
+     */
+    protected Action dispatch(Event event) {
+        beginStep(event);
+        TransitionTable<ExtendedFSM> table = TransitionTable.forClass(getClass());
+        String state = currentState();
+        String name = eventName(event);
+        if (holder().getRaisedEvent() != null)
+            holder().withRaisedEvent(null);
+        int cell = table.cell(table.stateIndex(state), event, name);
+        if (cell < 0)
+            return unexpectedEventAction(event);
+        MDC.put(STATE, state);
+        transitioned = false;
+        finished = false;
+        Action action = table.handle(this, cell, event);
+        int target = table.target(cell);
+        if (target >= 0 && !transitioned && !finished) {
+            // the action is already created, the new state is flushed here
+            putToState(CURRENT_STATE, table.getState(target));
+            flushState();
+        }
+        return action;
+    }
+
+    /**
+     * Метод возвращает название события для выбора обработчика по Transition.event.
+     * По умолчанию - название, переданное в raiseEvent на предыдущем шаге, если событие не является
+     * началом транзакции или ответом сервиса, иначе null.
+     * Если сценарий поднимает события без raiseEvent, необходимо перегрузить данный метод
+     *
+     * @param event - входящее сообщение
+     * @return название события или null
+     */
+    protected String eventName(Event event) {
+        if (event instanceof EventStartTransaction || event instanceof EventResponseReceived)
+            return null;
+        return holder().getRaisedEvent();
+    }
+
+    /**
+     * @return текущее состояние сценария с таблицей переходов, до первого перехода - START_STATE
+     */
+    protected String currentState() {
+        return getFromStateOrDefault(CURRENT_STATE, START_STATE);
+    }
+
+    /**
+     * Переводит сценарий в состояние state. Вызывается обработчиком, когда следующее состояние
+     * зависит от ответа, и заменяет состояние to из аннотации Transition
+     *
+     * @param state - состояние из таблицы переходов
+     */
+    protected void transitionTo(String state) {
+        if (TransitionTable.forClass(getClass()).stateIndex(state) < 0)
+            throw new IllegalArgumentException("unknown state " + state);
+        putToState(CURRENT_STATE, state);
+        transitioned = true;
+    }
+
+    /**
+     * Метод по-умолчанию возвращает ErrorFinishExecution, когда событие не обрабатывается в текущем состоянии.
+     * Если нужна другая логика необходимо перегрузить данный метод
+     *
+     * @param event - входящее сообщение
+     * @return действие завершения сценария
+     */
+    protected Action unexpectedEventAction(Event event) {
+        logger.logInfo("Событие {} не обрабатывается в состоянии {}", event != null ? event.getClass().getSimpleName() : null, currentState());
+        return errorEnd(new IllegalStateException("unexpected event in state " + currentState()));
+    }
+
     /**
      * Метод возвращает сообщение обернутое в Optional, из входящего события.
      *
@@ -299,18 +1162,27 @@ public abstract class ExtendedFSM extends FSM {
      * @return Optional<SimpleMessage> или Optional.empty()
      */
     private Optional<SimpleMessage> getMessageOptional(Event event) {
+        beginStep(event);
+        Object cached = takeCachedResponse();
+        if (cached != null)
+            return Optional.of(getContext().getMessageFactory().createSimpleMessage(Headers.EMPTY, cached));
         if (event instanceof EventStartTransaction) {
             Object body = Optional.ofNullable(event)
                     .map(p -> (EventStartTransaction) p)
                     .map(EventStartTransaction::getMessage)
                     .map(SimpleMessage::getBody)
                     .orElse(null);
-            holder().withStart(body);
+            holder().withStart(payloadRetention().retain(body));
+            startTrace(((EventStartTransaction) event).getMessage());
+            startDeadline(((EventStartTransaction) event).getMessage());
             return Optional.ofNullable((EventStartTransaction) event)
                     .map(EventStartTransaction::getMessage);
         } else if (event instanceof EventResponseReceived) {
-            return Optional.ofNullable((EventResponseReceived) event)
+            Optional<SimpleMessage> message = Optional.ofNullable((EventResponseReceived) event)
                     .map(EventResponseReceived::getMessage);
+            registerResponse(message.orElse(null));
+            message.ifPresent(m -> completeFlight(m.getBody()));
+            return message;
         } else {
             return Optional.empty();
         }
@@ -325,13 +1197,22 @@ public abstract class ExtendedFSM extends FSM {
     @SuppressWarnings("unchecked")
     protected <T> T getBody(Event event) {
         T body;
-        if (event instanceof EventResponseReceived) {
+        beginStep(event);
+        Object cached = takeCachedResponse();
+        if (cached != null) {
+            body = (T) cached;
+        } else if (event instanceof EventResponseReceived) {
             EventResponseReceived eventResponseReceived = (EventResponseReceived) event;
             body = (T) eventResponseReceived.getMessage().getBody();
+            registerResponse(eventResponseReceived.getMessage());
+            storeCachedResponse(body);
+            completeFlight(body);
         } else if (event instanceof EventStartTransaction) {
             EventStartTransaction eventResponseReceived = (EventStartTransaction) event;
             body = (T) eventResponseReceived.getMessage().getBody();
-            holder().withStart(body);
+            holder().withStart(payloadRetention().retain(body));
+            startTrace(eventResponseReceived.getMessage());
+            startDeadline(eventResponseReceived.getMessage());
         } else {
             body = null;
         }
@@ -339,6 +1220,507 @@ public abstract class ExtendedFSM extends FSM {
         return body;
     }
 
+    /**
+     * Учитывает в метриках и предохранителе сервиса таймаут ожидания ответа на последний запрос.
+     * Вызывается сценарием при обработке события таймаута.
+     */
+    protected void registerTimeout() {
+        beginStep(null);
+        registerFailure(true);
+    }
+
+    /**
+     * Учитывает в предохранителе сервиса ошибку, полученную в ответ на последний запрос.
+     * Вызывается сценарием при обработке ответа с ошибкой, а также RetryFSM.retryCall.
+     * Если ответ уже прочитан через getInput или getBody, он был учтен как успешный - этот учет заменяется ошибкой.
+     */
+    protected void registerError() {
+        registerFailure(false);
+    }
+
+    /**
+     * Метод возвращает Action, который исполняется вместо вызова сервиса, пока предохранитель сервиса разомкнут.
+     * По умолчанию - ErrorFinishExecution с CircuitBreakerOpenException.
+     * Если нужна другая логика (ответ по умолчанию, вызов другого сервиса) необходимо перегрузить данный метод
+     *
+     * @param service - идентификатор сервиса, вызов которого отклонен
+     * @param body    - объект, который должен был быть отправлен в запросе
+     * @return действие, заменяющее вызов сервиса
+     */
+    protected Action circuitOpenAction(Service service, Object body) {
+        logger.logWarn("Вызов сервиса {} отклонен, предохранитель разомкнут", service.service());
+        return errorEnd(new CircuitBreakerOpenException(service));
+    }
+
+    /**
+     * Метод возвращает Action, который исполняется вместо вызова сервиса, когда превышено ограничение сервиса
+     * с политикой FAIL_FAST или ожидание при политике QUEUE дольше ServiceLimitConfig.getMaxQueueMillis().
+     * По умолчанию - ErrorFinishExecution с ServiceOverloadedException.
+     *
+     * @param service - идентификатор сервиса, вызов которого отклонен
+     * @param body    - объект, который должен был быть отправлен в запросе
+     * @return действие, заменяющее вызов сервиса
+     */
+    protected Action serviceOverloadedAction(Service service, Object body) {
+        logger.logWarn("Вызов сервиса {} отклонен, превышено ограничение сервиса", service.service());
+        return errorEnd(new ServiceOverloadedException(service));
+    }
+
+    /**
+     * Метод возвращает Action, который исполняется вместо вызова сервиса, когда превышено ограничение сервиса
+     * с политикой SHED. По умолчанию - FinishExecution: транзакция завершается без ошибки и без повторов.
+     * Если нужен ответ по умолчанию или вызов другого сервиса необходимо перегрузить данный метод
+     *
+     * @param service - идентификатор сервиса, вызов которого сброшен
+     * @param body    - объект, который должен был быть отправлен в запросе
+     * @return действие, заменяющее вызов сервиса
+     */
+    protected Action shedAction(Service service, Object body) {
+        logger.logInfo("Вызов сервиса {} сброшен, превышено ограничение сервиса", service.service());
+        return actionFactory().FinishExecution();
+    }
+
+    /**
+     * @return true, если запрос отложен ограничением сервиса с политикой QUEUE и ждет вызова resumeQueuedCall
+     */
+    protected boolean isCallQueued() {
+        return holder().getQueuedSince() != 0;
+    }
+
+    /**
+     * Метод возвращает Action для отправки запроса call, callNoResponse или parallelCall, отложенного ограничением
+     * сервиса с политикой QUEUE. Вызывается сценарием при обработке таймаута ожидания.
+     * Если разрешение снова не получено - ожидание продолжается, пока не истечет ServiceLimitConfig.getMaxQueueMillis(),
+     * после этого вызывается serviceOverloadedAction.
+     *
+     * @return действие удаленного вызова на ОИП или ожидания
+     */
+    protected Action resumeQueuedCall() {
+        FSMHolder holder = holder();
+        switch (holder.getQueuedSince() != 0 ? holder.getQueuedCall() : 0) {
+            case QUEUED_CALL:
+                // the overload without moduleId may be overridden to start a new call, e.g. in RetryFSM
+                return call(holder.getService(), holder.getBody(), holder.getHeaders(), holder.getQueuedModuleId());
+            case QUEUED_NO_RESPONSE:
+                return callNoResponse(holder.getService(), holder.getBody(), holder.getHeaders());
+            case QUEUED_PARALLEL_CALL:
+                ParallelBatch batch = holder.getBatch();
+                List<Service> services = new ArrayList<>(batch.size());
+                List<Object> bodies = new ArrayList<>(batch.size());
+                List<Map<String, Object>> headers = new ArrayList<>(batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    services.add(batch.getService(i));
+                    bodies.add(batch.getBody(i));
+                    headers.add(batch.getHeaders(i));
+                }
+                return parallelCall(services, bodies, headers);
+            default:
+                return errorEnd(new IllegalStateException("no queued call"));
+        }
+    }
+
+    /**
+     * Действие по политике ограничения сервиса, когда запрос не получил разрешение ServiceLimiter
+     *
+     * @param message - сообщение одиночного запроса, null - для parallelCall
+     * @param wait    - время в мс, через которое разрешение может быть получено
+     */
+    private Action limitExceeded(Service service, SimpleMessage message, int queuedCall, String moduleId, long wait) {
+        metricsRegistry.recordRejected(service);
+        FSMHolder holder = holder();
+        if (message != null)
+            retainForResend(service, message);
+        Object body = message != null ? message.getBody() : null;
+        ServiceLimitConfig config = service.limit();
+        switch (config.getPolicy()) {
+            case QUEUE:
+                long now = System.currentTimeMillis();
+                long queuedSince = holder.getQueuedSince() != 0 ? holder.getQueuedSince() : now;
+                long remaining = queuedSince + config.getMaxQueueMillis() - now;
+                if (holder.getDeadline() != 0)
+                    remaining = Math.min(remaining, holder.getDeadline() - now);
+                if (remaining > 0) {
+                    logger.logDebug("Запрос к сервису {} ожидает разрешения ограничения сервиса", service.service());
+                    holder.withQueued(queuedSince, queuedCall, moduleId);
+                    // waiting transactions should not all retry at the same moment
+                    return waitAction(Math.min(wait + ThreadLocalRandom.current().nextLong(wait + 1), remaining));
+                }
+                holder.clearQueued();
+                return serviceOverloadedAction(service, body);
+            case SHED:
+                holder.clearQueued();
+                return shedAction(service, body);
+            default:
+                holder.clearQueued();
+                return serviceOverloadedAction(service, body);
+        }
+    }
+
+    /**
+     * Получает разрешение ServiceLimiter на одиночный запрос, время окончания таймаута запроса сохраняется в holder()
+     *
+     * @param timeout - таймаут запроса в мс, 0 - ответ не ожидается
+     * @return 0 - запрос можно отправлять, иначе время в мс до следующей попытки
+     */
+    private long acquireCallPermit(Service service, int timeout) {
+        ServiceLimiter limiter = ServiceLimiter.forService(service);
+        FSMHolder holder = holder();
+        if (limiter != null) {
+            long now = System.currentTimeMillis();
+            long expiry = timeout > 0 ? now + timeout : 0;
+            long wait = limiter.tryAcquire(now, expiry);
+            if (wait > 0)
+                return wait;
+            if (expiry != 0)
+                holder.withPermitExpiry(expiry);
+        }
+        if (holder.getQueuedSince() != 0)
+            holder.clearQueued();
+        return 0;
+    }
+
+    private static long acquirePermit(Service service, long now, long expiry) {
+        ServiceLimiter limiter = ServiceLimiter.forService(service);
+        return limiter != null ? limiter.tryAcquire(now, expiry) : 0;
+    }
+
+    private static void refundPermit(Service service, long expiry) {
+        ServiceLimiter limiter = ServiceLimiter.forService(service);
+        if (limiter != null)
+            limiter.refund(expiry);
+    }
+
+    private void releaseCallPermit() {
+        FSMHolder holder = holder();
+        if (holder.getPermitExpiry() == 0)
+            return;
+        ServiceLimiter limiter = ServiceLimiter.forService(holder.getService());
+        if (limiter != null) {
+            limiter.release(holder.getPermitExpiry());
+            // the duplicate of hedgedCall holds its own permit
+            if (holder.getHedgeAttempts() > 1)
+                limiter.release(holder.getPermitExpiry());
+        }
+        holder.withPermitExpiry(0);
+    }
+
+    /**
+     * @param slot - 0 для одиночного запроса, индекс + 1 для запроса пачки
+     */
+    private void releasePermit(Service service, int slot) {
+        if (slot == 0) {
+            releaseCallPermit();
+            return;
+        }
+        ParallelBatch batch = holder().getBatch();
+        ServiceLimiter limiter = ServiceLimiter.forService(service);
+        if (limiter != null && batch != null && !batch.isScript())
+            limiter.release(batch.getExpiry(slot - 1));
+    }
+
+    /**
+     * Освобождает разрешения запросов, ответы на которые транзакция уже не ждет
+     */
+    private void releasePermits() {
+        releaseCallPermit();
+        ParallelBatch batch = holder().getBatch();
+        if (batch == null || batch.isScript())
+            return;
+        for (int i = 0; i < batch.size(); i++)
+            if (batch.isInFlight(i))
+                releasePermit(batch.getService(i), i + 1);
+    }
+
+    /**
+     * Политика хранения в holder() тела входящего запроса сценария и тел отправленных запросов,
+     * если у сервиса не задана своя (Service.payloadRetention). По умолчанию - REFERENCE.
+     * Если тела запросов сценарию не нужны, необходимо перегрузить данный метод
+     *
+     * @return PayloadRetention
+     */
+    protected PayloadRetention payloadRetention() {
+        return PayloadRetention.REFERENCE;
+    }
+
+    /**
+     * Метод возвращает политику хранения тела запроса к сервису
+     *
+     * @param service - идентификатор вызываемого сервиса
+     * @return PayloadRetention
+     */
+    protected PayloadRetention retentionOf(Service service) {
+        PayloadRetention retention = service != null ? service.payloadRetention() : PayloadRetention.INHERIT;
+        if (retention == null || retention == PayloadRetention.INHERIT)
+            retention = payloadRetention();
+        return retention == null || retention == PayloadRetention.INHERIT ? PayloadRetention.REFERENCE : retention;
+    }
+
+    /**
+     * Освобождает тело и заголовки отправленного запроса, хранящиеся в holder(). Вызывается при получении ответа
+     */
+    protected void releasePayload() {
+        FSMHolder holder = holder();
+        if (holder.getBody() != null || holder.getHeaders() != null)
+            holder
+                    .withBody(null)
+                    .withHeaders(null);
+    }
+
+    /**
+     * Сохраняет тело запроса, которое понадобится для повторной отправки, даже если политика сервиса - NONE
+     */
+    private void retainForResend(Service service, SimpleMessage message) {
+        FSMHolder holder = holder();
+        if (holder.getBody() == null && message.getBody() != null)
+            holder
+                    .withBody(retentionOf(service).orReference().retain(message.getBody()))
+                    .withHeaders(message.getHeaders());
+    }
+
+    /**
+     * Метод возвращает таймаут вызова сервиса: адаптивный, если он включен для сервиса, иначе Service.timeout()
+     *
+     * @param service - идентификатор вызываемого сервиса
+     * @return таймаут в мс
+     */
+    protected int timeoutOf(Service service) {
+        return AdaptiveTimeout.timeoutOf(service);
+    }
+
+    /**
+     * Метод возвращает собственный срок транзакции сценария в мс от ее начала. Если входящий запрос передал
+     * более ранний срок в заголовке DEADLINE_HEADER, действует он. По умолчанию - 0, срок задает только вызывающий.
+     * Таймаут каждого вызова ограничивается временем, оставшимся до срока, после срока вызовы отклоняются,
+     * см. deadlineExceededAction
+     *
+     * @return срок в мс, 0 - не ограничен
+     */
+    protected long transactionTimeout() {
+        return 0;
+    }
+
+    /**
+     * Метод по-умолчанию возвращает ErrorFinishExecution с DeadlineExceededException, когда вызов сервиса
+     * или подсценария запрошен после истечения срока транзакции. Ответ на такой вызов уже никому не нужен.
+     *
+     * @return действие
+     */
+    protected Action deadlineExceededAction() {
+        logger.logInfo("Вызов отклонен, срок транзакции истек");
+        return errorEnd(new DeadlineExceededException(holder().getDeadline()));
+    }
+
+    /**
+     * @return true, если срок транзакции задан и истек
+     */
+    protected boolean isDeadlineExceeded() {
+        long deadline = holder().getDeadline();
+        return deadline != 0 && System.currentTimeMillis() >= deadline;
+    }
+
+    /**
+     * Таймаут вызова сервиса, ограниченный временем до срока транзакции
+     */
+    private int callTimeout(Service service) {
+        return (int) deadlineTimeout(timeoutOf(service));
+    }
+
+    /**
+     * Ограничивает таймаут вызова оставшимся до срока транзакции временем
+     */
+    private long deadlineTimeout(long timeout) {
+        long deadline = holder().getDeadline();
+        if (deadline == 0)
+            return timeout;
+        long remaining = deadline - System.currentTimeMillis();
+        return Math.max(1, Math.min(timeout, remaining));
+    }
+
+    /**
+     * Устанавливает срок транзакции: из заголовка DEADLINE_HEADER входящего запроса и transactionTimeout(), ближайший из них
+     */
+    private void startDeadline(SimpleMessage message) {
+        FSMHolder holder = holder();
+        if (holder.getDeadline() != 0)
+            return;
+        long deadline = message != null && message.getHeaders() != null ? parseDeadline(message.getHeaders().get(DEADLINE_HEADER)) : 0;
+        long timeout = transactionTimeout();
+        if (timeout > 0 && (deadline == 0 || System.currentTimeMillis() + timeout < deadline))
+            deadline = System.currentTimeMillis() + timeout;
+        if (deadline != 0)
+            holder.withDeadline(deadline);
+    }
+
+    private static long parseDeadline(Object header) {
+        if (header instanceof Number)
+            return Math.max(0, ((Number) header).longValue());
+        if (header instanceof CharSequence) {
+            try {
+                return Math.max(0, Long.parseLong(header.toString()));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    private boolean acquireCircuitBreaker(Service service) {
+        CircuitBreaker breaker = CircuitBreaker.forService(service);
+        return breaker == null || breaker.tryAcquire();
+    }
+
+    private void registerFailure(boolean timeout) {
+        FSMHolder holder = holder();
+        ParallelBatch batch = holder.getBatch();
+        if (timeout && batch != null && batch.getInFlight() > 0 && holder.getSentAt() > 0) {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.isExpired(i, now)) {
+                    recordFailure(batch.getService(i), now - batch.getSentAt(i), true, i + 1);
+                    batch.failed(i);
+                }
+            }
+            holder.withSentAt(0, 0);
+        } else if (holder.getSentAt() > 0) {
+            recordFailure(holder.getService(), System.currentTimeMillis() - holder.getSentAt(), timeout, 0);
+            holder.withSentAt(0, 0);
+        } else if (!timeout && holder.getRepliedSentAt() > 0) {
+            // the reply was read before the scenario found out it is an error
+            CircuitBreaker breaker = CircuitBreaker.forService(holder.getService());
+            if (breaker != null)
+                breaker.onErrorReply(holder.getRepliedSentAt());
+        }
+        if (holder.getRepliedSentAt() > 0)
+            holder.withRepliedSentAt(0);
+        // a follower keeps waiting, the timeout may be its poll
+        if (holder.isFlightLeader())
+            abandonFlight();
+    }
+
+    /**
+     * Фиксирует, что транзакция больше не ждет ответ на запрос singleFlightCall.
+     * Если запрос отправила она, ожидающие транзакции отправят его сами
+     */
+    private void abandonFlight() {
+        FSMHolder holder = holder();
+        if (holder.getFlight() == null)
+            return;
+        if (holder.isFlightLeader())
+            holder.getFlight().fail();
+        holder.withFlight(null, false);
+    }
+
+    private void recordFailure(Service service, long latency, boolean timeout, int slot) {
+        traceResponse(service, latency, timeout);
+        exportCallSpan(service, latency, slot, true);
+        releasePermit(service, slot);
+        if (timeout) {
+            metricsRegistry.recordTimeout(service);
+            // ответ не пришел за текущий таймаут, учитываем его как время ответа, чтобы таймаут рос
+            AdaptiveTimeout adaptiveTimeout = AdaptiveTimeout.forService(service);
+            if (adaptiveTimeout != null)
+                adaptiveTimeout.record(adaptiveTimeout.getTimeout());
+        }
+        CircuitBreaker breaker = CircuitBreaker.forService(service);
+        if (breaker != null)
+            breaker.onFailure(System.currentTimeMillis() - latency);
+    }
+
+    /**
+     * Учитывает в метриках и предохранителе время ответа сервиса, которому был отправлен последний запрос
+     */
+    private void registerResponse(SimpleMessage message) {
+        FSMHolder holder = holder();
+        ParallelBatch batch = holder.getBatch();
+        Object correlation = message != null && message.getHeaders() != null ? message.getHeaders().get(PARALLEL_INDEX_HEADER) : null;
+        int index = batch != null ? batch.correlate(correlation) : -1;
+        if (index >= 0) {
+            // response to a parallel request is attributed to its own service
+            recordSuccess(batch.getService(index), System.currentTimeMillis() - batch.getSentAt(index), index + 1);
+            batch.received(index, message.getBody());
+            holder.responseReceived();
+        } else if (batch != null && batch.getInFlight() > 0 && !batch.isCompleted()) {
+            // while the batch awaits replies, a reply without a valid index cannot be attributed to any service
+            logger.logWarn("Ответ с индексом параллельного запроса {} не ожидается, ответ не учтен", correlation);
+        } else if (holder.getSentAt() > 0) {
+            recordSuccess(holder.getService(), System.currentTimeMillis() - holder.getSentAt(), 0);
+            // the success is provisional until the scenario classifies the reply, see registerError
+            holder.withRepliedSentAt(holder.getSentAt()).responseReceived();
+        }
+        releasePayload();
+    }
+
+    private void recordSuccess(Service service, long latency, int slot) {
+        traceResponse(service, latency, false);
+        exportCallSpan(service, latency, slot, false);
+        releasePermit(service, slot);
+        metricsRegistry.recordLatency(service, latency);
+        AdaptiveTimeout adaptiveTimeout = AdaptiveTimeout.forService(service);
+        if (adaptiveTimeout != null)
+            adaptiveTimeout.record(latency);
+        if (service != null)
+            HedgePolicy.record(service, latency);
+        CircuitBreaker breaker = CircuitBreaker.forService(service);
+        if (breaker != null)
+            breaker.onSuccess(System.currentTimeMillis() - latency);
+    }
+
+    /**
+     * Возвращает ответ cachedCall, найденный в кеше, и сбрасывает его, чтобы он не был прочитан повторно
+     */
+    private Object takeCachedResponse() {
+        FSMHolder holder = holder();
+        Object cached = holder.getCachedResponse();
+        if (cached != null)
+            holder.withCachedResponse(null);
+        return cached;
+    }
+
+    /**
+     * Сохраняет ответ на запрос cachedCall в кеш сервиса, null и ответы, отклоненные
+     * ResponseCacheConfig.isCacheable, не кешируются
+     */
+    private void storeCachedResponse(Object response) {
+        FSMHolder holder = holder();
+        if (holder.getCacheKey() == null)
+            return;
+        ResponseCache cache = ResponseCache.forService(holder.getService());
+        if (cache != null && response != null && holder.getService().responseCache().isCacheable(response))
+            cache.put(holder.getCacheKey(), response, holder.getCacheTtl());
+        holder.withCacheKey(null, 0);
+    }
+
+    /**
+     * Передает ответ на запрос singleFlightCall транзакциям, которые его ожидают
+     */
+    private void completeFlight(Object response) {
+        FSMHolder holder = holder();
+        if (holder.getFlight() == null || !holder.isFlightLeader())
+            return;
+        if (response != null)
+            holder.getFlight().complete(response);
+        else
+            holder.getFlight().fail();
+        holder.withFlight(null, false);
+    }
+
+    /**
+     * Фиксирует отправку параллельных запросов. Ответы учитываются на общем сервисе пачки,
+     * если сервисы в пачке разные - без привязки к сервису.
+     */
+    private void registerParallelSend(List<Service> services) {
+        Service common = services.isEmpty() ? null : services.get(0);
+        for (Service service : services) {
+            if (service != common) {
+                common = null;
+                break;
+            }
+        }
+        holder()
+                .withService(common)
+                .withSentAt(System.currentTimeMillis(), services.size());
+    }
+
     /**
      * Метод возвращает ExtendedFSM
      *
@@ -357,6 +1739,30 @@ public abstract class ExtendedFSM extends FSM {
      */
     protected <T> ExtendedFSM putToState(String key, T value) {
         stateData().put(key, value);
+        if (stateSlots != null)
+            stateSlots.invalidate(key);
+        return context();
+    }
+
+    /**
+     * Сохраняет объект в локальном контексте сценария по типизированному ключу.
+     * Если сценарий откладывает запись состояния (deferStateWrites), значение переносится в stateData
+     * при создании следующего действия методами ExtendedFSM или вызове flushState
+     *
+     * @param key   - ключ, по которому добавляем значение
+     * @param value - объект, который добавляем, null - удаление
+     * @return ExtendedFSM
+     */
+    protected <T> ExtendedFSM putToState(StateKey<T> key, T value) {
+        if (deferStateWrites()) {
+            slots().put(key, value);
+            return context();
+        }
+        Map<String, Object> stateData = stateData();
+        if (value != null)
+            stateData.put(key.getName(), value);
+        else
+            stateData.remove(key.getName());
         return context();
     }
 
@@ -370,6 +1776,9 @@ public abstract class ExtendedFSM extends FSM {
      */
     protected <T> ExtendedFSM putToGlobal(String key, T value, long storageDuration) {
         getContext().putToGlobalContext(key, value, storageDuration);
+        GlobalNearCache nearCache = globalNearCache;
+        if (nearCache != null)
+            nearCache.put(getContext().getServiceName(), key, value, storageDuration);
         return context();
     }
 
@@ -381,7 +1790,10 @@ public abstract class ExtendedFSM extends FSM {
      * @return Объект по ключу, <code>null</code>, если ключ не найден
      */
     protected Object getFromGlobal(String key) {
-        return getContext().getFromGlobalContext(key);
+        GlobalNearCache nearCache = globalNearCache;
+        if (nearCache == null)
+            return getContext().getFromGlobalContext(key);
+        return nearCache.getOrLoad(getContext().getServiceName(), key, getContext()::getFromGlobalContext);
     }
 
     /**
@@ -393,9 +1805,10 @@ public abstract class ExtendedFSM extends FSM {
      * @return Объект по ключу, <code>null</code>, если ключ не найден
      */
     protected <T> T getFromGlobalOrDefault(String key, T value) {
-        if (getContext().getFromGlobalContext(key) != null) {
+        Object result = getFromGlobal(key);
+        if (result != null) {
             try {
-                return (T) getContext().getFromGlobalContext(key);
+                return (T) result;
             } catch (ClassCastException e) {
                 return value;
             }
@@ -403,6 +1816,19 @@ public abstract class ExtendedFSM extends FSM {
         return value;
     }
 
+    /**
+     * Удаляет ключ из локального кеша глобального контекста, следующее чтение обратится в глобальный контекст.
+     *
+     * @param key - ключ
+     * @return ExtendedFSM
+     */
+    protected ExtendedFSM invalidateGlobal(String key) {
+        GlobalNearCache nearCache = globalNearCache;
+        if (nearCache != null)
+            nearCache.invalidate(getContext().getServiceName(), key);
+        return context();
+    }
+
     /**
      * Получает объект из локального кеша.
      * Если запрашиваемого ключа нет в кеше или он другого типа - возвращает value
@@ -411,14 +1837,32 @@ public abstract class ExtendedFSM extends FSM {
      * @param value - объект, вернется, если в кеше пусто
      * @return Объект по ключу, или value, если ключ не найден
      */
+    @SuppressWarnings("unchecked")
     protected <T> T getFromStateOrDefault(String key, T value) {
-        if (stateData().get(key) != null)
-            try {
-                return (T) stateData().get(key);
-            } catch (ClassCastException e) {
-                return value;
-            }
-        return value;
+        Object result = stateData().get(key);
+        return result != null ? (T) result : value;
+    }
+
+    /**
+     * Получает объект из локального контекста по типизированному ключу.
+     *
+     * @param key - ключ, по которому достаем значение
+     * @return Объект по ключу, <code>null</code>, если ключ не найден или объект другого класса
+     */
+    protected <T> T getFromState(StateKey<T> key) {
+        return key.cast(stateValue(key));
+    }
+
+    /**
+     * Получает объект из локального контекста по типизированному ключу.
+     *
+     * @param key   - ключ, по которому достаем значение
+     * @param value - объект, вернется, если значения нет или оно другого класса
+     * @return Объект по ключу, или value
+     */
+    protected <T> T getFromStateOrDefault(StateKey<T> key, T value) {
+        T result = key.cast(stateValue(key));
+        return result != null ? result : value;
     }
 
     /**
@@ -427,17 +1871,165 @@ public abstract class ExtendedFSM extends FSM {
      * @param key - ключ, по которому достаем значение из кеша
      * @return ValueOrError, хранящий value в случае успеха или error в случае неудачи
      */
+    @SuppressWarnings("unchecked")
     protected <T> ValueOrError<T, String> safelyGetFromState(String key) {
-        if (getFromStateOrDefault(key, null) == null)
+        Object obj = stateData().get(key);
+        if (obj == null)
             return ValueOrError.error("Object is null");
+        return ValueOrError.value((T) obj);
+    }
 
-        Object obj = stateData().get(key);
-        try {
-            T result = (T) obj;
-            return ValueOrError.value(result);
-        } catch (ClassCastException e) {
-            return ValueOrError.error(e.getMessage());
-        }
+    /**
+     * Получает объект из локального контекста по типизированному ключу, и оборачивает в ValueOrError
+     *
+     * @param key - ключ, по которому достаем значение
+     * @return ValueOrError, хранящий value в случае успеха или error, если значения нет или оно другого класса
+     */
+    protected <T> ValueOrError<T, String> safelyGetFromState(StateKey<T> key) {
+        Object obj = stateValue(key);
+        if (obj == null)
+            return ValueOrError.error("Object is null");
+        if (!key.getType().isInstance(obj))
+            return ValueOrError.error("Object class is incorrect: expected " + key.getType().getName() + ", actual " + obj.getClass().getName());
+        return ValueOrError.value(key.getType().cast(obj));
+    }
+
+    /**
+     * Признак отложенной записи состояния: значения, сохраненные по типизированным ключам StateKey, и изменения
+     * holder() копятся на шаге и переносятся в stateData один раз - при создании действия методами ExtendedFSM
+     * или вызове flushState. Имеет смысл, если оркестровщик сохраняет или реплицирует состояние при каждой записи.
+     * Сценарий, который включает отложенную запись и создает действия через getContext().getActionFactory()
+     * или меняет состояние после создания действия, должен сам вызывать flushState.
+     * По умолчанию false - каждое значение сразу записывается в stateData
+     *
+     * @return true, если запись состояния откладывается до конца шага
+     */
+    protected boolean deferStateWrites() {
+        return false;
+    }
+
+    /**
+     * Переносит в stateData значения, сохраненные по типизированным ключам на текущем шаге, и измененный holder(),
+     * если сценарий откладывает запись состояния (deferStateWrites). Вызывается автоматически при создании действия
+     * методами ExtendedFSM, сценарий с отложенной записью вызывает его сам, если создает действие напрямую
+     * через getContext().getActionFactory() или меняет состояние после создания действия.
+     */
+    protected void flushState() {
+        if (stateSlots != null)
+            stateSlots.flush();
+        if (cachedHolder != null)
+            cachedHolder.flush();
+    }
+
+    /**
+     * Метод возвращает фабрику действий ОИП. Перед созданием действия отложенная запись состояния шага
+     * переносится в stateData, см. deferStateWrites
+     *
+     * @return ActionFactory
+     */
+    protected ActionFactory actionFactory() {
+        flushState();
+        endStep();
+        return getContext().getActionFactory();
+    }
+
+    /**
+     * Отмечает начало шага сценария для StepRecorder. Повторные вызовы в том же шаге ничего не делают
+     */
+    void beginStep(Event event) {
+        StepRecorder recorder = stepRecorder;
+        if (inStep || !recorder.isEnabled())
+            return;
+        inStep = true;
+        long endedAt = holder().getStepEndedAt();
+        step = recorder.stepStarted(getContext().getServiceName(), getContext().getTransactionID(),
+                event != null ? event.getClass().getSimpleName() : null,
+                endedAt > 0 ? System.currentTimeMillis() - endedAt : -1);
+    }
+
+    private void endStep() {
+        if (!inStep)
+            return;
+        inStep = false;
+        holder().withStepEndedAt(System.currentTimeMillis());
+        stepRecorder.stepFinished(step, MDC.get(STATE));
+        step = null;
+    }
+
+    private void traceRequest(Service service, long timeout) {
+        StepRecorder recorder = stepRecorder;
+        if (recorder.isEnabled())
+            recorder.requestSent(getContext().getServiceName(), getContext().getTransactionID(), MDC.get(STATE), service, timeout);
+    }
+
+    private void traceResponse(Service service, long latency, boolean timeout) {
+        StepRecorder recorder = stepRecorder;
+        if (recorder.isEnabled())
+            recorder.responseReceived(getContext().getServiceName(), getContext().getTransactionID(), MDC.get(STATE),
+                    service, latency, timeout);
+    }
+
+    void traceRetry(Service service, int attempt, long delay) {
+        StepRecorder recorder = stepRecorder;
+        if (recorder.isEnabled())
+            recorder.retry(getContext().getServiceName(), getContext().getTransactionID(), MDC.get(STATE), service, attempt, delay);
+    }
+
+    /**
+     * Начинает трассировку транзакции: продолжает трассу из заголовка traceparent входящего запроса или начинает новую
+     */
+    private void startTrace(SimpleMessage message) {
+        if (spanExporter == SpanExporter.NOOP)
+            return;
+        FSMHolder holder = holder();
+        if (holder.isTraced())
+            return;
+        TraceContext parent = message != null && message.getHeaders() != null
+                ? TraceContext.parse(message.getHeaders().get(TRACEPARENT_HEADER)) : null;
+        if (parent != null)
+            holder.withTrace(parent.getTraceIdHigh(), parent.getTraceIdLow(), TraceContext.newId(), parent.getSpanId(),
+                    parent.getFlags(), System.currentTimeMillis());
+        else
+            holder.withTrace(TraceContext.newId(), TraceContext.newId(), TraceContext.newId(), 0,
+                    TraceContext.SAMPLED, System.currentTimeMillis());
+    }
+
+    /**
+     * @param slot - 0 для одиночного запроса, индекс + 1 для запроса пачки
+     */
+    private void exportCallSpan(Service service, long latency, int slot, boolean error) {
+        FSMHolder holder = holder();
+        if (!holder.isTraced() || (holder.getTraceFlags() & TraceContext.SAMPLED) == 0 || service == null)
+            return;
+        spanExporter.export(holder.getTraceIdHigh(), holder.getTraceIdLow(),
+                TraceContext.childSpanId(holder.getSpanId(), holder.getTraceSeq(), slot), holder.getSpanId(),
+                SpanExporter.Kind.CALL, service.service(), service.method(), System.currentTimeMillis() - latency, latency, error);
+    }
+
+    private void exportScenarioSpan(boolean error) {
+        if (spanExporter == SpanExporter.NOOP)
+            return;
+        FSMHolder holder = holder();
+        if (!holder.isTraced() || (holder.getTraceFlags() & TraceContext.SAMPLED) == 0)
+            return;
+        spanExporter.export(holder.getTraceIdHigh(), holder.getTraceIdLow(), holder.getSpanId(), holder.getParentSpanId(),
+                SpanExporter.Kind.SCENARIO, getContext().getServiceName(), null, holder.getTraceStart(),
+                System.currentTimeMillis() - holder.getTraceStart(), error);
+    }
+
+    /**
+     * @return значение типизированного ключа с учетом отложенной записи на текущем шаге, без проверки класса
+     */
+    private Object stateValue(StateKey<?> key) {
+        Map<String, Object> stateData = getContext().getStateData();
+        return stateSlots != null && stateSlots.belongsTo(stateData) ? stateSlots.raw(key) : stateData.get(key.getName());
+    }
+
+    private StateSlots slots() {
+        Map<String, Object> stateData = getContext().getStateData();
+        if (stateSlots == null || !stateSlots.belongsTo(stateData))
+            stateSlots = new StateSlots(stateData);
+        return stateSlots;
     }
 
     /**
@@ -450,36 +2042,115 @@ public abstract class ExtendedFSM extends FSM {
      */
     protected SimpleMessage createNewMessage(Service service, Object body, Map<String, Object> headers) {
         Map<String, Object> curHeaders = headers;
-        if (curHeaders == null) {
-            curHeaders = new HashMap<>();
+        if (curHeaders == null || curHeaders == Headers.EMPTY) {
+            // the core may add its own headers, so the message gets a mutable map
+            curHeaders = Headers.empty();
         }
-        holder()
+        FSMHolder holder = holder();
+        if (service != null && holder.getPermitExpiry() != 0) {
+            // the response to the previous request is not awaited anymore
+            releaseCallPermit();
+        }
+        if (holder.isTraced() && !curHeaders.containsKey(TRACEPARENT_HEADER)) {
+            // a reply carries the scenario span, a request gets its own child span
+            long spanId = service == null ? holder.getSpanId()
+                    : TraceContext.childSpanId(holder.getSpanId(), holder.nextTraceSeq(), 0);
+            curHeaders = Headers.of(curHeaders).with(TRACEPARENT_HEADER, traceparent(holder, spanId));
+        }
+        if (service != null && holder.getDeadline() != 0 && !curHeaders.containsKey(DEADLINE_HEADER))
+            curHeaders = Headers.of(curHeaders).with(DEADLINE_HEADER, holder.getDeadline());
+        if (holder.getHedgeDeadline() != 0)
+            holder.clearHedge();
+        if (service != null && holder.getRepliedSentAt() != 0)
+            holder.withRepliedSentAt(0);
+        if (holder.getCacheKey() != null)
+            holder.withCacheKey(null, 0);
+        // the previous request is abandoned, waiting transactions send it themselves
+        abandonFlight();
+        PayloadRetention retention = retentionOf(service);
+        holder
                 .withService(service)
-                .withBody(body)
-                .withHeaders(curHeaders);
+                .withBody(retention.retain(body))
+                .withHeaders(retention == PayloadRetention.NONE ? null : curHeaders);
         return getContext().getMessageFactory().createSimpleMessage(curHeaders, body);
     }
 
+    /**
+     * Метод возвращает сообщение параллельного запроса с индексом запроса в заголовке PARALLEL_INDEX_HEADER,
+     * по которому ответ сопоставляется с запросом, см. ParallelBatch.
+     * Переданные заголовки не изменяются.
+     *
+     * @param service - идентификатор вызываемого сервиса
+     * @param body    - объект отправляемый в запросе
+     * @param headers - Map<String, Object> headers
+     * @param index   - индекс запроса в пачке
+     * @return сообщение
+     */
+    protected SimpleMessage createNewMessage(Service service, Object body, Map<String, Object> headers, int index) {
+        return createNewMessage(service, body, indexedHeaders(headers, index));
+    }
+
+    private Map<String, Object> indexedHeaders(Map<String, Object> headers, int index) {
+        Headers indexed = Headers.of(headers).with(PARALLEL_INDEX_HEADER, index);
+        FSMHolder holder = holder();
+        if (holder.isTraced() && !indexed.containsKey(TRACEPARENT_HEADER))
+            indexed = indexed.with(TRACEPARENT_HEADER,
+                    traceparent(holder, TraceContext.childSpanId(holder.getSpanId(), holder.getTraceSeq(), index + 1)));
+        if (holder.getDeadline() != 0 && !indexed.containsKey(DEADLINE_HEADER))
+            indexed = indexed.with(DEADLINE_HEADER, holder.getDeadline());
+        return indexed;
+    }
+
+    private static String traceparent(FSMHolder holder, long spanId) {
+        return TraceContext.format(holder.getTraceIdHigh(), holder.getTraceIdLow(), spanId, holder.getTraceFlags());
+    }
+
     /**
      * Метод возвращает объект отражающий 'системное состояние'
      *
      * @return 'системное состояние'
      */
     protected FSMHolder holder() {
-        FSMHolder holder = context().getFromStateOrDefault(FSMHolder.FSM_HOLDER_NAME, null);
-        if (holder == null) {
-            holder = new FSMHolder(stateData());
-            holder.update();
-        }
+        FSMHolder holder = cachedHolder();
+        return holder != null ? holder : cacheHolder(new FSMHolder(getContext().getStateData()));
+    }
+
+    /**
+     * Метод возвращает 'системное состояние', закешированное на текущем шаге или сохраненное в stateData
+     *
+     * @return 'системное состояние' или null, если его еще нет
+     */
+    protected FSMHolder cachedHolder() {
+        Map<String, Object> stateData = getContext().getStateData();
+        if (cachedHolder != null && cachedHolder.stateData == stateData)
+            return cachedHolder;
+        Object stored = stateData.get(FSMHolder.FSM_HOLDER_NAME);
+        cachedHolder = stored instanceof FSMHolder ? ((FSMHolder) stored).deferWrites(deferStateWrites()) : null;
+        // holder restored from persisted state is bound to the current map
+        if (cachedHolder != null && cachedHolder.stateData != stateData)
+            cachedHolder.attach(stateData);
+        return cachedHolder;
+    }
+
+    /**
+     * Сохраняет новое 'системное состояние' в stateData и кеширует его на текущем шаге
+     *
+     * @param holder - 'системное состояние'
+     * @return holder
+     */
+    protected FSMHolder cacheHolder(FSMHolder holder) {
+        cachedHolder = holder.deferWrites(deferStateWrites()).update().flush();
         return holder;
     }
 
     /**
      * Метод возвращает Map<String, Object>, хранящую состояния текущей транзации, данного сценария.
+     * Значения, сохраненные по типизированным ключам StateKey, переносятся в Map перед возвратом.
      *
      * @return Map<String, Object>
      */
     protected Map<String, Object> stateData() {
+        flushState();
         return getContext().getStateData();
     }
 
@@ -507,8 +2178,13 @@ public abstract class ExtendedFSM extends FSM {
      */
     @Deprecated
     protected Action scriptCall(Service service, Object body, long timeout, Map<String, Object> headers) {
-        SimpleMessage message = createNewMessage(null, body, headers);
+        if (isDeadlineExceeded())
+            return deadlineExceededAction();
+        SimpleMessage message = createNewMessage(service, body, headers);
+        timeout = deadlineTimeout(timeout);
         logger.logScriptRequest(service, timeout, headers, body);
-        return getContext().getActionFactory().ScriptCall(service.service(), message, timeout);
+        traceRequest(service, timeout);
+        holder().withSentAt(System.currentTimeMillis(), 1, timeout);
+        return actionFactory().ScriptCall(service.service(), message, timeout);
     }
 }
\ No newline at end of file
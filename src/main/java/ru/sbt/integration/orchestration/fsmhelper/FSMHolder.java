@@ -1,24 +1,97 @@
 package ru.sbt.integration.orchestration.fsmhelper;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.Map;
 
 /**
  * Класс отвечающий за хранение системного состояния транзации.
+ * Каждое изменение записывает объект в stateData (update). Если запись отложена (deferWrites, см.
+ * ExtendedFSM.deferStateWrites), изменения только помечают объект измененным, и в stateData он записывается
+ * один раз за шаг методом flush.
+ * При сериализации используется компактный формат FSMHolderCodec, наследники с собственными полями
+ * переопределяют writeExternal и readExternal, вызывая методы родителя.
  */
-public class FSMHolder {
+public class FSMHolder implements Externalizable {
 
     public static final String FSM_HOLDER_NAME = "FSM_HOLDER";
 
-    protected final Map<String, Object> stateData;
+    private static final long serialVersionUID = 1L;
+
+    private static final int START = 1;
+    private static final int BODY = 1 << 1;
+    private static final int HEADERS = 1 << 2;
+    private static final int SERVICE = 1 << 3;
+    private static final int SENT = 1 << 4;
+    private static final int HEDGE = 1 << 5;
+    private static final int CACHE_KEY = 1 << 6;
+    private static final int CACHED_RESPONSE = 1 << 7;
+    private static final int BATCH = 1 << 8;
+    private static final int RAISED = 1 << 9;
+    private static final int TRACE = 1 << 10;
+    private static final int DEADLINE = 1 << 11;
+    private static final int PERMIT = 1 << 12;
+    private static final int QUEUED = 1 << 13;
+
+    protected transient Map<String, Object> stateData;
     protected Map<String, Object> headers;
     protected Object start;
     protected Object body;
     protected Service service;
+    protected long sentAt;
+    protected int awaitingResponses;
+    protected long sentTimeout;
+    protected long repliedSentAt;
+    protected long hedgeDeadline;
+    protected int hedgeAttempts;
+    protected int hedgeInFlight;
+    protected boolean hedgeCompleted;
+    protected Object cacheKey;
+    protected long cacheTtl;
+    protected Object cachedResponse;
+    protected transient SingleFlight.Flight flight;
+    protected transient boolean flightLeader;
+    protected ParallelBatch batch;
+    protected String raisedEvent;
+    protected long traceIdHigh;
+    protected long traceIdLow;
+    protected long spanId;
+    protected long parentSpanId;
+    protected int traceFlags;
+    protected long traceStart;
+    protected int traceSeq;
+    protected long deadline;
+    protected long permitExpiry;
+    protected long queuedSince;
+    protected int queuedCall;
+    protected String queuedModuleId;
+    protected transient long stepEndedAt;
+    protected transient boolean dirty;
+    protected transient boolean deferred;
 
     public FSMHolder(Map<String, Object> stateData) {
         this.stateData = stateData;
     }
 
+    /**
+     * Конструктор для десериализации, состояние транзакции привязывается методом attach
+     */
+    public FSMHolder() {
+    }
+
+    /**
+     * Привязывает восстановленный объект к состоянию транзакции
+     *
+     * @param stateData - состояние транзакции
+     */
+    public FSMHolder attach(Map<String, Object> stateData) {
+        this.stateData = stateData;
+        return this;
+    }
+
     public <T> T getStart() {
         return (T) start;
     }
@@ -35,6 +108,32 @@ public class FSMHolder {
         return headers;
     }
 
+    /**
+     * @return время отправки последнего запроса с ожиданием ответа в мс, 0 - если ответы не ожидаются
+     */
+    public long getSentAt() {
+        return sentAt;
+    }
+
+    public int getAwaitingResponses() {
+        return awaitingResponses;
+    }
+
+    /**
+     * @return таймаут последнего запроса в мс, 0 - неизвестен
+     */
+    public long getSentTimeout() {
+        return sentTimeout;
+    }
+
+    /**
+     * @return время отправки последнего запроса, ответ на который уже прочитан сценарием, 0 - если такого нет.
+     * Ответ учтен в предохранителе как успешный, пока сценарий не вызвал registerError
+     */
+    public long getRepliedSentAt() {
+        return repliedSentAt;
+    }
+
     public FSMHolder withStart(Object start) {
         this.start = start;
         return update();
@@ -55,8 +154,487 @@ public class FSMHolder {
         return update();
     }
 
+    /**
+     * Фиксирует отправку запроса, ответы на который будут учтены в метриках сервиса
+     *
+     * @param sentAt            - время отправки в мс
+     * @param awaitingResponses - количество ожидаемых ответов
+     */
+    public FSMHolder withSentAt(long sentAt, int awaitingResponses) {
+        return withSentAt(sentAt, awaitingResponses, sentAt == this.sentAt ? sentTimeout : 0);
+    }
+
+    /**
+     * Фиксирует отправку запроса с известным таймаутом
+     *
+     * @param sentAt            - время отправки в мс
+     * @param awaitingResponses - количество ожидаемых ответов
+     * @param timeout           - таймаут запроса в мс
+     */
+    public FSMHolder withSentAt(long sentAt, int awaitingResponses, long timeout) {
+        this.sentAt = sentAt;
+        this.awaitingResponses = awaitingResponses;
+        this.sentTimeout = timeout;
+        return update();
+    }
+
+    /**
+     * Учитывает полученный ответ, после последнего ожидаемого ответа время отправки сбрасывается
+     */
+    public FSMHolder responseReceived() {
+        if (--awaitingResponses <= 0) {
+            awaitingResponses = 0;
+            sentAt = 0;
+            sentTimeout = 0;
+        }
+        return update();
+    }
+
+    /**
+     * @param repliedSentAt - время отправки запроса, ответ на который прочитан сценарием, 0 - сбросить
+     */
+    public FSMHolder withRepliedSentAt(long repliedSentAt) {
+        this.repliedSentAt = repliedSentAt;
+        return update();
+    }
+
+    /**
+     * @return время в мс, до которого ожидается ответ на hedgedCall, 0 - hedgedCall не выполняется
+     */
+    public long getHedgeDeadline() {
+        return hedgeDeadline;
+    }
+
+    /**
+     * @return количество отправленных копий запроса hedgedCall
+     */
+    public int getHedgeAttempts() {
+        return hedgeAttempts;
+    }
+
+    /**
+     * @return количество копий запроса hedgedCall, ответ на которые еще не получен
+     */
+    public int getHedgeInFlight() {
+        return hedgeInFlight;
+    }
+
+    public boolean isHedgeCompleted() {
+        return hedgeCompleted;
+    }
+
+    /**
+     * Фиксирует отправку первой копии запроса hedgedCall
+     *
+     * @param deadline - время в мс, до которого ожидается ответ
+     */
+    public FSMHolder withHedge(long deadline) {
+        this.hedgeDeadline = deadline;
+        this.hedgeAttempts = 1;
+        this.hedgeInFlight = 1;
+        this.hedgeCompleted = false;
+        return update();
+    }
+
+    /**
+     * Фиксирует отправку дублирующей копии запроса hedgedCall
+     */
+    public FSMHolder withHedgeAttempt() {
+        this.hedgeAttempts++;
+        this.hedgeInFlight++;
+        return update();
+    }
+
+    /**
+     * Учитывает ответ на hedgedCall
+     *
+     * @return true, если это первый ответ, false - если ответ уже был получен и этот ответ опоздавший дубль
+     */
+    public boolean hedgeResponseReceived() {
+        if (hedgeInFlight > 0)
+            hedgeInFlight--;
+        boolean first = !hedgeCompleted;
+        hedgeCompleted = true;
+        update();
+        return first;
+    }
+
+    /**
+     * Сбрасывает состояние hedgedCall
+     */
+    public FSMHolder clearHedge() {
+        this.hedgeDeadline = 0;
+        this.hedgeAttempts = 0;
+        this.hedgeInFlight = 0;
+        this.hedgeCompleted = false;
+        return update();
+    }
+
+    /**
+     * @return тело запроса cachedCall, ответ на который будет сохранен в кеш, null - ответ не кешируется
+     */
+    public Object getCacheKey() {
+        return cacheKey;
+    }
+
+    public long getCacheTtl() {
+        return cacheTtl;
+    }
+
+    /**
+     * @return ответ cachedCall, найденный в кеше и еще не прочитанный сценарием
+     */
+    public Object getCachedResponse() {
+        return cachedResponse;
+    }
+
+    /**
+     * Фиксирует запрос cachedCall, ответ на который нужно сохранить в кеш
+     *
+     * @param cacheKey - тело запроса
+     * @param cacheTtl - время жизни ответа в кеше в мс
+     */
+    public FSMHolder withCacheKey(Object cacheKey, long cacheTtl) {
+        this.cacheKey = cacheKey;
+        this.cacheTtl = cacheTtl;
+        return update();
+    }
+
+    public FSMHolder withCachedResponse(Object cachedResponse) {
+        this.cachedResponse = cachedResponse;
+        return update();
+    }
+
+    /**
+     * @return запрос singleFlightCall, в котором участвует транзакция, null - не участвует
+     */
+    public SingleFlight.Flight getFlight() {
+        return flight;
+    }
+
+    /**
+     * @return true, если транзакция отправила запрос singleFlightCall, false - если ждет ответ другой транзакции
+     */
+    public boolean isFlightLeader() {
+        return flightLeader;
+    }
+
+    public FSMHolder withFlight(SingleFlight.Flight flight, boolean leader) {
+        this.flight = flight;
+        this.flightLeader = leader;
+        return update();
+    }
+
+    /**
+     * @return название события, поднятого последним raiseEvent и еще не обработанного dispatch, null - нет такого события
+     */
+    public String getRaisedEvent() {
+        return raisedEvent;
+    }
+
+    public FSMHolder withRaisedEvent(String raisedEvent) {
+        this.raisedEvent = raisedEvent;
+        return update();
+    }
+
+    /**
+     * @return true, если для транзакции ведется трассировка
+     */
+    public boolean isTraced() {
+        return spanId != 0;
+    }
+
+    public long getTraceIdHigh() {
+        return traceIdHigh;
+    }
+
+    public long getTraceIdLow() {
+        return traceIdLow;
+    }
+
+    /**
+     * @return span транзакции сценария, 0 - трассировка не ведется
+     */
+    public long getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * @return span входящего запроса, 0 - трасса начата сценарием
+     */
+    public long getParentSpanId() {
+        return parentSpanId;
+    }
+
+    public int getTraceFlags() {
+        return traceFlags;
+    }
+
+    public long getTraceStart() {
+        return traceStart;
+    }
+
+    /**
+     * @return номер последнего запроса или пачки запросов, см. TraceContext.childSpanId
+     */
+    public int getTraceSeq() {
+        return traceSeq;
+    }
+
+    public FSMHolder withTrace(long traceIdHigh, long traceIdLow, long spanId, long parentSpanId, int traceFlags, long traceStart) {
+        this.traceIdHigh = traceIdHigh;
+        this.traceIdLow = traceIdLow;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.traceFlags = traceFlags;
+        this.traceStart = traceStart;
+        this.traceSeq = 0;
+        return update();
+    }
+
+    /**
+     * Увеличивает номер запроса для span следующего запроса или пачки
+     */
+    public int nextTraceSeq() {
+        traceSeq++;
+        update();
+        return traceSeq;
+    }
+
+    /**
+     * @return срок транзакции в мс от начала эпохи, 0 - не ограничен
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public FSMHolder withDeadline(long deadline) {
+        this.deadline = deadline;
+        return update();
+    }
+
+    /**
+     * @return время окончания таймаута запроса, на который получено разрешение ServiceLimiter, 0 - разрешения нет
+     */
+    public long getPermitExpiry() {
+        return permitExpiry;
+    }
+
+    public FSMHolder withPermitExpiry(long permitExpiry) {
+        this.permitExpiry = permitExpiry;
+        return update();
+    }
+
+    /**
+     * @return время, с которого запрос ожидает разрешения ServiceLimiter, 0 - запрос не отложен
+     */
+    public long getQueuedSince() {
+        return queuedSince;
+    }
+
+    /**
+     * @return вид отложенного запроса, см. ExtendedFSM.resumeQueuedCall
+     */
+    public int getQueuedCall() {
+        return queuedCall;
+    }
+
+    public String getQueuedModuleId() {
+        return queuedModuleId;
+    }
+
+    public FSMHolder withQueued(long queuedSince, int queuedCall, String queuedModuleId) {
+        this.queuedSince = queuedSince;
+        this.queuedCall = queuedCall;
+        this.queuedModuleId = queuedModuleId;
+        return update();
+    }
+
+    public FSMHolder clearQueued() {
+        return withQueued(0, 0, null);
+    }
+
+    /**
+     * @return время окончания предыдущего шага транзакции в мс, 0 - неизвестно. Не сохраняется в stateData
+     */
+    public long getStepEndedAt() {
+        return stepEndedAt;
+    }
+
+    /**
+     * Фиксирует окончание шага для StepRecorder. Не помечает holder измененным
+     */
+    public FSMHolder withStepEndedAt(long stepEndedAt) {
+        this.stepEndedAt = stepEndedAt;
+        return this;
+    }
+
+    /**
+     * @return состояние и результаты последнего параллельного вызова, null - если он не выполнялся
+     */
+    public ParallelBatch getBatch() {
+        return batch;
+    }
+
+    public FSMHolder withBatch(ParallelBatch batch) {
+        this.batch = batch;
+        return update();
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        FSMHolderCodec.Encoder encoder = new FSMHolderCodec.Encoder(out);
+        encoder.writeByte(FSMHolderCodec.VERSION);
+        int fields = (start != null ? START : 0)
+                | (body != null ? BODY : 0)
+                | (headers != null ? HEADERS : 0)
+                | (service != null ? SERVICE : 0)
+                | (sentAt != 0 || awaitingResponses != 0 || sentTimeout != 0 || repliedSentAt != 0 ? SENT : 0)
+                | (hedgeDeadline != 0 || hedgeAttempts != 0 || hedgeInFlight != 0 || hedgeCompleted ? HEDGE : 0)
+                | (cacheKey != null ? CACHE_KEY : 0)
+                | (cachedResponse != null ? CACHED_RESPONSE : 0)
+                | (batch != null ? BATCH : 0)
+                | (raisedEvent != null ? RAISED : 0)
+                | (spanId != 0 ? TRACE : 0)
+                | (deadline != 0 ? DEADLINE : 0)
+                | (permitExpiry != 0 ? PERMIT : 0)
+                | (queuedSince != 0 ? QUEUED : 0);
+        encoder.writeVarLong(fields);
+        if ((fields & START) != 0)
+            encoder.writeValue(start);
+        if ((fields & BODY) != 0)
+            encoder.writeValue(body);
+        if ((fields & HEADERS) != 0)
+            encoder.writeHeaders(headers);
+        if ((fields & SERVICE) != 0)
+            encoder.writeService(service);
+        if ((fields & SENT) != 0) {
+            encoder.writeVarLong(sentAt);
+            encoder.writeVarLong(awaitingResponses);
+            encoder.writeVarLong(sentTimeout);
+            encoder.writeVarLong(repliedSentAt);
+        }
+        if ((fields & HEDGE) != 0) {
+            encoder.writeVarLong(hedgeDeadline);
+            encoder.writeVarLong(hedgeAttempts);
+            encoder.writeVarLong(hedgeInFlight);
+            encoder.writeBoolean(hedgeCompleted);
+        }
+        if ((fields & CACHE_KEY) != 0) {
+            encoder.writeValue(cacheKey);
+            encoder.writeVarLong(cacheTtl);
+        }
+        if ((fields & CACHED_RESPONSE) != 0)
+            encoder.writeValue(cachedResponse);
+        if ((fields & BATCH) != 0)
+            batch.encode(encoder);
+        if ((fields & RAISED) != 0)
+            encoder.writeKey(raisedEvent);
+        if ((fields & TRACE) != 0) {
+            encoder.writeLong(traceIdHigh);
+            encoder.writeLong(traceIdLow);
+            encoder.writeLong(spanId);
+            encoder.writeLong(parentSpanId);
+            encoder.writeVarLong(traceFlags);
+            encoder.writeVarLong(traceStart);
+            encoder.writeVarLong(traceSeq);
+        }
+        if ((fields & DEADLINE) != 0)
+            encoder.writeVarLong(deadline);
+        if ((fields & PERMIT) != 0)
+            encoder.writeVarLong(permitExpiry);
+        if ((fields & QUEUED) != 0) {
+            encoder.writeVarLong(queuedSince);
+            encoder.writeVarLong(queuedCall);
+            encoder.writeValue(queuedModuleId);
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        FSMHolderCodec.Decoder decoder = new FSMHolderCodec.Decoder(in);
+        int version = decoder.readByte();
+        if (version != FSMHolderCodec.VERSION)
+            throw new InvalidObjectException("unsupported fsm holder version " + version);
+        int fields = decoder.readVarInt();
+        if ((fields & START) != 0)
+            start = decoder.readValue();
+        if ((fields & BODY) != 0)
+            body = decoder.readValue();
+        if ((fields & HEADERS) != 0)
+            headers = decoder.readHeaders();
+        if ((fields & SERVICE) != 0)
+            service = decoder.readService();
+        if ((fields & SENT) != 0) {
+            sentAt = decoder.readVarLong();
+            awaitingResponses = decoder.readVarInt();
+            sentTimeout = decoder.readVarLong();
+            repliedSentAt = decoder.readVarLong();
+        }
+        if ((fields & HEDGE) != 0) {
+            hedgeDeadline = decoder.readVarLong();
+            hedgeAttempts = decoder.readVarInt();
+            hedgeInFlight = decoder.readVarInt();
+            hedgeCompleted = decoder.readBoolean();
+        }
+        if ((fields & CACHE_KEY) != 0) {
+            cacheKey = decoder.readValue();
+            cacheTtl = decoder.readVarLong();
+        }
+        if ((fields & CACHED_RESPONSE) != 0)
+            cachedResponse = decoder.readValue();
+        if ((fields & BATCH) != 0)
+            batch = ParallelBatch.decode(decoder);
+        if ((fields & RAISED) != 0)
+            raisedEvent = decoder.readKey();
+        if ((fields & TRACE) != 0) {
+            traceIdHigh = decoder.readLong();
+            traceIdLow = decoder.readLong();
+            spanId = decoder.readLong();
+            parentSpanId = decoder.readLong();
+            traceFlags = decoder.readVarInt();
+            traceStart = decoder.readVarLong();
+            traceSeq = decoder.readVarInt();
+        }
+        if ((fields & DEADLINE) != 0)
+            deadline = decoder.readVarLong();
+        if ((fields & PERMIT) != 0)
+            permitExpiry = decoder.readVarLong();
+        if ((fields & QUEUED) != 0) {
+            queuedSince = decoder.readVarLong();
+            queuedCall = decoder.readVarInt();
+            queuedModuleId = (String) decoder.readValue();
+        }
+    }
+
+    /**
+     * Записывает объект в stateData, при отложенной записи - помечает измененным до вызова flush
+     */
     public FSMHolder update() {
-        stateData.put(FSM_HOLDER_NAME, this);
+        dirty = true;
+        return deferred ? this : flush();
+    }
+
+    /**
+     * @param deferred - true, если изменения записываются в stateData только методом flush
+     */
+    public FSMHolder deferWrites(boolean deferred) {
+        this.deferred = deferred;
+        return this;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Записывает объект в stateData, если он был изменен
+     */
+    public FSMHolder flush() {
+        if (dirty) {
+            stateData.put(FSM_HOLDER_NAME, this);
+            dirty = false;
+        }
         return this;
     }
 }
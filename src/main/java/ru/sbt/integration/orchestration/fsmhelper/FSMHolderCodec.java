@@ -0,0 +1,443 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Компактный двоичный формат FSMHolder и RetryFSMHolder для хранения состояния транзакции между шагами.
+ * <p>
+ * FSMHolder реализует Externalizable, поэтому формат используется при стандартной сериализации stateData.
+ * Для хранилищ, работающих с массивом байт, - методы encode и decode.
+ * <p>
+ * Формат версионирован. Числа пишутся в переменной длине, сервисы-перечисления - именем класса и именем
+ * константы, ключи заголовков - словарем (повторный ключ пишется номером), строки больше
+ * COMPRESSION_THRESHOLD байт сжимаются Deflater. Остальные объекты пишутся в общий поток ObjectOutput:
+ * описание класса записывается один раз на holder, повторная ссылка на объект - номером.
+ */
+public final class FSMHolderCodec {
+
+    /**
+     * Текущая версия формата
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Размер строки в байтах, начиная с которого она сжимается
+     */
+    public static final int COMPRESSION_THRESHOLD = 1024;
+
+    private static final byte FSM_HOLDER = 0;
+    private static final byte RETRY_FSM_HOLDER = 1;
+    private static final byte CUSTOM_HOLDER = 2;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte OBJECT = 5;
+    private static final byte COMPRESSED_STRING = 6;
+
+    private static final byte NO_SERVICE = 0;
+    private static final byte ENUM_SERVICE = 1;
+    private static final byte OBJECT_SERVICE = 2;
+
+    private FSMHolderCodec() {
+    }
+
+    /**
+     * Метод записывает holder в массив байт
+     *
+     * @param holder - 'системное состояние'
+     * @return массив байт
+     */
+    public static byte[] encode(FSMHolder holder) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            if (holder.getClass() == FSMHolder.class) {
+                out.writeByte(FSM_HOLDER);
+            } else if (holder.getClass() == RetryFSMHolder.class) {
+                out.writeByte(RETRY_FSM_HOLDER);
+            } else {
+                out.writeByte(CUSTOM_HOLDER);
+                out.writeUTF(holder.getClass().getName());
+            }
+            holder.writeExternal(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Метод читает holder из массива байт, записанного методом encode
+     *
+     * @param data      - массив байт
+     * @param stateData - состояние транзакции, к которому относится holder
+     * @return 'системное состояние'
+     */
+    public static FSMHolder decode(byte[] data, Map<String, Object> stateData) {
+        try (ObjectInputStream in = new ContextObjectInputStream(new ByteArrayInputStream(data))) {
+            FSMHolder holder;
+            byte type = in.readByte();
+            if (type == FSM_HOLDER)
+                holder = new FSMHolder();
+            else if (type == RETRY_FSM_HOLDER)
+                holder = new RetryFSMHolder();
+            else if (type == CUSTOM_HOLDER)
+                holder = (FSMHolder) loadClass(in.readUTF()).newInstance();
+            else
+                throw new InvalidObjectException("unknown fsm holder type " + type);
+            holder.readExternal(in);
+            return holder.attach(stateData);
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new IllegalArgumentException("corrupted fsm holder state", e);
+        }
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        // zigzag, small negative values take one byte as well
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return (v >>> 1) ^ -(v & 1);
+        }
+        throw new InvalidObjectException("malformed varint");
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    private static Class<?> loadClass(String name) throws ClassNotFoundException {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader != null) {
+            try {
+                return Class.forName(name, false, loader);
+            } catch (ClassNotFoundException e) {
+                // fall back to the loader of the library
+            }
+        }
+        return Class.forName(name, false, FSMHolderCodec.class.getClassLoader());
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished())
+                out.write(buffer, 0, deflater.deflate(buffer));
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[length];
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, read, length - read);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                read += inflated;
+            }
+            if (read != length)
+                throw new InvalidObjectException("truncated compressed value");
+            return raw;
+        } catch (DataFormatException e) {
+            throw new InvalidObjectException("corrupted compressed value");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Запись полей holder со словарем строк в пределах одного holder
+     */
+    static final class Encoder {
+        private final ObjectOutput out;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Encoder(ObjectOutput out) {
+            this.out = out;
+        }
+
+        void writeVarLong(long value) throws IOException {
+            FSMHolderCodec.writeVarLong(out, value);
+        }
+
+        void writeLong(long value) throws IOException {
+            out.writeLong(value);
+        }
+
+        void writeBoolean(boolean value) throws IOException {
+            out.writeBoolean(value);
+        }
+
+        void writeByte(int value) throws IOException {
+            out.writeByte(value);
+        }
+
+        void writeKey(String key) throws IOException {
+            Integer index = strings.get(key);
+            if (index != null) {
+                writeVarLong(index + 1);
+                return;
+            }
+            writeVarLong(0);
+            writeBytes(key.getBytes(StandardCharsets.UTF_8));
+            strings.put(key, strings.size());
+        }
+
+        void writeHeaders(Map<String, Object> headers) throws IOException {
+            if (headers == null) {
+                writeVarLong(-1);
+                return;
+            }
+            writeVarLong(headers.size());
+            for (Map.Entry<String, Object> header : headers.entrySet()) {
+                writeKey(header.getKey());
+                writeValue(header.getValue());
+            }
+        }
+
+        void writeService(Service service) throws IOException {
+            if (service == null) {
+                out.writeByte(NO_SERVICE);
+            } else if (service instanceof Enum) {
+                out.writeByte(ENUM_SERVICE);
+                writeKey(((Enum<?>) service).getDeclaringClass().getName());
+                writeKey(((Enum<?>) service).name());
+            } else {
+                out.writeByte(OBJECT_SERVICE);
+                out.writeObject(service);
+            }
+        }
+
+        void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL);
+            } else if (value instanceof String) {
+                writeCompressible(STRING, COMPRESSED_STRING, ((String) value).getBytes(StandardCharsets.UTF_8));
+            } else if (value instanceof Integer) {
+                out.writeByte(INT);
+                writeVarLong((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG);
+                writeVarLong((Long) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else {
+                out.writeByte(OBJECT);
+                out.writeObject(value);
+            }
+        }
+
+        private void writeCompressible(byte plain, byte compressed, byte[] raw) throws IOException {
+            if (raw.length >= COMPRESSION_THRESHOLD) {
+                byte[] deflated = deflate(raw);
+                if (deflated.length < raw.length) {
+                    out.writeByte(compressed);
+                    writeVarLong(raw.length);
+                    writeBytes(deflated);
+                    return;
+                }
+            }
+            out.writeByte(plain);
+            writeBytes(raw);
+        }
+
+        private void writeBytes(byte[] bytes) throws IOException {
+            writeVarLong(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Чтение полей, записанных Encoder
+     */
+    static final class Decoder {
+        private final ObjectInput in;
+        private final List<String> strings = new ArrayList<>();
+
+        Decoder(ObjectInput in) {
+            this.in = in;
+        }
+
+        long readVarLong() throws IOException {
+            return FSMHolderCodec.readVarLong(in);
+        }
+
+        int readVarInt() throws IOException {
+            return FSMHolderCodec.readVarInt(in);
+        }
+
+        long readLong() throws IOException {
+            return in.readLong();
+        }
+
+        boolean readBoolean() throws IOException {
+            return in.readBoolean();
+        }
+
+        byte readByte() throws IOException {
+            return in.readByte();
+        }
+
+        String readKey() throws IOException {
+            int index = readVarInt();
+            if (index > 0) {
+                if (index > strings.size())
+                    throw new InvalidObjectException("unknown dictionary index " + index);
+                return strings.get(index - 1);
+            }
+            String key = new String(readBytes(), StandardCharsets.UTF_8);
+            strings.add(key);
+            return key;
+        }
+
+        Map<String, Object> readHeaders() throws IOException {
+            int size = readVarInt();
+            if (size < 0)
+                return null;
+            Map<String, Object> headers = size <= Headers.MAX_ARRAY_SIZE
+                    ? Headers.empty()
+                    : new HashMap<>(Math.max(4, size * 4 / 3 + 1));
+            for (int i = 0; i < size; i++)
+                headers.put(readKey(), readValue());
+            return headers;
+        }
+
+        Service readService() throws IOException {
+            byte type = in.readByte();
+            switch (type) {
+                case NO_SERVICE:
+                    return null;
+                case ENUM_SERVICE:
+                    return enumService(readKey(), readKey());
+                case OBJECT_SERVICE:
+                    return (Service) readObject();
+                default:
+                    throw new InvalidObjectException("unknown service type " + type);
+            }
+        }
+
+        Object readValue() throws IOException {
+            byte type = in.readByte();
+            switch (type) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return new String(readBytes(), StandardCharsets.UTF_8);
+                case COMPRESSED_STRING:
+                    return new String(readCompressed(), StandardCharsets.UTF_8);
+                case INT:
+                    return readVarInt();
+                case LONG:
+                    return readVarLong();
+                case BOOLEAN:
+                    return in.readBoolean();
+                case OBJECT:
+                    return readObject();
+                default:
+                    throw new InvalidObjectException("unknown value type " + type);
+            }
+        }
+
+        private byte[] readCompressed() throws IOException {
+            int length = readVarInt();
+            return inflate(readBytes(), length);
+        }
+
+        private byte[] readBytes() throws IOException {
+            int length = readVarInt();
+            if (length < 0)
+                throw new InvalidObjectException("negative length");
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static Service enumService(String className, String name) throws IOException {
+            Class<?> type;
+            try {
+                type = loadClass(className);
+            } catch (ClassNotFoundException e) {
+                throw new InvalidObjectException("unknown service class " + className);
+            }
+            if (!type.isEnum() || !Service.class.isAssignableFrom(type))
+                throw new InvalidObjectException("service class " + className + " is not enum");
+            try {
+                return (Service) Enum.valueOf((Class) type, name);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidObjectException("unknown service " + className + "." + name);
+            }
+        }
+
+        private Object readObject() throws IOException {
+            try {
+                return in.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new InvalidObjectException("unknown class " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Поток, который ищет классы через context class loader, затем через загрузчик библиотеки
+     */
+    static final class ContextObjectInputStream extends ObjectInputStream {
+
+        ContextObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            try {
+                return loadClass(desc.getName());
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
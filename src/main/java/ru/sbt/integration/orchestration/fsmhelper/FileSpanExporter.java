@@ -0,0 +1,163 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Запись span в файл, по строке на span, поля разделены табуляцией:
+ * trace-id, span-id, parent-id, kind, name, method, start (мс), duration (мс), error.
+ * <p>
+ * Поток сценария только собирает строку и кладет ее в ограниченную очередь, в файл строки пишет фоновый поток.
+ * Если очередь заполнена или запись в файл не удалась, span отбрасываются, сценарий не прерывается.
+ */
+public class FileSpanExporter implements SpanExporter, AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private static final int BATCH_SIZE = 256;
+
+    private static final ThreadLocal<StringBuilder> LINE = ThreadLocal.withInitial(() -> new StringBuilder(160));
+
+    private final Writer writer;
+    private final BlockingQueue<String> queue;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    /**
+     * @param file - файл, в который дописываются span
+     */
+    public FileSpanExporter(Path file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param file     - файл, в который дописываются span
+     * @param capacity - максимальное количество span, ожидающих записи
+     */
+    public FileSpanExporter(Path file, int capacity) throws IOException {
+        if (capacity < 1)
+            throw new IllegalArgumentException("file span exporter false parameters");
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.worker = new Thread(this::drainLoop, "fsm-helper-span-export");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    @Override
+    public void export(long traceIdHigh, long traceIdLow, long spanId, long parentSpanId, Kind kind,
+                       String name, String method, long startMillis, long durationMillis, boolean error) {
+        if (!running) {
+            dropped.increment();
+            return;
+        }
+        StringBuilder line = LINE.get();
+        line.setLength(0);
+        TraceContext.appendHex(line, traceIdHigh);
+        TraceContext.appendHex(line, traceIdLow);
+        line.append('\t');
+        TraceContext.appendHex(line, spanId);
+        line.append('\t');
+        TraceContext.appendHex(line, parentSpanId);
+        line.append('\t').append(kind)
+                .append('\t').append(name)
+                .append('\t').append(method != null ? method : "-")
+                .append('\t').append(startMillis)
+                .append('\t').append(durationMillis)
+                .append('\t').append(error)
+                .append('\n');
+        if (!queue.offer(line.toString()))
+            dropped.increment();
+    }
+
+    /**
+     * @return количество span, которые не удалось записать
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Записывает в файл все span из очереди
+     */
+    public void flush() throws IOException {
+        synchronized (writer) {
+            write(new ArrayList<>(queue.size()));
+            writer.flush();
+        }
+    }
+
+    /**
+     * Останавливает фоновый поток, предварительно записав все span из очереди
+     */
+    @Override
+    public void close() throws IOException {
+        // no interrupt: it would close the file channel in the middle of a write
+        running = false;
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (writer) {
+            write(new ArrayList<>(queue.size()));
+            writer.close();
+        }
+    }
+
+    private void drainLoop() {
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        while (running) {
+            String first;
+            try {
+                first = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (first == null)
+                continue;
+            synchronized (writer) {
+                batch.add(first);
+                write(batch);
+                if (queue.isEmpty())
+                    flushQuietly();
+            }
+        }
+    }
+
+    /**
+     * Пишет lines и все span из очереди. Вызывается под блокировкой writer
+     */
+    private void write(List<String> lines) {
+        do {
+            for (String line : lines) {
+                try {
+                    writer.write(line);
+                } catch (IOException e) {
+                    dropped.increment();
+                }
+            }
+            lines.clear();
+        } while (queue.drainTo(lines, BATCH_SIZE) > 0);
+    }
+
+    private void flushQuietly() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            // lines stay in the buffer until the next flush
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+/**
+ * Приблизительный счетчик частоты обращений к ключам (count-min sketch) с 4-битными счетчиками.
+ * Когда количество обращений достигает sampleSize, все счетчики уменьшаются вдвое, т.о. старая популярность забывается.
+ * Не потокобезопасен, используется под блокировкой владельца.
+ */
+class FrequencySketch {
+
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int maximumSize) {
+        int size = Integer.highestOneBit(Math.max(2, maximumSize) - 1) << 1;
+        this.table = new long[size];
+        this.tableMask = size - 1;
+        this.sampleSize = 10 * Math.max(1, maximumSize);
+    }
+
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++)
+            added |= incrementAt(index(hash, i), offset(hash, i));
+        if (added && ++additions >= sampleSize)
+            reset();
+    }
+
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < SEEDS.length; i++) {
+            frequency = Math.min(frequency, (int) ((table[index(hash, i)] >>> offset(hash, i)) & 0xF));
+        }
+        return frequency;
+    }
+
+    private boolean incrementAt(int index, int offset) {
+        long mask = 0xFL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    // каждая строка использует 4 из 16 счетчиков ячейки, номер счетчика выбирается по хешу
+    private static int offset(int hash, int row) {
+        return ((row << 2) + ((hash >>> (row << 1)) & 3)) << 2;
+    }
+
+    private int index(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++)
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        additions /= 2;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
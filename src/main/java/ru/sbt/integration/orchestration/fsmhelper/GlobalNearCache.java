@@ -0,0 +1,185 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Локальный кеш JVM перед глобальным контекстом оркестровщика (putToGlobal/getFromGlobal).
+ * Значение живет в кеше не дольше ttl и не дольше storageDuration, с которым оно было сохранено.
+ * Изменения глобального контекста, сделанные на других узлах, видны после истечения ttl или явного invalidate.
+ * Отсутствие ключа в глобальном контексте тоже кешируется на ttl, см. getOrLoad.
+ * Глобальный контекст у каждого сценария свой, поэтому ключ кеша - название сценария и ключ контекста.
+ * Значения не копируются: один экземпляр возвращается всем транзакциям JVM, поэтому изменять его нельзя,
+ * для изменения нужно сохранить новый объект через putToGlobal.
+ */
+public class GlobalNearCache {
+
+    // marks a key that is absent in the global context
+    private static final Object MISSING = new Object();
+
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final int maximumSize;
+    private final long ttl;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maximumSize - максимальное количество ключей
+     * @param ttl         - максимальное время жизни значения в кеше в мс
+     */
+    public GlobalNearCache(int maximumSize, long ttl) {
+        if (maximumSize < 1 || ttl < 1)
+            throw new IllegalArgumentException("global near cache false parameters");
+        this.maximumSize = maximumSize;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param serviceName - название сценария
+     * @param key         - ключ
+     * @return значение по ключу или null, если его нет в кеше или время жизни истекло
+     */
+    public Object get(String serviceName, String key) {
+        Key cacheKey = new Key(serviceName, key);
+        Entry entry = entries.get(cacheKey);
+        if (entry == null || entry.expiresAt < System.currentTimeMillis()) {
+            if (entry != null)
+                entries.remove(cacheKey, entry);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value == MISSING ? null : entry.value;
+    }
+
+    /**
+     * Метод возвращает значение из кеша, если его нет - загружает его через loader и сохраняет на ttl.
+     * Если loader вернул null, отсутствие ключа сохраняется в кеше, и повторные чтения не вызывают loader до истечения ttl.
+     * Если во время загрузки значение было сохранено через put, загруженное значение его не заменяет.
+     *
+     * @param serviceName - название сценария
+     * @param key         - ключ
+     * @param loader      - чтение значения из глобального контекста
+     * @return значение по ключу или null, если ключа нет в глобальном контексте
+     */
+    public Object getOrLoad(String serviceName, String key, Function<String, Object> loader) {
+        Key cacheKey = new Key(serviceName, key);
+        Entry entry = entries.get(cacheKey);
+        if (entry != null && entry.expiresAt >= System.currentTimeMillis()) {
+            hits.increment();
+            return entry.value == MISSING ? null : entry.value;
+        }
+        if (entry != null)
+            entries.remove(cacheKey, entry);
+        misses.increment();
+        Object value = loader.apply(key);
+        Entry loaded = new Entry(value != null ? value : MISSING, System.currentTimeMillis() + ttl);
+        Entry current = entries.putIfAbsent(cacheKey, loaded);
+        // a put during the load is newer than the loaded value
+        if (current != null)
+            return current.value == MISSING ? null : current.value;
+        evictIfFull();
+        return value;
+    }
+
+    /**
+     * @param serviceName     - название сценария
+     * @param key             - ключ
+     * @param value           - значение, null удаляет ключ
+     * @param storageDuration - время хранения в глобальном контексте в мс, значение меньше или равное 0 - только ttl
+     */
+    public void put(String serviceName, String key, Object value, long storageDuration) {
+        Key cacheKey = new Key(serviceName, key);
+        if (value == null) {
+            entries.remove(cacheKey);
+            return;
+        }
+        long duration = storageDuration > 0 ? Math.min(ttl, storageDuration) : ttl;
+        entries.put(cacheKey, new Entry(value, System.currentTimeMillis() + duration));
+        evictIfFull();
+    }
+
+    /**
+     * @param serviceName - название сценария
+     * @param key         - ключ
+     */
+    public void invalidate(String serviceName, String key) {
+        entries.remove(new Key(serviceName, key));
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    // сначала удаляются истекшие значения, если их недостаточно - произвольные, до 90% размера
+    private void evictIfFull() {
+        if (entries.size() <= maximumSize || !evicting.compareAndSet(false, true))
+            return;
+        try {
+            long now = System.currentTimeMillis();
+            entries.values().removeIf(entry -> entry.expiresAt < now);
+            int target = maximumSize - maximumSize / 10;
+            Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+            while (entries.size() > target && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static final class Key {
+        private final String serviceName;
+        private final String key;
+
+        private Key(String serviceName, String key) {
+            this.serviceName = serviceName;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return Objects.equals(key, other.key) && Objects.equals(serviceName, other.serviceName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(serviceName) + Objects.hashCode(key);
+        }
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private final long expiresAt;
+
+        private Entry(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
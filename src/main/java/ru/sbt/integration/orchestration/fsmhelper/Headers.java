@@ -0,0 +1,268 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Класс отвечающий за хранение заголовков запроса.
+ * До MAX_ARRAY_SIZE заголовков хранятся в массиве ключ-значение с линейным поиском, больше - в HashMap.
+ * Копия, полученная методом of, разделяет массив с исходными заголовками, пока одна из них не будет изменена,
+ * поэтому заголовки, которые ядро ОИП не меняет, не копируются.
+ * EMPTY - общий неизменяемый пустой экземпляр, empty() - изменяемый пустой экземпляр без выделения массива.
+ */
+public final class Headers extends AbstractMap<String, Object> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int MAX_ARRAY_SIZE = 8;
+
+    private static final Object[] EMPTY_TABLE = new Object[0];
+
+    public static final Headers EMPTY = new Headers(EMPTY_TABLE, 0, true);
+
+    private Object[] table;
+    private int size;
+    private HashMap<String, Object> spill;
+    private final boolean immutable;
+    private transient boolean shared;
+
+    private Headers(Object[] table, int size, boolean immutable) {
+        this.table = table;
+        this.size = size;
+        this.immutable = immutable;
+        this.shared = true;
+    }
+
+    /**
+     * @return новый изменяемый пустой экземпляр, массив выделяется при первом добавлении заголовка
+     */
+    public static Headers empty() {
+        return new Headers(EMPTY_TABLE, 0, false);
+    }
+
+    /**
+     * Метод возвращает изменяемую копию заголовков. Копия экземпляра Headers разделяет с ним массив до первого изменения
+     *
+     * @param headers - исходные заголовки, null - пустые
+     * @return Headers
+     */
+    public static Headers of(Map<String, Object> headers) {
+        if (headers == null || headers.isEmpty())
+            return empty();
+        if (headers instanceof Headers) {
+            Headers source = (Headers) headers;
+            if (source.spill == null) {
+                // both sides copy the table before their next write
+                if (!source.immutable)
+                    source.shared = true;
+                return new Headers(source.table, source.size, false);
+            }
+        }
+        Headers copy = empty();
+        for (Map.Entry<String, Object> entry : headers.entrySet())
+            copy.put(entry.getKey(), entry.getValue());
+        return copy;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Метод добавляет заголовок и возвращает текущий экземпляр
+     */
+    public Headers with(String key, Object value) {
+        put(key, value);
+        return this;
+    }
+
+    @Override
+    public int size() {
+        return spill != null ? spill.size() : size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return spill != null ? spill.containsKey(key) : indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (spill != null)
+            return spill.get(key);
+        int i = indexOf(key);
+        return i >= 0 ? table[i + 1] : null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        checkMutable();
+        if (spill != null)
+            return spill.put(key, value);
+        int i = indexOf(key);
+        if (i >= 0) {
+            Object old = table[i + 1];
+            if (old != value) {
+                own(table.length);
+                table[i + 1] = value;
+            }
+            return old;
+        }
+        if (size == MAX_ARRAY_SIZE) {
+            spill = new HashMap<>(MAX_ARRAY_SIZE * 4);
+            for (int j = 0; j < size * 2; j += 2)
+                spill.put((String) table[j], table[j + 1]);
+            table = EMPTY_TABLE;
+            size = 0;
+            return spill.put(key, value);
+        }
+        own(Math.max(table.length, Math.min(MAX_ARRAY_SIZE, Math.max(2, size * 2)) * 2));
+        table[size * 2] = key;
+        table[size * 2 + 1] = value;
+        size++;
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        checkMutable();
+        if (spill != null)
+            return spill.remove(key);
+        int i = indexOf(key);
+        if (i < 0)
+            return null;
+        Object old = table[i + 1];
+        removeAt(i);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        checkMutable();
+        spill = null;
+        table = EMPTY_TABLE;
+        size = 0;
+        shared = true;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return spill != null ? spill.entrySet() : new EntrySet();
+    }
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < size * 2; i += 2)
+            if (key == null ? table[i] == null : key.equals(table[i]))
+                return i;
+        return -1;
+    }
+
+    private void removeAt(int i) {
+        own(table.length);
+        int last = (size - 1) * 2;
+        System.arraycopy(table, i + 2, table, i, last - i);
+        table[last] = null;
+        table[last + 1] = null;
+        size--;
+    }
+
+    /**
+     * Копирует разделяемый массив перед изменением
+     */
+    private void own(int capacity) {
+        if (shared || capacity > table.length) {
+            table = Arrays.copyOf(table, capacity);
+            shared = false;
+        }
+    }
+
+    private void checkMutable() {
+        if (immutable)
+            throw new UnsupportedOperationException("Headers.EMPTY is immutable");
+    }
+
+    private Object readResolve() {
+        return immutable ? EMPTY : this;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new Iterator<Map.Entry<String, Object>>() {
+                private int next;
+                private int last = -1;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size * 2;
+                }
+
+                @Override
+                public Map.Entry<String, Object> next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    last = next;
+                    next += 2;
+                    return new SimpleImmutableEntry<>((String) table[last], table[last + 1]);
+                }
+
+                @Override
+                public void remove() {
+                    if (last < 0)
+                        throw new IllegalStateException();
+                    checkMutable();
+                    removeAt(last);
+                    next = last;
+                    last = -1;
+                }
+            };
+        }
+    }
+
+    /**
+     * Класс для построения заголовков запроса
+     */
+    public static final class Builder {
+
+        private final Headers headers = empty();
+
+        private Builder() {
+        }
+
+        public Builder put(String key, Object value) {
+            headers.put(key, value);
+            return this;
+        }
+
+        public Builder putAll(Map<String, Object> values) {
+            if (values != null)
+                values.forEach(headers::put);
+            return this;
+        }
+
+        /**
+         * @return заголовки, пустые заголовки - общий экземпляр EMPTY
+         */
+        public Map<String, Object> build() {
+            return headers.isEmpty() ? EMPTY : Headers.of(headers);
+        }
+    }
+}
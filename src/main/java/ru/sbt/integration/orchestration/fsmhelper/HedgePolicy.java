@@ -0,0 +1,85 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Политика задержки дублирующего запроса в ExtendedFSM.hedgedCall: фиксированная или по перцентилю
+ * времени ответа сервиса за скользящее окно. Используется только для идемпотентных сервисов.
+ */
+public final class HedgePolicy {
+
+    /**
+     * Дублирующий запрос не отправляется, поведение по умолчанию
+     */
+    public static final HedgePolicy DISABLED = new HedgePolicy(0, 0, 0, 0);
+
+    private static final ConcurrentMap<ServiceKey, RollingLatency> LATENCIES = new ConcurrentHashMap<>();
+
+    private final long delay;
+    private final double percentile;
+    private final int minimumSamples;
+    private final long windowMillis;
+
+    private HedgePolicy(long delay, double percentile, int minimumSamples, long windowMillis) {
+        this.delay = delay;
+        this.percentile = percentile;
+        this.minimumSamples = minimumSamples;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @param delay - задержка в мс, после которой отправляется дублирующий запрос
+     * @return фиксированная задержка
+     */
+    public static HedgePolicy fixed(long delay) {
+        if (delay < 1)
+            throw new IllegalArgumentException("hedge policy false parameters");
+        return new HedgePolicy(delay, 0, 0, 0);
+    }
+
+    /**
+     * @param percentile     - перцентиль времени ответа, например 95
+     * @param fallbackDelay  - задержка в мс, пока ответов в окне меньше minimumSamples
+     * @param minimumSamples - минимальное количество ответов в окне
+     * @param windowMillis   - длина окна в мс
+     * @return задержка по перцентилю времени ответа сервиса
+     */
+    public static HedgePolicy percentile(double percentile, long fallbackDelay, int minimumSamples, long windowMillis) {
+        if (percentile <= 0 || percentile > 100 || fallbackDelay < 1 || minimumSamples < 1 || windowMillis < 1)
+            throw new IllegalArgumentException("hedge policy false parameters");
+        return new HedgePolicy(fallbackDelay, percentile, minimumSamples, windowMillis);
+    }
+
+    public boolean isEnabled() {
+        return delay > 0;
+    }
+
+    /**
+     * @param service - сервис
+     * @return задержка в мс перед отправкой дублирующего запроса
+     */
+    public long delayFor(Service service) {
+        if (percentile == 0)
+            return delay;
+        long value = latency(service).getValueAtPercentile(percentile, minimumSamples);
+        return value < 0 ? delay : Math.max(1, value);
+    }
+
+    /**
+     * Учитывает время ответа сервиса для политики по перцентилю
+     */
+    static void record(Service service, long millis) {
+        HedgePolicy policy = service.hedgePolicy();
+        if (policy.percentile > 0)
+            policy.latency(service).record(millis);
+    }
+
+    private RollingLatency latency(Service service) {
+        ServiceKey key = ServiceKey.of(service);
+        RollingLatency latency = LATENCIES.get(key);
+        if (latency == null)
+            latency = LATENCIES.computeIfAbsent(key, k -> new RollingLatency(windowMillis));
+        return latency;
+    }
+}
@@ -0,0 +1,68 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Хранение метрик сервисов в памяти JVM. Метрики накапливаются с момента старта, выгружаются методом dump.
+ */
+public class InMemoryMetricsRegistry implements MetricsRegistry {
+
+    private static final String MIXED = "parallel";
+
+    private final ConcurrentMap<ServiceKey, ServiceMetrics> metrics = new ConcurrentHashMap<>();
+    private final ServiceMetrics mixed = new ServiceMetrics(MIXED, MIXED);
+
+    @Override
+    public void recordLatency(Service service, long millis) {
+        get(service).recordLatency(millis);
+    }
+
+    @Override
+    public void recordTimeout(Service service) {
+        get(service).recordTimeout();
+    }
+
+    @Override
+    public void recordRetry(Service service) {
+        get(service).recordRetry();
+    }
+
+    @Override
+    public void recordRejected(Service service) {
+        get(service).recordRejected();
+    }
+
+    /**
+     * @return метрики по всем сервисам, к которым обращались сценарии
+     */
+    public Collection<ServiceMetrics> getMetrics() {
+        List<ServiceMetrics> result = new ArrayList<>(metrics.values());
+        if (mixed.getLatency().getCount() > 0 || mixed.getTimeouts() > 0)
+            result.add(mixed);
+        return result;
+    }
+
+    /**
+     * @return метрики всех сервисов, по строке на сервис
+     */
+    public String dump() {
+        StringBuilder dump = new StringBuilder();
+        for (ServiceMetrics serviceMetrics : getMetrics())
+            dump.append(serviceMetrics).append(System.lineSeparator());
+        return dump.toString();
+    }
+
+    private ServiceMetrics get(Service service) {
+        if (service == null)
+            return mixed;
+        ServiceKey key = ServiceKey.of(service);
+        ServiceMetrics serviceMetrics = metrics.get(key);
+        if (serviceMetrics == null)
+            serviceMetrics = metrics.computeIfAbsent(key, k -> new ServiceMetrics(service.service(), service.method()));
+        return serviceMetrics;
+    }
+}
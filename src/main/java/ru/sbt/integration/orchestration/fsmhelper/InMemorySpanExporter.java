@@ -0,0 +1,163 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Хранение последних span в кольцевом буфере из массивов примитивов, для тестов и локальной отладки.
+ * При переполнении перезаписываются самые старые span.
+ */
+public class InMemorySpanExporter implements SpanExporter {
+
+    public static final int DEFAULT_CAPACITY = 10_000;
+
+    private final long[] traceIdHigh;
+    private final long[] traceIdLow;
+    private final long[] spanId;
+    private final long[] parentSpanId;
+    private final Kind[] kind;
+    private final String[] name;
+    private final String[] method;
+    private final long[] startMillis;
+    private final long[] durationMillis;
+    private final boolean[] error;
+    private long written;
+
+    public InMemorySpanExporter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public InMemorySpanExporter(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("span exporter false parameters");
+        traceIdHigh = new long[capacity];
+        traceIdLow = new long[capacity];
+        spanId = new long[capacity];
+        parentSpanId = new long[capacity];
+        kind = new Kind[capacity];
+        name = new String[capacity];
+        method = new String[capacity];
+        startMillis = new long[capacity];
+        durationMillis = new long[capacity];
+        error = new boolean[capacity];
+    }
+
+    @Override
+    public synchronized void export(long traceIdHigh, long traceIdLow, long spanId, long parentSpanId, Kind kind,
+                                    String name, String method, long startMillis, long durationMillis, boolean error) {
+        int i = (int) (written++ % this.spanId.length);
+        this.traceIdHigh[i] = traceIdHigh;
+        this.traceIdLow[i] = traceIdLow;
+        this.spanId[i] = spanId;
+        this.parentSpanId[i] = parentSpanId;
+        this.kind[i] = kind;
+        this.name[i] = name;
+        this.method[i] = method;
+        this.startMillis[i] = startMillis;
+        this.durationMillis[i] = durationMillis;
+        this.error[i] = error;
+    }
+
+    /**
+     * @return сохраненные span от старых к новым
+     */
+    public synchronized List<Span> getSpans() {
+        int size = (int) Math.min(written, spanId.length);
+        List<Span> spans = new ArrayList<>(size);
+        for (long n = written - size; n < written; n++) {
+            int i = (int) (n % spanId.length);
+            spans.add(new Span(traceIdHigh[i], traceIdLow[i], spanId[i], parentSpanId[i], kind[i], name[i], method[i],
+                    startMillis[i], durationMillis[i], error[i]));
+        }
+        return spans;
+    }
+
+    /**
+     * @return количество span, переданных с момента создания или clear
+     */
+    public synchronized long getWritten() {
+        return written;
+    }
+
+    public synchronized void clear() {
+        written = 0;
+        Arrays.fill(name, null);
+        Arrays.fill(method, null);
+    }
+
+    /**
+     * Сохраненный span
+     */
+    public static final class Span {
+        private final long traceIdHigh;
+        private final long traceIdLow;
+        private final long spanId;
+        private final long parentSpanId;
+        private final Kind kind;
+        private final String name;
+        private final String method;
+        private final long startMillis;
+        private final long durationMillis;
+        private final boolean error;
+
+        Span(long traceIdHigh, long traceIdLow, long spanId, long parentSpanId, Kind kind, String name, String method,
+             long startMillis, long durationMillis, boolean error) {
+            this.traceIdHigh = traceIdHigh;
+            this.traceIdLow = traceIdLow;
+            this.spanId = spanId;
+            this.parentSpanId = parentSpanId;
+            this.kind = kind;
+            this.name = name;
+            this.method = method;
+            this.startMillis = startMillis;
+            this.durationMillis = durationMillis;
+            this.error = error;
+        }
+
+        /**
+         * @return идентификатор трассы в шестнадцатеричном виде, 32 символа
+         */
+        public String getTraceId() {
+            return TraceContext.toHex(traceIdHigh) + TraceContext.toHex(traceIdLow);
+        }
+
+        public long getSpanId() {
+            return spanId;
+        }
+
+        public long getParentSpanId() {
+            return parentSpanId;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public boolean isError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return getTraceId() + ' ' + TraceContext.toHex(spanId) + ' ' + TraceContext.toHex(parentSpanId) + ' ' + kind + ' '
+                    + name + (method != null ? "." + method : "") + ' ' + durationMillis + "ms" + (error ? " error" : "");
+        }
+    }
+}
@@ -1,21 +1,50 @@
 package ru.sbt.integration.orchestration.fsmhelper;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.builder.MultilineRecursiveToStringStyle;
-import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 import org.slf4j.Logger;
 import org.slf4j.MDC;
+import org.slf4j.event.Level;
 import ru.sbt.integration.orchestration.fsmcore.FSMContext;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Класс отвечающий за логирование.
  */
 public class LoggerFSM {
 
+    // technical log fields common for any log message, see addCommonLogArgs
+    private static final String COMMON_FIELDS = "script:\"{}\" tid:\"{}\" state:\"{}\" type:\"{}\" ";
+    private static final int COMMON_ARGS = 4;
+
+    private static final String OUTGOING_REPLY_TEMPLATE = COMMON_FIELDS + "headers:\"{}\" payload:\"{}\"";
+    private static final String SCRIPT_REQUEST_TEMPLATE = COMMON_FIELDS + "script:\"{}\" method:\"{}\" timeout:\"{}\" headers:\"{}\" payload:\"{}\"";
+    private static final String REMOTE_REQUEST_TEMPLATE = COMMON_FIELDS + "service:\"{}\" method:\"{}\" timeout:\"{}\" headers:\"{}\" payload:\"{}\"";
+    private static final String REMOTE_MODULE_REQUEST_TEMPLATE = COMMON_FIELDS + "service:\"{}\" method:\"{}\" moduleId:\"{}\" timeout:\"{}\" headers:\"{}\" payload:\"{}\"";
+    private static final String REMOTE_NO_RESPONSE_TEMPLATE = COMMON_FIELDS + "service:\"{}\" method:\"{}\" timeout:\"without response\" headers:\"{}\" payload:\"{}\"";
+    private static final String RETRIED_REQUEST_TEMPLATE = COMMON_FIELDS + "service:\"{}\" method:\"{}\" retries left:\"{}\" timeout:\"{}\" headers:\"{}\" payload:\"{}\"";
+    private static final String REMOTE_REPLY_TEMPLATE = COMMON_FIELDS + "service:\"{}\" method:\"{}\" payload:\"{}\"";
+
+    private static final String[] INCOMING_REQUEST_TEMPLATES = new String[8];
+
+    static {
+        for (int i = 0; i < INCOMING_REQUEST_TEMPLATES.length; i++)
+            INCOMING_REQUEST_TEMPLATES[i] = buildIncomingRequestTemplate(i);
+    }
+
+    /**
+     * Шаблоны пользовательских сообщений с техническими полями. Размер ограничен на случай,
+     * если сообщение строится динамически - такие шаблоны просто не кешируются.
+     */
+    private static final int TEMPLATES_CACHE_SIZE = 1024;
+    private static final ConcurrentMap<String, String> TEMPLATES = new ConcurrentHashMap<>();
+
     protected ExtendedFSM fsm;
     private Logger logger;
+    private PayloadRenderer renderer = PayloadRenderer.DEFAULT;
+    private AsyncLogPipeline asyncPipeline;
 
     /**
      * Переменная, отвечающая за логирование отправки Action и получения Event
@@ -49,6 +78,37 @@ public class LoggerFSM {
         isLogTurnOn = false;
     }
 
+    /**
+     * Включение асинхронной записи логов через общий для JVM буфер AsyncLogPipeline.shared().
+     * По умолчанию логи пишутся синхронно в потоке, исполняющем шаг сценария.
+     */
+    public void turnOnAsyncLogging() {
+        turnOnAsyncLogging(AsyncLogPipeline.shared());
+    }
+
+    /**
+     * Включение асинхронной записи логов через заданный буфер.
+     * Пока буфер не запущен (AsyncLogPipeline.start) или после его закрытия логи пишутся синхронно.
+     */
+    public void turnOnAsyncLogging(AsyncLogPipeline pipeline) {
+        asyncPipeline = pipeline;
+    }
+
+    /**
+     * Выключение асинхронной записи логов.
+     */
+    public void turnOffAsyncLogging() {
+        asyncPipeline = null;
+    }
+
+    /**
+     * Замена способа записи заголовков и тел сообщений, например, с другими ограничениями глубины и длины.
+     * По умолчанию - PayloadRenderer.DEFAULT.
+     */
+    public void setPayloadRenderer(PayloadRenderer renderer) {
+        this.renderer = renderer;
+    }
+
     // methods for logging message with params
     public void logTrace(String msg, Object... args) {
         logTrace(LogType.MESSAGE, msg, args);
@@ -73,114 +133,207 @@ public class LoggerFSM {
     // specific method for logging request to script
     public void logIncomingRequest(Object... objects) {
         if (getLogger().isInfoEnabled() && isLogTurnOn) {
-            StringBuilder format = new StringBuilder("payload:\"");
-            format.append(StringUtils.repeat("{},", objects.length)).replace(format.length() - 1, format.length(), "\"");
-            String[] strings = new String[objects.length];
+            Object[] args = addCommonLogArgs(LogType.REQUEST, objects.length);
             for (int i = 0; i < objects.length; i++)
-                strings[i] = printContent(objects[i]);
-            logInfo(LogType.REQUEST, format.toString(), (Object[]) strings);
+                args[COMMON_ARGS + i] = printContent(objects[i]);
+            write(Level.INFO, incomingRequestTemplate(objects.length), args);
         }
     }
 
     // specific method for logging reply from script
     public void logOutgoingReply(Map<String, Object> headers, Object reply) {
-        if (getLogger().isInfoEnabled() && isLogTurnOn)
-            logInfo(LogType.REPLY, "headers:\"{}\" payload:\"{}\"", printContent(headers), printContent(reply));
+        if (getLogger().isInfoEnabled() && isLogTurnOn) {
+            Object[] args = addCommonLogArgs(LogType.REPLY, 2);
+            args[4] = printContent(headers);
+            args[5] = printContent(reply);
+            write(Level.INFO, OUTGOING_REPLY_TEMPLATE, args);
+        }
     }
 
     // specific method for logging request from script to remote service
     public void logScriptRequest(Service svc, long timeout, Map<String, Object> headers, Object request) {
-        if (getLogger().isInfoEnabled() && isLogTurnOn)
-            logInfo(LogType.REMOTE_CALL, "script:\"{}\" method:\"{}\" timeout:\"{}\" headers:\"{}\" payload:\"{}\"", svc.service(), svc.method(), timeout, printContent(headers), printContent(request));
+        if (getLogger().isInfoEnabled() && isLogTurnOn) {
+            Object[] args = addCommonLogArgs(LogType.REMOTE_CALL, 5);
+            args[4] = svc.service();
+            args[5] = svc.method();
+            args[6] = timeout;
+            args[7] = printContent(headers);
+            args[8] = printContent(request);
+            write(Level.INFO, SCRIPT_REQUEST_TEMPLATE, args);
+        }
     }
 
     // specific method for logging request from script to remote service
     public void logRemoteRequest(Service svc, long timeout, Map<String, Object> headers, Object request) {
-        if (getLogger().isInfoEnabled() && isLogTurnOn)
-            logInfo(LogType.REMOTE_CALL, "service:\"{}\" method:\"{}\" timeout:\"{}\" headers:\"{}\" payload:\"{}\"", svc.service(), svc.method(), timeout, printContent(headers), printContent(request));
+        if (getLogger().isInfoEnabled() && isLogTurnOn) {
+            Object[] args = addCommonLogArgs(LogType.REMOTE_CALL, 5);
+            args[4] = svc.service();
+            args[5] = svc.method();
+            args[6] = timeout;
+            args[7] = printContent(headers);
+            args[8] = printContent(request);
+            write(Level.INFO, REMOTE_REQUEST_TEMPLATE, args);
+        }
     }
 
     // specific method for logging request from script to remote service
     public void logRemoteRequest(Service svc, long timeout, String moduleId, Map<String, Object> headers, Object request) {
-        if (getLogger().isInfoEnabled() && isLogTurnOn)
-            logInfo(LogType.REMOTE_CALL, "service:\"{}\" method:\"{}\" moduleId:\"{}\" timeout:\"{}\" headers:\"{}\" payload:\"{}\"", svc.service(), svc.method(), moduleId, timeout, printContent(headers), printContent(request));
+        if (getLogger().isInfoEnabled() && isLogTurnOn) {
+            Object[] args = addCommonLogArgs(LogType.REMOTE_CALL, 6);
+            args[4] = svc.service();
+            args[5] = svc.method();
+            args[6] = moduleId;
+            args[7] = timeout;
+            args[8] = printContent(headers);
+            args[9] = printContent(request);
+            write(Level.INFO, REMOTE_MODULE_REQUEST_TEMPLATE, args);
+        }
     }
 
     // specific method for logging request from script to remote service
     public void logRemoteRequest(Service svc, Map<String, Object> headers, Object request) {
-        if (getLogger().isInfoEnabled() && isLogTurnOn)
-            logInfo(LogType.REMOTE_CALL, "service:\"{}\" method:\"{}\" timeout:\"without response\" headers:\"{}\" payload:\"{}\"", svc.service(), svc.method(), svc.timeout(), printContent(headers), printContent(request));
+        if (getLogger().isInfoEnabled() && isLogTurnOn) {
+            Object[] args = addCommonLogArgs(LogType.REMOTE_CALL, 4);
+            args[4] = svc.service();
+            args[5] = svc.method();
+            args[6] = printContent(headers);
+            args[7] = printContent(request);
+            write(Level.INFO, REMOTE_NO_RESPONSE_TEMPLATE, args);
+        }
     }
 
     // specific method for logging request to remote service indicating that this request was retried after fail
     public void logRetriedRequest(Service svc, int retriesLeft, long timeout, Map<String, Object> headers, Object request) {
-        if (getLogger().isInfoEnabled() && isLogTurnOn)
-            logInfo(LogType.REMOTE_RETRY, "service:\"{}\" method:\"{}\" retries left:\"{}\" timeout:\"{}\" headers:\"{}\" payload:\"{}\"", svc.service(), svc.method(), retriesLeft, timeout, printContent(headers), printContent(request));
+        if (getLogger().isInfoEnabled() && isLogTurnOn) {
+            Object[] args = addCommonLogArgs(LogType.REMOTE_RETRY, 6);
+            args[4] = svc.service();
+            args[5] = svc.method();
+            args[6] = retriesLeft;
+            args[7] = timeout;
+            args[8] = printContent(headers);
+            args[9] = printContent(request);
+            write(Level.INFO, RETRIED_REQUEST_TEMPLATE, args);
+        }
     }
 
     // specific method for logging reply from remote service
     void logRemoteReply(Service svc, Object response) {
-        if (getLogger().isInfoEnabled() && isLogTurnOn)
-            logInfo(LogType.REMOTE_REPLY, "service:\"{}\" method:\"{}\" payload:\"{}\"", svc.service(), svc.method(), printContent(response));
+        if (getLogger().isInfoEnabled() && isLogTurnOn) {
+            Object[] args = addCommonLogArgs(LogType.REMOTE_REPLY, 3);
+            args[4] = svc.service();
+            args[5] = svc.method();
+            args[6] = printContent(response);
+            write(Level.INFO, REMOTE_REPLY_TEMPLATE, args);
+        }
     }
 
-    // add value for technical log fields
-    private Object[] addCommonLogArgs(LogType type, Object[] args) {
-        String state = MDC.get("state");
-        Object[] fullArgs = new Object[args.length + 4];
+    // add value for technical log fields, the rest of the array is filled by the caller
+    private Object[] addCommonLogArgs(LogType type, int argsCount) {
+        Object[] fullArgs = new Object[COMMON_ARGS + argsCount];
         fullArgs[0] = getContext().getServiceName();
         fullArgs[1] = getContext().getTransactionID();
-        fullArgs[2] = state;
+        fullArgs[2] = MDC.get(ExtendedFSM.STATE);
         fullArgs[3] = type;
-        System.arraycopy(args, 0, fullArgs, 4, args.length);
+        return fullArgs;
+    }
+
+    // add value for technical log fields
+    private Object[] addCommonLogArgs(LogType type, Object[] args) {
+        Object[] fullArgs = addCommonLogArgs(type, args.length);
+        System.arraycopy(args, 0, fullArgs, COMMON_ARGS, args.length);
         return fullArgs;
     }
 
     // common methods for all log levels
     private void logTrace(LogType type, String msg, Object... args) {
         if (getLogger().isTraceEnabled()) {
-            getLogger().trace(addCommonLogFields(msg), addCommonLogArgs(type, args));
+            write(Level.TRACE, addCommonLogFields(msg), addCommonLogArgs(type, args));
         }
     }
 
     private void logDebug(LogType type, String msg, Object... args) {
         if (getLogger().isDebugEnabled()) {
-            getLogger().debug(addCommonLogFields(msg), addCommonLogArgs(type, args));
+            write(Level.DEBUG, addCommonLogFields(msg), addCommonLogArgs(type, args));
         }
     }
 
     private void logInfo(LogType type, String msg, Object... args) {
         if (getLogger().isInfoEnabled()) {
-            getLogger().info(addCommonLogFields(msg), addCommonLogArgs(type, args));
+            write(Level.INFO, addCommonLogFields(msg), addCommonLogArgs(type, args));
         }
     }
 
     private void logWarn(LogType type, String msg, Object... args) {
         if (getLogger().isWarnEnabled()) {
-            getLogger().warn(addCommonLogFields(msg), addCommonLogArgs(type, args));
+            write(Level.WARN, addCommonLogFields(msg), addCommonLogArgs(type, args));
         }
     }
 
     private void logError(LogType type, String msg, Object... args) {
         if (getLogger().isErrorEnabled()) {
-            getLogger().error(addCommonLogFields(msg), addCommonLogArgs(type, args));
+            write(Level.ERROR, addCommonLogFields(msg), addCommonLogArgs(type, args));
+        }
+    }
+
+    // write prepared record synchronously or through async pipeline
+    private void write(Level level, String template, Object[] args) {
+        AsyncLogPipeline pipeline = asyncPipeline;
+        // a pipeline that is not started or already closed does not accept records
+        if (pipeline != null && pipeline.offer(getLogger(), level, template, args))
+            return;
+        switch (level) {
+            case TRACE:
+                getLogger().trace(template, args);
+                break;
+            case DEBUG:
+                getLogger().debug(template, args);
+                break;
+            case INFO:
+                getLogger().info(template, args);
+                break;
+            case WARN:
+                getLogger().warn(template, args);
+                break;
+            case ERROR:
+                getLogger().error(template, args);
+                break;
         }
     }
 
     /**
-     * Метод записи объекта в строку
+     * Метод записи объекта в лог. Строка строится только при форматировании сообщения бэкендом логирования.
      *
      * @param object - объект, который хотим записать
-     * @return строка содержащая в себе весь объект
-     * @throws IllegalArgumentException если объект равен <code>null</code>
+     * @return объект, toString которого содержит в себе объект с учетом ограничений PayloadRenderer
      */
-    private String printContent(Object object) {
-        return object == null ? "null" : ReflectionToStringBuilder.toString(object, new MultilineRecursiveToStringStyle(), true, true);
+    private Object printContent(Object object) {
+        return renderer.lazy(object);
     }
 
     // add technical log fields common for any log message
     private String addCommonLogFields(String msg) {
-        return "script:\"{}\" tid:\"{}\" state:\"{}\" type:\"{}\" " + msg;
+        String template = TEMPLATES.get(msg);
+        if (template == null) {
+            template = COMMON_FIELDS + msg;
+            if (TEMPLATES.size() < TEMPLATES_CACHE_SIZE)
+                TEMPLATES.putIfAbsent(msg, template);
+        }
+        return template;
+    }
+
+    // template for logIncomingRequest with given number of payload objects
+    private static String incomingRequestTemplate(int count) {
+        if (count < INCOMING_REQUEST_TEMPLATES.length)
+            return INCOMING_REQUEST_TEMPLATES[count];
+        return buildIncomingRequestTemplate(count);
+    }
+
+    private static String buildIncomingRequestTemplate(int count) {
+        StringBuilder format = new StringBuilder(COMMON_FIELDS).append("payload:\"");
+        if (count == 0)
+            return format.append('"').toString();
+        format.append(StringUtils.repeat("{},", count)).replace(format.length() - 1, format.length(), "\"");
+        return format.toString();
     }
 
     private Logger getLogger() {
@@ -0,0 +1,42 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+/**
+ * Получатель метрик обращений сценариев к сервисам.
+ * Вызывается из потока, исполняющего шаг сценария, поэтому реализация не должна блокироваться.
+ * Для ответов на parallelCall с разными сервисами service равен null.
+ */
+public interface MetricsRegistry {
+
+    /**
+     * Реализация, которая ничего не сохраняет
+     */
+    MetricsRegistry NOOP = new MetricsRegistry() {
+        @Override
+        public void recordLatency(Service service, long millis) {
+        }
+
+        @Override
+        public void recordTimeout(Service service) {
+        }
+
+        @Override
+        public void recordRetry(Service service) {
+        }
+    };
+
+    /**
+     * @param service - сервис, ответивший на запрос
+     * @param millis  - время от отправки запроса до получения ответа сценарием
+     */
+    void recordLatency(Service service, long millis);
+
+    void recordTimeout(Service service);
+
+    void recordRetry(Service service);
+
+    /**
+     * Запрос не отправлен или отложен, т.к. превышено ограничение сервиса, см. ServiceLimiter
+     */
+    default void recordRejected(Service service) {
+    }
+}
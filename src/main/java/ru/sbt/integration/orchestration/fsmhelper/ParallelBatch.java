@@ -0,0 +1,378 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Класс отвечающий за хранение состояния и результатов параллельного вызова: parallelCall, parallelScriptCall,
+ * windowedParallelCall и parallelCallQuorum.
+ * Результаты хранятся в массиве по индексу запроса в исходном списке, индекс передается в заголовке запроса
+ * ExtendedFSM.PARALLEL_INDEX_HEADER, поэтому ответ сопоставляется с запросом без поиска.
+ */
+public class ParallelBatch {
+
+    private static final byte PENDING = 0;
+    private static final byte SENT = 1;
+    private static final byte RECEIVED = 2;
+    private static final byte FAILED = 3;
+
+    private final Service[] services;
+    private final Object[] bodies;
+    private final Map<String, Object>[] headers;
+    private final boolean script;
+    private final int maxInFlight;
+    private final int quorum;
+    private final Predicate<ParallelBatch> condition;
+    private final Object[] results;
+    private final byte[] states;
+    private final long[] sentAt;
+    private final long[] deadlines;
+    private int next;
+    private int inFlight;
+    private int received;
+    private int failed;
+    private boolean closed;
+
+    ParallelBatch(List<Service> services, List<Object> bodies, List<Map<String, Object>> headers, boolean script, int maxInFlight,
+                  int quorum, Predicate<ParallelBatch> condition) {
+        this(services.size(), headers != null, script, maxInFlight, quorum, condition);
+        services.toArray(this.services);
+        for (int i = 0; i < this.bodies.length; i++) {
+            this.bodies[i] = bodies.get(i);
+            if (headers != null)
+                this.headers[i] = headers.get(i);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ParallelBatch(int size, boolean withHeaders, boolean script, int maxInFlight, int quorum, Predicate<ParallelBatch> condition) {
+        this.services = new Service[size];
+        this.bodies = new Object[size];
+        this.headers = withHeaders ? (Map<String, Object>[]) new Map<?, ?>[size] : null;
+        this.script = script;
+        this.maxInFlight = maxInFlight;
+        this.quorum = quorum;
+        this.condition = condition;
+        this.results = new Object[size];
+        this.states = new byte[size];
+        this.sentAt = new long[size];
+        this.deadlines = new long[size];
+    }
+
+    public int size() {
+        return states.length;
+    }
+
+    public boolean isScript() {
+        return script;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return количество отправленных запросов, ответ на которые еще не получен
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    public int getReceived() {
+        return received;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return количество ответов, после получения которых вызов завершается, 0 - ожидаются все ответы
+     */
+    public int getQuorum() {
+        return quorum;
+    }
+
+    /**
+     * @return true, если по всем запросам получен ответ или таймаут, либо вызов завершен по кворуму
+     */
+    public boolean isCompleted() {
+        return closed || received + failed == states.length;
+    }
+
+    /**
+     * @return true, если получено quorum ответов или выполнено условие завершения parallelCallQuorum
+     */
+    public boolean isQuorumReached() {
+        if (condition != null)
+            return condition.test(this);
+        return quorum > 0 && received >= quorum;
+    }
+
+    /**
+     * @return true, если ответ на запрос еще ожидается
+     */
+    public boolean isInFlight(int index) {
+        return states[index] == SENT;
+    }
+
+    public boolean isReceived(int index) {
+        return states[index] == RECEIVED;
+    }
+
+    /**
+     * @return true, если ответ на запрос не получен за таймаут или запрос не отправлен: истек срок транзакции
+     * или запрос сброшен ограничением сервиса
+     */
+    public boolean isFailed(int index) {
+        return states[index] == FAILED;
+    }
+
+    /**
+     * @return ответ на запрос с индексом index, null - если ответ не получен
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getResult(int index) {
+        return (T) results[index];
+    }
+
+    /**
+     * @return ответы в порядке запросов, null - на месте неполученных ответов
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> getResults() {
+        return new ArrayList<>((List<T>) Arrays.asList(results));
+    }
+
+    /**
+     * Метод возвращает результат запроса с индексом index
+     *
+     * @return ответ, либо ошибка, если ответ не получен, получен пустым или еще ожидается
+     */
+    @SuppressWarnings("unchecked")
+    public <T> ValueOrError<T, String> getValue(int index) {
+        switch (states[index]) {
+            case RECEIVED:
+                return results[index] != null
+                        ? ValueOrError.value((T) results[index])
+                        : ValueOrError.error("Response body is null");
+            case FAILED:
+                return ValueOrError.error("Response timeout");
+            case SENT:
+                return ValueOrError.error("Response is awaited");
+            default:
+                return ValueOrError.error("Request is not sent");
+        }
+    }
+
+    /**
+     * @return результаты в порядке запросов, см. getValue(int index)
+     */
+    public <T> List<ValueOrError<T, String>> getValues() {
+        List<ValueOrError<T, String>> values = new ArrayList<>(states.length);
+        for (int i = 0; i < states.length; i++)
+            values.add(getValue(i));
+        return values;
+    }
+
+    Service getService(int index) {
+        return services[index];
+    }
+
+    Object getBody(int index) {
+        return bodies[index];
+    }
+
+    Map<String, Object> getHeaders(int index) {
+        return headers != null ? headers[index] : null;
+    }
+
+    long getSentAt(int index) {
+        return sentAt[index];
+    }
+
+    /**
+     * @return индекс следующего запроса для отправки, -1 - если окно заполнено или все запросы отправлены
+     */
+    int nextToSend() {
+        return !closed && next < states.length && inFlight < maxInFlight ? next : -1;
+    }
+
+    void sent(int index, long now, long timeout) {
+        // the request is not resent, its payload is no longer needed
+        bodies[index] = null;
+        if (headers != null)
+            headers[index] = null;
+        states[index] = SENT;
+        sentAt[index] = now;
+        deadlines[index] = now + timeout;
+        inFlight++;
+        next = index + 1;
+    }
+
+    /**
+     * Метод возвращает индекс запроса, к которому относится ответ. Ответ без индекса не сопоставляется
+     * ни с одним запросом: ответы могут приходить в любом порядке.
+     *
+     * @param correlation - значение заголовка ExtendedFSM.PARALLEL_INDEX_HEADER ответа, число или строка,
+     *                    если транспорт передает заголовки строками
+     * @return индекс запроса, -1 - если заголовка нет, он не является индексом или ответ на этот запрос не ожидается
+     */
+    int correlate(Object correlation) {
+        long index;
+        if (correlation instanceof Number) {
+            index = ((Number) correlation).longValue();
+        } else if (correlation instanceof String) {
+            try {
+                index = Long.parseLong(((String) correlation).trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        } else {
+            return -1;
+        }
+        return index >= 0 && index < states.length && states[(int) index] == SENT ? (int) index : -1;
+    }
+
+    void received(int index, Object value) {
+        results[index] = value;
+        states[index] = RECEIVED;
+        inFlight--;
+        received++;
+    }
+
+    void failed(int index) {
+        states[index] = FAILED;
+        inFlight--;
+        failed++;
+    }
+
+    /**
+     * Отмечает следующий неотправленный запрос как неуспешный без отправки
+     */
+    void skipped(int index) {
+        bodies[index] = null;
+        if (headers != null)
+            headers[index] = null;
+        states[index] = FAILED;
+        failed++;
+        next = index + 1;
+    }
+
+    /**
+     * @return время окончания таймаута отправленного запроса в мс
+     */
+    long getExpiry(int index) {
+        return deadlines[index];
+    }
+
+    /**
+     * Отмечает неотправленные запросы как неуспешные, больше запросы не отправляются
+     */
+    void failPending() {
+        for (int i = next; i < states.length; i++) {
+            if (states[i] == PENDING) {
+                bodies[i] = null;
+                if (headers != null)
+                    headers[i] = null;
+                states[i] = FAILED;
+                failed++;
+            }
+        }
+        next = states.length;
+    }
+
+    /**
+     * Проверяет условие завершения вызова. После завершения по кворуму состояние не меняется,
+     * запросы без ответа больше не отправляются, опоздавшие ответы не влияют на результат
+     *
+     * @return true, если вызов завершен
+     */
+    boolean complete() {
+        if (!closed && (isQuorumReached() || quorum > states.length - failed))
+            closed = true;
+        return isCompleted();
+    }
+
+    /**
+     * @return true, если запрос отправлен, ответ не получен и таймаут истек
+     */
+    boolean isExpired(int index, long now) {
+        return states[index] == SENT && deadlines[index] <= now;
+    }
+
+    /**
+     * @return ближайший таймаут отправленных запросов в мс, 0 - если ответы не ожидаются
+     */
+    long nextDeadline() {
+        long deadline = 0;
+        for (int i = 0; i < next; i++)
+            if (states[i] == SENT && (deadline == 0 || deadlines[i] < deadline))
+                deadline = deadlines[i];
+        return deadline;
+    }
+
+    /**
+     * Запись в формате FSMHolderCodec. Условие завершения parallelCallQuorum не сохраняется,
+     * после восстановления вызов с условием завершается по получении всех ответов
+     */
+    void encode(FSMHolderCodec.Encoder out) throws IOException {
+        out.writeVarLong(states.length);
+        out.writeBoolean(headers != null);
+        out.writeBoolean(script);
+        out.writeBoolean(closed);
+        out.writeVarLong(maxInFlight);
+        out.writeVarLong(quorum);
+        out.writeVarLong(next);
+        for (int i = 0; i < states.length; i++) {
+            out.writeService(services[i]);
+            out.writeValue(bodies[i]);
+            if (headers != null)
+                out.writeHeaders(headers[i]);
+            out.writeByte(states[i]);
+            if (states[i] != PENDING) {
+                out.writeVarLong(sentAt[i]);
+                out.writeVarLong(deadlines[i] - sentAt[i]);
+            }
+            if (states[i] == RECEIVED)
+                out.writeValue(results[i]);
+        }
+    }
+
+    static ParallelBatch decode(FSMHolderCodec.Decoder in) throws IOException {
+        int size = in.readVarInt();
+        if (size < 0)
+            throw new InvalidObjectException("negative parallel batch size");
+        boolean withHeaders = in.readBoolean();
+        boolean script = in.readBoolean();
+        boolean closed = in.readBoolean();
+        ParallelBatch batch = new ParallelBatch(size, withHeaders, script, in.readVarInt(), in.readVarInt(), null);
+        batch.closed = closed;
+        batch.next = in.readVarInt();
+        for (int i = 0; i < size; i++) {
+            batch.services[i] = in.readService();
+            batch.bodies[i] = in.readValue();
+            if (withHeaders)
+                batch.headers[i] = in.readHeaders();
+            byte state = in.readByte();
+            batch.states[i] = state;
+            if (state != PENDING) {
+                batch.sentAt[i] = in.readVarLong();
+                batch.deadlines[i] = batch.sentAt[i] + in.readVarLong();
+            }
+            if (state == SENT)
+                batch.inFlight++;
+            else if (state == RECEIVED) {
+                batch.results[i] = in.readValue();
+                batch.received++;
+            } else if (state == FAILED)
+                batch.failed++;
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,214 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Класс отвечающий за запись объектов в лог.
+ * Список полей класса вычисляется один раз и кешируется, глубина обхода и длина результата ограничены.
+ * Объект, возвращаемый методом lazy, строит строку только тогда, когда бэкенд логирования форматирует сообщение.
+ */
+public class PayloadRenderer {
+
+    public static final int DEFAULT_MAX_DEPTH = 5;
+    public static final int DEFAULT_MAX_LENGTH = 8192;
+
+    public static final PayloadRenderer DEFAULT = new PayloadRenderer(DEFAULT_MAX_DEPTH, DEFAULT_MAX_LENGTH);
+
+    private static final String TRUNCATED = "...";
+
+    private static final ClassValue<Field[]> FIELDS = new ClassValue<Field[]>() {
+        @Override
+        protected Field[] computeValue(Class<?> type) {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic())
+                        continue;
+                    try {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    } catch (RuntimeException e) {
+                        // поле недоступно для чтения, пропускаем
+                    }
+                }
+            }
+            return fields.toArray(new Field[0]);
+        }
+    };
+
+    private final int maxDepth;
+    private final int maxLength;
+
+    /**
+     * @param maxDepth  - максимальная глубина вложенности объектов, глубже выводится только имя класса
+     * @param maxLength - максимальная длина результата, остаток отбрасывается
+     */
+    public PayloadRenderer(int maxDepth, int maxLength) {
+        this.maxDepth = maxDepth;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Метод возвращает объект, строковое представление которого будет построено при первом вызове toString
+     *
+     * @param object - объект, который хотим записать
+     * @return обертка над объектом
+     */
+    public Object lazy(Object object) {
+        return object == null ? "null" : new Lazy(this, object);
+    }
+
+    /**
+     * Метод строит строку объекта, возвращенного методом lazy, остальные объекты возвращает без изменений
+     *
+     * @param object - аргумент сообщения лога
+     * @return строка или исходный объект
+     */
+    static Object snapshot(Object object) {
+        return object instanceof Lazy ? object.toString() : object;
+    }
+
+    /**
+     * Метод записи объекта в строку
+     *
+     * @param object - объект, который хотим записать
+     * @return строка содержащая в себе объект, с учетом ограничений глубины и длины
+     */
+    public String render(Object object) {
+        StringBuilder sb = new StringBuilder(128);
+        append(sb, object, 0, new Object[maxDepth + 1]);
+        if (sb.length() > maxLength) {
+            sb.setLength(maxLength);
+            sb.append(TRUNCATED);
+        }
+        return sb.toString();
+    }
+
+    private void append(StringBuilder sb, Object value, int depth, Object[] path) {
+        if (sb.length() > maxLength)
+            return;
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        Class<?> type = value.getClass();
+        if (isSimple(type)) {
+            sb.append(value);
+            return;
+        }
+        if (depth >= maxDepth || onPath(value, path, depth)) {
+            sb.append(type.getSimpleName()).append("[").append(TRUNCATED).append("]");
+            return;
+        }
+        path[depth] = value;
+        if (value instanceof Map)
+            appendMap(sb, (Map<?, ?>) value, depth, path);
+        else if (value instanceof Collection)
+            appendIterable(sb, ((Collection<?>) value).iterator(), depth, path);
+        else if (type.isArray())
+            appendArray(sb, value, depth, path);
+        else if (isJdk(type))
+            sb.append(value);
+        else
+            appendFields(sb, value, type, depth, path);
+        path[depth] = null;
+    }
+
+    private void appendMap(StringBuilder sb, Map<?, ?> map, int depth, Object[] path) {
+        sb.append('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (sb.length() > maxLength)
+                break;
+            if (!first)
+                sb.append(", ");
+            first = false;
+            append(sb, entry.getKey(), depth + 1, path);
+            sb.append('=');
+            append(sb, entry.getValue(), depth + 1, path);
+        }
+        sb.append('}');
+    }
+
+    private void appendIterable(StringBuilder sb, Iterator<?> iterator, int depth, Object[] path) {
+        sb.append('[');
+        boolean first = true;
+        while (iterator.hasNext() && sb.length() <= maxLength) {
+            if (!first)
+                sb.append(", ");
+            first = false;
+            append(sb, iterator.next(), depth + 1, path);
+        }
+        sb.append(']');
+    }
+
+    private void appendArray(StringBuilder sb, Object array, int depth, Object[] path) {
+        sb.append('[');
+        int length = Array.getLength(array);
+        for (int i = 0; i < length && sb.length() <= maxLength; i++) {
+            if (i > 0)
+                sb.append(", ");
+            append(sb, Array.get(array, i), depth + 1, path);
+        }
+        sb.append(']');
+    }
+
+    private void appendFields(StringBuilder sb, Object value, Class<?> type, int depth, Object[] path) {
+        sb.append(type.getSimpleName()).append('[');
+        Field[] fields = FIELDS.get(type);
+        for (int i = 0; i < fields.length && sb.length() <= maxLength; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(fields[i].getName()).append('=');
+            try {
+                append(sb, fields[i].get(value), depth + 1, path);
+            } catch (IllegalAccessException e) {
+                sb.append("<inaccessible>");
+            }
+        }
+        sb.append(']');
+    }
+
+    private static boolean onPath(Object value, Object[] path, int depth) {
+        for (int i = 0; i < depth; i++)
+            if (path[i] == value)
+                return true;
+        return false;
+    }
+
+    private static boolean isSimple(Class<?> type) {
+        return type == String.class || type.isPrimitive() || Enum.class.isAssignableFrom(type)
+                || Number.class.isAssignableFrom(type) || type == Boolean.class || type == Character.class
+                || CharSequence.class.isAssignableFrom(type);
+    }
+
+    private static boolean isJdk(Class<?> type) {
+        String name = type.getName();
+        return name.startsWith("java.") || name.startsWith("javax.");
+    }
+
+    private static final class Lazy {
+        private final PayloadRenderer renderer;
+        private final Object object;
+        private String rendered;
+
+        private Lazy(PayloadRenderer renderer, Object object) {
+            this.renderer = renderer;
+            this.object = object;
+        }
+
+        @Override
+        public String toString() {
+            if (rendered == null)
+                rendered = renderer.render(object);
+            return rendered;
+        }
+    }
+}
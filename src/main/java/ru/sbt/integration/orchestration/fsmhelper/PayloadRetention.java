@@ -0,0 +1,77 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Политика хранения в FSMHolder тела и заголовков отправленного запроса и тела входящего запроса сценария.
+ * Задается для сценария (ExtendedFSM.payloadRetention) и для сервиса (Service.payloadRetention).
+ * Тело и заголовки отправленного запроса освобождаются при получении ответа.
+ */
+public enum PayloadRetention {
+
+    /**
+     * Политика сценария, используется в Service.payloadRetention по умолчанию
+     */
+    INHERIT,
+
+    /**
+     * Тело и заголовки не хранятся
+     */
+    NONE,
+
+    /**
+     * Хранится ссылка на переданный объект
+     */
+    REFERENCE,
+
+    /**
+     * Хранится копия, изменения объекта после отправки на нее не влияют.
+     * Объекты, не реализующие Serializable, хранятся по ссылке
+     */
+    COPY;
+
+    /**
+     * @param payload - тело запроса
+     * @return объект, который нужно сохранить в FSMHolder
+     */
+    public Object retain(Object payload) {
+        switch (this) {
+            case NONE:
+                return null;
+            case COPY:
+                return copy(payload);
+            default:
+                return payload;
+        }
+    }
+
+    /**
+     * @return политика, при которой тело сохраняется: NONE заменяется на REFERENCE
+     */
+    public PayloadRetention orReference() {
+        return this == NONE || this == INHERIT ? REFERENCE : this;
+    }
+
+    private static Object copy(Object payload) {
+        if (payload == null || payload instanceof String || payload instanceof Number || payload instanceof Boolean
+                || payload instanceof Enum || !(payload instanceof Serializable))
+            return payload;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(payload);
+            }
+            try (ObjectInputStream in = new FSMHolderCodec.ContextObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                return in.readObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            // the payload graph is not fully serializable, keep the reference
+            return payload;
+        }
+    }
+}
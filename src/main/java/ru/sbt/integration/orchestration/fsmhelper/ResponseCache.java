@@ -0,0 +1,136 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кеш ответов идемпотентного сервиса, общий для всех сценариев JVM. Ключ - тело запроса, поэтому класс тела
+ * запроса должен корректно реализовывать equals и hashCode. Объекты ответов не копируются: один экземпляр
+ * возвращается всем транзакциям, поэтому изменять полученный из кеша ответ нельзя.
+ * <p>
+ * Вытеснение в стиле W-TinyLFU: новые ключи попадают в небольшое окно LRU (1% размера), вытесненный из окна ключ
+ * попадает в основную часть, только если к нему обращались чаще, чем к самому старому ключу основной части.
+ * Частота обращений считается приблизительно FrequencySketch. Записи с истекшим временем жизни не возвращаются.
+ */
+public class ResponseCache {
+
+    private static final ConcurrentMap<ServiceKey, ResponseCache> CACHES = new ConcurrentHashMap<>();
+
+    private final int windowSize;
+    private final int mainSize;
+    private final LinkedHashMap<Object, Entry> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Object, Entry> main = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public ResponseCache(int maximumSize) {
+        this.windowSize = Math.max(1, maximumSize / 100);
+        this.mainSize = Math.max(1, maximumSize - windowSize);
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    /**
+     * Метод возвращает кеш ответов сервиса, null - если у сервиса кеш выключен
+     *
+     * @param service - сервис
+     * @return ResponseCache или null
+     */
+    public static ResponseCache forService(Service service) {
+        if (service == null || !service.responseCache().isEnabled())
+            return null;
+        ServiceKey key = ServiceKey.of(service);
+        ResponseCache cache = CACHES.get(key);
+        if (cache == null)
+            cache = CACHES.computeIfAbsent(key, k -> new ResponseCache(service.responseCache().getMaximumSize()));
+        return cache;
+    }
+
+    /**
+     * @param key - тело запроса
+     * @return закешированный ответ или null
+     */
+    public synchronized Object get(Object key) {
+        sketch.increment(key);
+        Entry entry = window.get(key);
+        if (entry == null)
+            entry = main.get(key);
+        if (entry == null || entry.expiresAt < System.currentTimeMillis()) {
+            if (entry != null)
+                remove(key);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    /**
+     * @param key   - тело запроса
+     * @param value - ответ сервиса
+     * @param ttl   - время жизни в мс
+     */
+    public synchronized void put(Object key, Object value, long ttl) {
+        Entry entry = new Entry(value, System.currentTimeMillis() + ttl);
+        if (main.containsKey(key)) {
+            main.put(key, entry);
+            return;
+        }
+        window.put(key, entry);
+        if (window.size() > windowSize) {
+            Iterator<Map.Entry<Object, Entry>> eldest = window.entrySet().iterator();
+            Map.Entry<Object, Entry> candidate = eldest.next();
+            eldest.remove();
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    public synchronized void invalidate(Object key) {
+        remove(key);
+    }
+
+    public synchronized int size() {
+        return window.size() + main.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private void admit(Object key, Entry entry) {
+        if (main.size() < mainSize) {
+            main.put(key, entry);
+            return;
+        }
+        Iterator<Map.Entry<Object, Entry>> eldest = main.entrySet().iterator();
+        Map.Entry<Object, Entry> victim = eldest.next();
+        if (victim.getValue().expiresAt < System.currentTimeMillis()
+                || sketch.frequency(key) > sketch.frequency(victim.getKey())) {
+            eldest.remove();
+            main.put(key, entry);
+        }
+    }
+
+    private void remove(Object key) {
+        if (window.remove(key) == null)
+            main.remove(key);
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private final long expiresAt;
+
+        private Entry(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.function.Predicate;
+
+/**
+ * Настройки кеша ответов сервиса для ExtendedFSM.cachedCall, см. ResponseCache.
+ */
+public final class ResponseCacheConfig {
+
+    /**
+     * Кеш выключен, поведение по умолчанию
+     */
+    public static final ResponseCacheConfig DISABLED = new ResponseCacheConfig(0, response -> false);
+
+    private final int maximumSize;
+    private final Predicate<Object> cacheable;
+
+    private ResponseCacheConfig(int maximumSize, Predicate<Object> cacheable) {
+        this.maximumSize = maximumSize;
+        this.cacheable = cacheable;
+    }
+
+    /**
+     * @param maximumSize - максимальное количество ответов в кеше
+     * @return включенный кеш, кешируется любой ответ
+     */
+    public static ResponseCacheConfig of(int maximumSize) {
+        return of(maximumSize, response -> true);
+    }
+
+    /**
+     * @param maximumSize - максимальное количество ответов в кеше
+     * @param cacheable   - проверка, что ответ можно кешировать, например, что это не бизнес-ошибка
+     * @return включенный кеш
+     */
+    public static ResponseCacheConfig of(int maximumSize, Predicate<Object> cacheable) {
+        if (maximumSize < 1 || cacheable == null)
+            throw new IllegalArgumentException("response cache false parameters");
+        return new ResponseCacheConfig(maximumSize, cacheable);
+    }
+
+    public boolean isEnabled() {
+        return maximumSize > 0;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @param response - ответ сервиса, не null
+     * @return true, если ответ можно сохранить в кеш
+     */
+    public boolean isCacheable(Object response) {
+        return cacheable.test(response);
+    }
+}
@@ -3,6 +3,7 @@ package ru.sbt.integration.orchestration.fsmhelper;
 import ru.sbt.integration.orchestration.fsmcore.messages.Action;
 
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 public abstract class RetryFSM extends ExtendedFSM {
 
@@ -13,12 +14,10 @@ public abstract class RetryFSM extends ExtendedFSM {
      */
     @Override
     protected RetryFSMHolder holder() {
-        RetryFSMHolder holder = context().getFromStateOrDefault(FSMHolder.FSM_HOLDER_NAME, null);
-        if (holder == null) {
-            holder = new RetryFSMHolder(stateData());
-            holder.update();
-        }
-        return holder;
+        FSMHolder holder = cachedHolder();
+        if (holder instanceof RetryFSMHolder)
+            return (RetryFSMHolder) holder;
+        return (RetryFSMHolder) cacheHolder(new RetryFSMHolder(getContext().getStateData()));
     }
 
     /**
@@ -31,14 +30,16 @@ public abstract class RetryFSM extends ExtendedFSM {
      */
     @Override
     protected Action call(Service service, Object body, Map<String, Object> headers) {
-        Action action = super.call(service, body, headers);
         holder()
+                .resetAttempts()
                 .withRetries(service.retries());
-        return action;
+        return super.call(service, body, headers);
     }
 
     /**
      * Метод возвращает Action для вызова последнего вызванного сервиса.
+     * Если у сервиса задана политика RetryPolicy с задержкой, то сначала возвращается waitAction на время задержки,
+     * сам повтор отправляется при следующем вызове retryCall после истечения задержки.
      * Если количество попыток исчепанно, то вызывается метод retryEndAction.
      *
      * @return действие удаленного вызова на ОИП
@@ -46,15 +47,60 @@ public abstract class RetryFSM extends ExtendedFSM {
     protected Action retryCall() {
         RetryFSMHolder holder = holder();
         Service service = holder.getService();
+        long now = System.currentTimeMillis();
+        if (holder.getNextDeadline() > 0) {
+            if (now < holder.getNextDeadline())
+                return waitAction(holder.getNextDeadline() - now);
+            return resend(holder, service);
+        }
+        // retryCall is also called on the timeout event, which must be counted as a timeout
+        if (holder.getSentAt() > 0 && holder.getSentTimeout() > 0 && now - holder.getSentAt() >= holder.getSentTimeout())
+            registerTimeout();
+        else
+            registerError();
         if (holder.canRetry()) {
-            int retries = holder.decrementRetriesAndGet();
-            logger.logInfo("Повторная отправка запроса, осталось {} попыток", retries);
-            logger.logRetriedRequest(service, retries, service.timeout(), holder.getHeaders(), holder.getBody());
-            return super.call(holder.getService(), holder.getBody(), holder.getHeaders());
+            long delay = service.retryPolicy().nextDelay(holder.getAttempt() + 1, holder.getLastDelay(), ThreadLocalRandom.current());
+            if (delay <= 0)
+                return resend(holder, service);
+            logger.logInfo("Повторная отправка запроса через {} мс", delay);
+            holder.withBackoff(delay, now);
+            return waitAction(delay);
         }
         return retryEndAction();
     }
 
+    /**
+     * Отправляет повтор. Попытка расходуется, только если запрос отправлен или отложен ограничением сервиса,
+     * а не отклонен (срок транзакции истек, предохранитель разомкнут, ограничение сервиса)
+     */
+    private Action resend(RetryFSMHolder holder, Service service) {
+        Object body = holder.getBody();
+        Map<String, Object> headers = holder.getHeaders();
+        holder.withSentAt(0, 0);
+        Action action = super.call(service, body, headers);
+        if (holder.getSentAt() == 0 && !isCallQueued())
+            return action;
+        int retries = holder.decrementRetriesAndGet();
+        holder.withNextAttempt();
+        logger.logInfo("Повторная отправка запроса, осталось {} попыток", retries);
+        logger.logRetriedRequest(service, retries, timeoutOf(service), headers, body);
+        getMetricsRegistry().recordRetry(service);
+        traceRetry(service, holder.getAttempt(), holder.getLastDelay());
+        // the attempt is counted after the action was created
+        flushState();
+        return action;
+    }
+
+    /**
+     * Тело запроса освобождается при получении ответа, только когда попытки исчерпаны:
+     * до этого оно нужно для retryCall
+     */
+    @Override
+    protected void releasePayload() {
+        if (!holder().canRetry())
+            super.releasePayload();
+    }
+
     /**
      * Метод по-умолчанию возвращает FinishExecutionAction
      * Если нужна другая логика по завершению попыток необходимо перегрузить данный метод
@@ -63,6 +109,6 @@ public abstract class RetryFSM extends ExtendedFSM {
      */
     protected Action retryEndAction() {
         logger.logInfo("Повторная отправка запроса невозможна, исчерпано количество попыток");
-        return getContext().getActionFactory().FinishExecution();
+        return actionFactory().FinishExecution();
     }
 }
\ No newline at end of file
@@ -1,5 +1,8 @@
 package ru.sbt.integration.orchestration.fsmhelper;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.Map;
 
 /**
@@ -7,12 +10,23 @@ import java.util.Map;
  */
 public class RetryFSMHolder extends FSMHolder {
 
+    private static final long serialVersionUID = 1L;
+
     protected Integer retries = -1;
+    protected int attempt;
+    protected long nextDeadline;
+    protected long lastDelay;
 
     public RetryFSMHolder(Map<String, Object> stateData) {
         super(stateData);
     }
 
+    /**
+     * Конструктор для десериализации, см. FSMHolder()
+     */
+    public RetryFSMHolder() {
+    }
+
     public RetryFSMHolder withRetries(Integer retries) {
         this.retries = retries;
         return update();
@@ -30,9 +44,79 @@ public class RetryFSMHolder extends FSMHolder {
         return --retries;
     }
 
+    /**
+     * @return номер последнего повтора, 0 - повторов не было
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * @return время в мс, после которого отправляется отложенный повтор, 0 - повтор не запланирован
+     */
+    public long getNextDeadline() {
+        return nextDeadline;
+    }
+
+    /**
+     * @return задержка перед последним повтором в мс
+     */
+    public long getLastDelay() {
+        return lastDelay;
+    }
+
+    /**
+     * Планирует отложенный повтор
+     *
+     * @param delay - задержка в мс
+     * @param now   - текущее время в мс
+     */
+    public RetryFSMHolder withBackoff(long delay, long now) {
+        this.lastDelay = delay;
+        this.nextDeadline = now + delay;
+        return update();
+    }
+
+    /**
+     * Фиксирует отправку повтора
+     */
+    public RetryFSMHolder withNextAttempt() {
+        this.attempt++;
+        this.nextDeadline = 0;
+        return update();
+    }
+
+    /**
+     * Сбрасывает расписание повторов для нового запроса
+     */
+    public RetryFSMHolder resetAttempts() {
+        this.attempt = 0;
+        this.nextDeadline = 0;
+        this.lastDelay = 0;
+        return update();
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        super.writeExternal(out);
+        FSMHolderCodec.writeVarLong(out, retries != null ? retries : -1);
+        FSMHolderCodec.writeVarLong(out, attempt);
+        FSMHolderCodec.writeVarLong(out, nextDeadline);
+        FSMHolderCodec.writeVarLong(out, lastDelay);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        super.readExternal(in);
+        retries = FSMHolderCodec.readVarInt(in);
+        attempt = FSMHolderCodec.readVarInt(in);
+        nextDeadline = FSMHolderCodec.readVarLong(in);
+        lastDelay = FSMHolderCodec.readVarLong(in);
+    }
+
     @Override
     public RetryFSMHolder update() {
-        stateData.put(FSM_HOLDER_NAME, this);
+        super.update();
         return this;
     }
 }
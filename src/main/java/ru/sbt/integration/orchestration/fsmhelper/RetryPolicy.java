@@ -0,0 +1,101 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.Random;
+
+/**
+ * Политика задержки перед повторной отправкой запроса в RetryFSM.retryCall.
+ * Задержка растет экспоненциально: base * multiplier^(attempt - 1), но не больше cap, и размывается jitter.
+ */
+public final class RetryPolicy {
+
+    /**
+     * Разброс задержки, чтобы транзакции, получившие ошибку одновременно, не отправляли повтор одновременно
+     */
+    public enum Jitter {
+        /**
+         * Без разброса
+         */
+        NONE,
+        /**
+         * Случайно от 0 до задержки
+         */
+        FULL,
+        /**
+         * Половина задержки плюс случайно от 0 до половины
+         */
+        EQUAL,
+        /**
+         * Случайно от base до утроенной предыдущей задержки, не больше cap
+         */
+        DECORRELATED
+    }
+
+    /**
+     * Повтор без задержки, поведение по умолчанию
+     */
+    public static final RetryPolicy IMMEDIATE = new RetryPolicy(0, 1, 0, Jitter.NONE);
+
+    private final long base;
+    private final double multiplier;
+    private final long cap;
+    private final Jitter jitter;
+
+    private RetryPolicy(long base, double multiplier, long cap, Jitter jitter) {
+        this.base = base;
+        this.multiplier = multiplier;
+        this.cap = cap;
+        this.jitter = jitter;
+    }
+
+    /**
+     * @param base       - задержка перед первым повтором в мс
+     * @param multiplier - множитель задержки для каждого следующего повтора
+     * @param cap        - максимальная задержка в мс
+     * @param jitter     - разброс задержки
+     * @return политика экспоненциальной задержки
+     */
+    public static RetryPolicy exponential(long base, double multiplier, long cap, Jitter jitter) {
+        if (base < 0 || multiplier < 1 || cap < base)
+            throw new IllegalArgumentException("retry policy false parameters");
+        return new RetryPolicy(base, multiplier, cap, jitter);
+    }
+
+    public long getBase() {
+        return base;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public long getCap() {
+        return cap;
+    }
+
+    public Jitter getJitter() {
+        return jitter;
+    }
+
+    /**
+     * @param attempt       - номер повтора, начиная с 1
+     * @param previousDelay - задержка перед предыдущим повтором, для первого повтора - 0
+     * @param random        - генератор случайных чисел
+     * @return задержка в мс перед повтором
+     */
+    public long nextDelay(int attempt, long previousDelay, Random random) {
+        if (cap == 0)
+            return 0;
+        double exponential = Math.min(cap, base * Math.pow(multiplier, Math.max(0, attempt - 1)));
+        switch (jitter) {
+            case FULL:
+                return (long) (random.nextDouble() * exponential);
+            case EQUAL:
+                return (long) (exponential / 2 + random.nextDouble() * exponential / 2);
+            case DECORRELATED:
+                long upper = Math.max(base, previousDelay * 3);
+                return Math.min(cap, base + (long) (random.nextDouble() * (upper - base)));
+            default:
+                return (long) exponential;
+        }
+    }
+}
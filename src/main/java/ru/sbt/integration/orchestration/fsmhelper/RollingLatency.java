@@ -0,0 +1,59 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Время ответа сервиса за скользящее окно: текущее незавершенное окно и предыдущее полное.
+ * Перцентиль считается по предыдущему окну, а пока его нет или в нем мало ответов - по текущему.
+ */
+public class RollingLatency {
+
+    private final long windowMillis;
+    private final AtomicReference<Window> window;
+
+    public RollingLatency(long windowMillis) {
+        this.windowMillis = windowMillis;
+        this.window = new AtomicReference<>(new Window(System.currentTimeMillis(), null));
+    }
+
+    public void record(long millis) {
+        current(System.currentTimeMillis()).histogram.record(millis);
+    }
+
+    /**
+     * @param percentile     - перцентиль от 0 до 100
+     * @param minimumSamples - минимальное количество ответов в окне
+     * @return значение перцентиля в мс, -1 если ответов недостаточно
+     */
+    public long getValueAtPercentile(double percentile, int minimumSamples) {
+        Window current = current(System.currentTimeMillis());
+        LatencyHistogram source = current.previous;
+        if (source == null || source.getCount() < minimumSamples)
+            source = current.histogram;
+        if (source.getCount() < minimumSamples)
+            return -1;
+        return source.getValueAtPercentile(percentile);
+    }
+
+    private Window current(long now) {
+        Window current = window.get();
+        while (now - current.startedAt >= windowMillis) {
+            Window next = new Window(now, current.histogram);
+            if (window.compareAndSet(current, next))
+                return next;
+            current = window.get();
+        }
+        return current;
+    }
+
+    private static final class Window {
+        private final long startedAt;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final LatencyHistogram previous;
+
+        private Window(long startedAt, LatencyHistogram previous) {
+            this.startedAt = startedAt;
+            this.previous = previous;
+        }
+    }
+}
@@ -9,4 +9,60 @@ public interface Service {
     int timeout();
 
     int retries();
+
+    /**
+     * Политика задержки перед повторной отправкой запроса в RetryFSM.retryCall.
+     * По умолчанию повтор отправляется сразу.
+     */
+    default RetryPolicy retryPolicy() {
+        return RetryPolicy.IMMEDIATE;
+    }
+
+    /**
+     * Настройки предохранителя, общего для всех обращений к сервису из JVM.
+     * По умолчанию предохранитель выключен.
+     */
+    default CircuitBreakerConfig circuitBreaker() {
+        return CircuitBreakerConfig.DISABLED;
+    }
+
+    /**
+     * Настройки адаптивного таймаута, вычисляемого по наблюдаемому времени ответа сервиса.
+     * По умолчанию выключен, используется timeout().
+     */
+    default AdaptiveTimeoutConfig adaptiveTimeout() {
+        return AdaptiveTimeoutConfig.DISABLED;
+    }
+
+    /**
+     * Политика задержки дублирующего запроса для ExtendedFSM.hedgedCall.
+     * Задается только для идемпотентных сервисов, по умолчанию дублирующий запрос не отправляется.
+     */
+    default HedgePolicy hedgePolicy() {
+        return HedgePolicy.DISABLED;
+    }
+
+    /**
+     * Настройки кеша ответов для ExtendedFSM.cachedCall.
+     * Задается только для идемпотентных сервисов, по умолчанию кеш выключен и cachedCall выполняет обычный call.
+     */
+    default ResponseCacheConfig responseCache() {
+        return ResponseCacheConfig.DISABLED;
+    }
+
+    /**
+     * Политика хранения тела и заголовков запроса к сервису в FSMHolder.
+     * По умолчанию - политика сценария, см. ExtendedFSM.payloadRetention().
+     */
+    default PayloadRetention payloadRetention() {
+        return PayloadRetention.INHERIT;
+    }
+
+    /**
+     * Ограничение количества запросов в секунду и одновременно ожидаемых ответов, общее для всех сценариев JVM.
+     * По умолчанию ограничений нет.
+     */
+    default ServiceLimitConfig limit() {
+        return ServiceLimitConfig.DISABLED;
+    }
 }
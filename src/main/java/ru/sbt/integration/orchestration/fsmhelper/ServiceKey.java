@@ -0,0 +1,62 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.Objects;
+
+/**
+ * Ключ реестров, общих для всех сценариев JVM (предохранители, таймауты, кеши, ограничения, метрики):
+ * Service.service() и Service.method(). Экземпляры Service, не реализующие equals и hashCode,
+ * с одинаковыми сервисом и методом получают общий объект реестра.
+ * Ключи сервисов-перечислений создаются один раз на константу: service() и method() перечисления
+ * считаются неизменными.
+ */
+final class ServiceKey {
+
+    private static final ClassValue<ServiceKey[]> ENUM_KEYS = new ClassValue<ServiceKey[]>() {
+        @Override
+        protected ServiceKey[] computeValue(Class<?> type) {
+            return new ServiceKey[type.getEnumConstants().length];
+        }
+    };
+
+    private final String service;
+    private final String method;
+    private final int hash;
+
+    private ServiceKey(String service, String method) {
+        this.service = service;
+        this.method = method;
+        this.hash = 31 * (service != null ? service.hashCode() : 0) + (method != null ? method.hashCode() : 0);
+    }
+
+    static ServiceKey of(Service service) {
+        if (!(service instanceof Enum))
+            return new ServiceKey(service.service(), service.method());
+        Enum<?> constant = (Enum<?>) service;
+        ServiceKey[] keys = ENUM_KEYS.get(constant.getDeclaringClass());
+        ServiceKey key = keys[constant.ordinal()];
+        // a race creates equal keys, the fields are final so any of them is safe to share
+        if (key == null)
+            keys[constant.ordinal()] = key = new ServiceKey(service.service(), service.method());
+        return key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof ServiceKey))
+            return false;
+        ServiceKey key = (ServiceKey) o;
+        return hash == key.hash && Objects.equals(service, key.service) && Objects.equals(method, key.method);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return service + "." + method;
+    }
+}
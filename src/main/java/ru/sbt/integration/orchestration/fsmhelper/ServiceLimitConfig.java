@@ -0,0 +1,86 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+/**
+ * Настройки ограничения обращений к сервису, см. ServiceLimiter.
+ */
+public final class ServiceLimitConfig {
+
+    /**
+     * Действие сценария, когда запрос превышает ограничение
+     */
+    public enum Policy {
+        /**
+         * Сценарий ждет (waitAction) освобождения ограничения не дольше maxQueueMillis, при обработке таймаута
+         * ожидания вызывает ExtendedFSM.resumeQueuedCall(). Если ожидание истекло - ExtendedFSM.serviceOverloadedAction
+         */
+        QUEUE,
+        /**
+         * Запрос не отправляется, вызывается ExtendedFSM.shedAction. В windowedParallelCall и parallelCallQuorum
+         * запросы сверх ограничения отмечаются как неуспешные
+         */
+        SHED,
+        /**
+         * Запрос не отправляется, вызывается ExtendedFSM.serviceOverloadedAction
+         */
+        FAIL_FAST
+    }
+
+    /**
+     * Ограничения выключены, поведение по умолчанию
+     */
+    public static final ServiceLimitConfig DISABLED = new ServiceLimitConfig(0, 0, 0, Policy.FAIL_FAST, 0);
+
+    private final double permitsPerSecond;
+    private final int burst;
+    private final int maxInFlight;
+    private final Policy policy;
+    private final long maxQueueMillis;
+
+    private ServiceLimitConfig(double permitsPerSecond, int burst, int maxInFlight, Policy policy, long maxQueueMillis) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.maxInFlight = maxInFlight;
+        this.policy = policy;
+        this.maxQueueMillis = maxQueueMillis;
+    }
+
+    /**
+     * @param permitsPerSecond - запросов в секунду, 0 - не ограничено
+     * @param burst            - количество запросов, которое можно отправить подряд после простоя
+     * @param maxInFlight      - запросов с ожиданием ответа, отправленных одновременно, 0 - не ограничено
+     * @param policy           - действие сценария при превышении ограничения
+     * @param maxQueueMillis   - максимальное время ожидания в мс для политики QUEUE
+     * @return включенное ограничение
+     */
+    public static ServiceLimitConfig of(double permitsPerSecond, int burst, int maxInFlight, Policy policy, long maxQueueMillis) {
+        if (permitsPerSecond < 0 || (permitsPerSecond > 0 && burst < 1) || maxInFlight < 0
+                || (permitsPerSecond == 0 && maxInFlight == 0) || policy == null
+                || (policy == Policy.QUEUE && maxQueueMillis < 1))
+            throw new IllegalArgumentException("service limit false parameters");
+        return new ServiceLimitConfig(permitsPerSecond, permitsPerSecond > 0 ? burst : 0, maxInFlight, policy, maxQueueMillis);
+    }
+
+    public boolean isEnabled() {
+        return permitsPerSecond > 0 || maxInFlight > 0;
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public long getMaxQueueMillis() {
+        return maxQueueMillis;
+    }
+}
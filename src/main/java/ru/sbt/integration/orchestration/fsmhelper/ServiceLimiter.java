@@ -0,0 +1,185 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ограничение обращений к сервису, общее для всех сценариев JVM: количество запросов в секунду и
+ * количество одновременно ожидаемых ответов. Работает без блокировок.
+ * <p>
+ * Скорость ограничивается маркерной корзиной в виде GCRA: хранится одно значение - теоретическое время
+ * следующего запроса, которое сдвигается CAS на интервал между запросами.
+ * <p>
+ * Ожидаемые ответы считаются по интервалам времени окончания таймаута запроса. Разрешение освобождается
+ * при получении ответа или таймаута, а если транзакция завершилась, не дождавшись ответа, - само,
+ * когда истекает таймаут запроса: интервал с истекшим временем вычитается из счетчика при следующем запросе.
+ */
+public class ServiceLimiter {
+
+    private static final int BUCKETS = 32;
+
+    private static final ConcurrentMap<ServiceKey, ServiceLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private final ServiceLimitConfig config;
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong nextPermitAt;
+    private final long bucketMillis;
+    private final AtomicLongArray bucketEpochs = new AtomicLongArray(BUCKETS);
+    private final AtomicIntegerArray bucketCounts = new AtomicIntegerArray(BUCKETS);
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * @param config     - настройки ограничения
+     * @param maxTimeout - максимальный таймаут запроса к сервису в мс. Разрешение на запрос с большим
+     *                   таймаутом освобождается только по истечении maxTimeout
+     */
+    public ServiceLimiter(ServiceLimitConfig config, long maxTimeout) {
+        this.config = config;
+        this.intervalNanos = config.getPermitsPerSecond() > 0
+                ? Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / config.getPermitsPerSecond())) : 0;
+        this.burstNanos = intervalNanos * config.getBurst();
+        this.nextPermitAt = new AtomicLong(System.nanoTime() - burstNanos);
+        this.bucketMillis = Math.max(1, (maxTimeout + BUCKETS - 2) / (BUCKETS - 1));
+    }
+
+    /**
+     * Метод возвращает ограничение сервиса, null - если у сервиса ограничения выключены
+     *
+     * @param service - сервис
+     * @return ServiceLimiter или null
+     */
+    public static ServiceLimiter forService(Service service) {
+        if (service == null || !service.limit().isEnabled())
+            return null;
+        ServiceKey key = ServiceKey.of(service);
+        ServiceLimiter limiter = LIMITERS.get(key);
+        if (limiter == null)
+            limiter = LIMITERS.computeIfAbsent(key, k -> new ServiceLimiter(service.limit(), service.timeout()));
+        return limiter;
+    }
+
+    public ServiceLimitConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return количество запросов, ответ на которые ожидается
+     */
+    public int getInFlight() {
+        expire(System.currentTimeMillis() / bucketMillis);
+        return inFlight.get();
+    }
+
+    /**
+     * Метод получает разрешение на отправку запроса
+     *
+     * @param now    - текущее время в мс
+     * @param expiry - время окончания таймаута запроса в мс, 0 - ответ не ожидается и не учитывается
+     * @return 0 - разрешение получено, иначе время в мс, через которое стоит повторить попытку
+     */
+    public long tryAcquire(long now, long expiry) {
+        long wait = acquireRate();
+        if (wait > 0)
+            return wait;
+        if (expiry > 0 && config.getMaxInFlight() > 0 && !acquireInFlight(now, expiry)) {
+            refundRate();
+            return bucketMillis;
+        }
+        return 0;
+    }
+
+    /**
+     * Освобождает разрешение запроса, ответ на который получен или не будет получен
+     *
+     * @param expiry - время окончания таймаута запроса, переданное в tryAcquire
+     */
+    public void release(long expiry) {
+        if (expiry <= 0 || config.getMaxInFlight() == 0)
+            return;
+        long epoch = expiry / bucketMillis;
+        int index = (int) (epoch % BUCKETS);
+        // bucket recycled: its permits were already expired by the sweep
+        if (bucketEpochs.get(index) != epoch)
+            return;
+        int count;
+        do {
+            count = bucketCounts.get(index);
+            if (count == 0)
+                return;
+        } while (!bucketCounts.compareAndSet(index, count, count - 1));
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Возвращает разрешение по скорости, полученное tryAcquire, например если запрос так и не был отправлен
+     */
+    public void refund(long expiry) {
+        release(expiry);
+        refundRate();
+    }
+
+    private void refundRate() {
+        if (intervalNanos > 0)
+            nextPermitAt.addAndGet(-intervalNanos);
+    }
+
+    private long acquireRate() {
+        if (intervalNanos == 0)
+            return 0;
+        long now = System.nanoTime();
+        while (true) {
+            long current = nextPermitAt.get();
+            long next = Math.max(current, now - burstNanos) + intervalNanos;
+            if (next > now)
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(next - now + 999_999));
+            if (nextPermitAt.compareAndSet(current, next))
+                return 0;
+        }
+    }
+
+    private boolean acquireInFlight(long now, long expiry) {
+        long current = now / bucketMillis;
+        expire(current);
+        int count;
+        do {
+            count = inFlight.get();
+            if (count >= config.getMaxInFlight())
+                return false;
+        } while (!inFlight.compareAndSet(count, count + 1));
+        long epoch = Math.min(Math.max(expiry / bucketMillis, current), current + BUCKETS - 1);
+        int index = (int) (epoch % BUCKETS);
+        while (true) {
+            long bucketEpoch = bucketEpochs.get(index);
+            if (bucketEpoch == epoch)
+                break;
+            if (bucketEpoch > epoch)
+                // reused by a thread with a later clock, the permit is released when that bucket expires
+                break;
+            sweep(index);
+            bucketEpochs.compareAndSet(index, bucketEpoch, epoch);
+        }
+        bucketCounts.incrementAndGet(index);
+        return true;
+    }
+
+    /**
+     * Вычитает из счетчика разрешения, таймаут которых истек, а ответ так и не был учтен
+     */
+    private void expire(long current) {
+        for (int i = 0; i < BUCKETS; i++)
+            if (bucketEpochs.get(i) < current && bucketCounts.get(i) > 0)
+                sweep(i);
+    }
+
+    private void sweep(int index) {
+        int expired = bucketCounts.getAndSet(index, 0);
+        if (expired > 0)
+            inFlight.addAndGet(-expired);
+    }
+}
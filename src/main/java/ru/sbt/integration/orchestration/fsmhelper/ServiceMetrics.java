@@ -0,0 +1,72 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Метрики обращений к одному сервису: время ответа в мс, количество таймаутов, повторных отправок и отклоненных запросов.
+ */
+public class ServiceMetrics {
+
+    private final String service;
+    private final String method;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public ServiceMetrics(String service, String method) {
+        this.service = service;
+        this.method = method;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * @return количество запросов, не отправленных или отложенных из-за ограничения сервиса
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    void recordLatency(long millis) {
+        latency.record(millis);
+    }
+
+    void recordTimeout() {
+        timeouts.increment();
+    }
+
+    void recordRetry() {
+        retries.increment();
+    }
+
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("service:\"%s\" method:\"%s\" count:%d mean:%.1fms p50:%dms p90:%dms p99:%dms max:%dms timeouts:%d retries:%d rejected:%d",
+                service, method, latency.getCount(), latency.getMean(),
+                latency.getValueAtPercentile(50), latency.getValueAtPercentile(90), latency.getValueAtPercentile(99),
+                latency.getMax(), getTimeouts(), getRetries(), getRejected());
+    }
+}
@@ -0,0 +1,13 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+/**
+ * Вызов сервиса отклонен, т.к. превышено ограничение сервиса, см. ServiceLimiter.
+ */
+public class ServiceOverloadedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ServiceOverloadedException(Service service) {
+        super("service limit exceeded for service " + service.service() + " method " + service.method());
+    }
+}
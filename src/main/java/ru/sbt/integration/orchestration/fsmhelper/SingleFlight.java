@@ -0,0 +1,167 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Реестр запросов ExtendedFSM.singleFlightCall, выполняющихся в JVM в данный момент.
+ * Ключ - сервис, метод и тело запроса, поэтому класс тела запроса должен корректно реализовывать equals и hashCode.
+ * Первая транзакция отправляет запрос (ведущая), остальные транзакции с таким же запросом ждут ее ответ.
+ */
+public class SingleFlight {
+
+    private static final ConcurrentMap<Key, Flight> FLIGHTS = new ConcurrentHashMap<>();
+    private static final LongAdder COALESCED = new LongAdder();
+
+    private SingleFlight() {
+    }
+
+    /**
+     * Метод возвращает выполняющийся запрос с таким же ключом или регистрирует новый.
+     * Ведущей становится транзакция, первой вызвавшая Flight.tryLead()
+     *
+     * @param service  - сервис
+     * @param body     - тело запроса
+     * @param deadline - время в мс, после которого запрос считается потерянным
+     * @return Flight
+     */
+    public static Flight join(Service service, Object body, long deadline) {
+        Key key = new Key(service, body);
+        Flight created = null;
+        while (true) {
+            Flight current = FLIGHTS.get(key);
+            if (current != null) {
+                if (!current.isExpired(System.currentTimeMillis()))
+                    return current;
+                FLIGHTS.remove(key, current);
+            }
+            if (created == null)
+                created = new Flight(key, deadline);
+            if (FLIGHTS.putIfAbsent(key, created) == null)
+                return created;
+        }
+    }
+
+    /**
+     * @return количество запросов, не отправленных благодаря ожиданию ответа ведущей транзакции
+     */
+    public static long getCoalesced() {
+        return COALESCED.sum();
+    }
+
+    /**
+     * @return количество выполняющихся запросов
+     */
+    public static int inFlight() {
+        return FLIGHTS.size();
+    }
+
+    public static final class Flight {
+        private final Key key;
+        private final long deadline;
+        private final AtomicBoolean leader = new AtomicBoolean();
+        private final AtomicInteger followers = new AtomicInteger();
+        private volatile boolean done;
+        private volatile boolean failed;
+        private volatile Object response;
+
+        private Flight(Key key, long deadline) {
+            this.key = key;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return true, если вызывающая транзакция стала ведущей и должна отправить запрос
+         */
+        public boolean tryLead() {
+            return leader.compareAndSet(false, true);
+        }
+
+        /**
+         * Регистрирует транзакцию, которая будет ждать ответ ведущей транзакции вместо отправки запроса
+         */
+        public void follow() {
+            followers.incrementAndGet();
+            COALESCED.increment();
+        }
+
+        /**
+         * Сохраняет ответ для ожидающих транзакций
+         */
+        public void complete(Object response) {
+            this.response = response;
+            this.done = true;
+            FLIGHTS.remove(key, this);
+        }
+
+        /**
+         * Фиксирует, что ответ не будет получен: ожидающие транзакции отправят запрос сами
+         */
+        public void fail() {
+            this.failed = true;
+            this.done = true;
+            FLIGHTS.remove(key, this);
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        public boolean isFailed() {
+            return failed;
+        }
+
+        public Object getResponse() {
+            return response;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * @return количество транзакций, ожидающих ответ
+         */
+        public int getFollowers() {
+            return followers.get();
+        }
+
+        public boolean isExpired(long now) {
+            return deadline < now;
+        }
+    }
+
+    private static final class Key {
+        private final String service;
+        private final String method;
+        private final Object body;
+        private final int hash;
+
+        private Key(Service service, Object body) {
+            this.service = service.service();
+            this.method = service.method();
+            this.body = body;
+            this.hash = Objects.hash(this.service, this.method, body);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return hash == key.hash && Objects.equals(service, key.service)
+                    && Objects.equals(method, key.method) && Objects.equals(body, key.body);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
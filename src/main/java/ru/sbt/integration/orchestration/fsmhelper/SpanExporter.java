@@ -0,0 +1,42 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+/**
+ * Получатель завершенных span трассировки сценариев.
+ * Span передается примитивами, без создания объектов на каждый вызов. Вызывается из потока,
+ * исполняющего шаг сценария, поэтому реализация не должна блокироваться.
+ * Реализации для локального использования - InMemorySpanExporter и FileSpanExporter.
+ */
+public interface SpanExporter {
+
+    /**
+     * Реализация, которая ничего не сохраняет. Пока она установлена, заголовки трассировки не передаются
+     */
+    SpanExporter NOOP = new SpanExporter() {
+        @Override
+        public void export(long traceIdHigh, long traceIdLow, long spanId, long parentSpanId, Kind kind,
+                           String name, String method, long startMillis, long durationMillis, boolean error) {
+        }
+    };
+
+    enum Kind {
+        /**
+         * Транзакция сценария, от входящего запроса до end()
+         */
+        SCENARIO,
+        /**
+         * Запрос сценария к сервису или подсценарию, от отправки до ответа или таймаута
+         */
+        CALL
+    }
+
+    /**
+     * @param parentSpanId   - родительский span, 0 - span корневой
+     * @param name           - название сценария для SCENARIO, Service.service() для CALL
+     * @param method         - Service.method() для CALL, null для SCENARIO
+     * @param startMillis    - время начала
+     * @param durationMillis - длительность
+     * @param error          - true, если ответ не получен за таймаут или получена ошибка
+     */
+    void export(long traceIdHigh, long traceIdLow, long spanId, long parentSpanId, Kind kind,
+                String name, String method, long startMillis, long durationMillis, boolean error);
+}
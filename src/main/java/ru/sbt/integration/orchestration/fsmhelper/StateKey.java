@@ -0,0 +1,101 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Типизированный ключ локального контекста сценария.
+ * Чтение проверяет класс значения, повторного поиска и непроверенного приведения нет. Каждому ключу при создании
+ * назначается порядковый номер ячейки, по которому хранится отложенная запись (ExtendedFSM.deferStateWrites).
+ * Ключи объявляются константами класса сценария:
+ * <pre>
+ * private static final StateKey&lt;Client&gt; CLIENT = StateKey.of("client", Client.class);
+ * </pre>
+ * В stateData значение хранится под именем ключа, поэтому доступно и через строковые методы ExtendedFSM.
+ * Ключ определяется именем и классом значения: сценарии могут объявить ключи с одинаковым именем и разными классами,
+ * каждый такой ключ получает свою ячейку.
+ */
+public final class StateKey<T> {
+
+    private static final AtomicInteger SLOTS = new AtomicInteger();
+    private static final StateKey<?>[] NONE = new StateKey<?>[0];
+    private static final ConcurrentMap<String, StateKey<?>[]> KEYS = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final Class<T> type;
+    private final int slot;
+
+    private StateKey(String name, Class<T> type, int slot) {
+        this.name = name;
+        this.type = type;
+        this.slot = slot;
+    }
+
+    /**
+     * Метод возвращает ключ с заданным именем и классом значения. Повторный вызов с теми же параметрами возвращает тот же ключ.
+     *
+     * @param name - имя ключа в stateData
+     * @param type - класс значения
+     * @return StateKey
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> StateKey<T> of(String name, Class<T> type) {
+        if (name == null || type == null)
+            throw new IllegalArgumentException("state key false parameters");
+        StateKey<?> key = find(KEYS.get(name), type);
+        if (key == null) {
+            synchronized (KEYS) {
+                StateKey<?>[] declared = KEYS.getOrDefault(name, NONE);
+                key = find(declared, type);
+                if (key == null) {
+                    key = new StateKey<>(name, type, SLOTS.getAndIncrement());
+                    StateKey<?>[] keys = Arrays.copyOf(declared, declared.length + 1);
+                    keys[declared.length] = key;
+                    KEYS.put(name, keys);
+                }
+            }
+        }
+        return (StateKey<T>) key;
+    }
+
+    /**
+     * @return ключи с заданным именем, пустой массив - если они не объявлены
+     */
+    static StateKey<?>[] forName(String name) {
+        return KEYS.getOrDefault(name, NONE);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    int slot() {
+        return slot;
+    }
+
+    /**
+     * @return значение, если оно подходит по классу, иначе null
+     */
+    T cast(Object value) {
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+
+    private static StateKey<?> find(StateKey<?>[] keys, Class<?> type) {
+        if (keys != null)
+            for (StateKey<?> key : keys)
+                if (key.type == type)
+                    return key;
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return name + ":" + type.getSimpleName();
+    }
+}
@@ -0,0 +1,90 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * Значения типизированных ключей StateKey, записанные на текущем шаге сценария, который откладывает запись
+ * состояния (ExtendedFSM.deferStateWrites). Хранятся только записи, чтение ключа без записи на этом шаге
+ * обращается в stateData. Записи переносятся в stateData методом flush один раз за шаг.
+ * Массивы создаются при первой записи и растут до номера ячейки записанного ключа.
+ */
+final class StateSlots {
+
+    private static final Object ABSENT = new Object();
+
+    private final Map<String, Object> stateData;
+    private Object[] values;
+    private StateKey<?>[] keys;
+    private final BitSet dirty = new BitSet();
+
+    StateSlots(Map<String, Object> stateData) {
+        this.stateData = stateData;
+    }
+
+    boolean belongsTo(Map<String, Object> stateData) {
+        return this.stateData == stateData;
+    }
+
+    /**
+     * @return значение без проверки класса, null - если значения нет
+     */
+    Object raw(StateKey<?> key) {
+        if (!dirty.isEmpty()) {
+            // a pending write of any key with this name is the current value of the entry
+            for (StateKey<?> sibling : StateKey.forName(key.getName())) {
+                if (dirty.get(sibling.slot())) {
+                    Object value = values[sibling.slot()];
+                    return value == ABSENT ? null : value;
+                }
+            }
+        }
+        return stateData.get(key.getName());
+    }
+
+    <T> void put(StateKey<T> key, T value) {
+        int slot = key.slot();
+        ensureCapacity(slot);
+        invalidate(key.getName());
+        values[slot] = value != null ? value : ABSENT;
+        keys[slot] = key;
+        dirty.set(slot);
+    }
+
+    /**
+     * Сбрасывает записи ключей с именем name, например, после записи в stateData строковым методом
+     */
+    void invalidate(String name) {
+        if (dirty.isEmpty())
+            return;
+        for (StateKey<?> key : StateKey.forName(name)) {
+            if (dirty.get(key.slot())) {
+                values[key.slot()] = null;
+                dirty.clear(key.slot());
+            }
+        }
+    }
+
+    void flush() {
+        for (int slot = dirty.nextSetBit(0); slot >= 0; slot = dirty.nextSetBit(slot + 1)) {
+            if (values[slot] == ABSENT)
+                stateData.remove(keys[slot].getName());
+            else
+                stateData.put(keys[slot].getName(), values[slot]);
+            values[slot] = null;
+        }
+        dirty.clear();
+    }
+
+    private void ensureCapacity(int slot) {
+        if (values == null) {
+            values = new Object[slot + 1];
+            keys = new StateKey<?>[slot + 1];
+        } else if (slot >= values.length) {
+            int size = Math.max(slot + 1, values.length * 2);
+            values = Arrays.copyOf(values, size);
+            keys = Arrays.copyOf(keys, size);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+/**
+ * Получатель событий шагов сценария: начало и конец шага, отправка запроса, ответ и повтор.
+ * Вызывается из потока, исполняющего шаг сценария, поэтому реализация не должна блокироваться.
+ * Реализация на JDK Flight Recorder - модуль fsm-helper-jfr, по умолчанию события не записываются (NOOP).
+ * Методы вызываются, только если isEnabled возвращает true.
+ */
+public interface StepRecorder {
+
+    /**
+     * Реализация, которая ничего не записывает
+     */
+    StepRecorder NOOP = new StepRecorder() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public Object stepStarted(String script, String transactionId, String event, long waitMillis) {
+            return null;
+        }
+
+        @Override
+        public void stepFinished(Object step, String state) {
+        }
+
+        @Override
+        public void requestSent(String script, String transactionId, String state, Service service, long timeout) {
+        }
+
+        @Override
+        public void responseReceived(String script, String transactionId, String state, Service service, long latency, boolean timeout) {
+        }
+
+        @Override
+        public void retry(String script, String transactionId, String state, Service service, int attempt, long delay) {
+        }
+    };
+
+    boolean isEnabled();
+
+    /**
+     * @param event      - класс входящего события, null - шаг начат без события
+     * @param waitMillis - время от окончания предыдущего шага транзакции, -1 - неизвестно
+     * @return объект шага, который передается в stepFinished
+     */
+    Object stepStarted(String script, String transactionId, String event, long waitMillis);
+
+    /**
+     * @param step  - объект, который вернул stepStarted
+     * @param state - состояние сценария (MDC ExtendedFSM.STATE) на момент окончания шага
+     */
+    void stepFinished(Object step, String state);
+
+    /**
+     * @param timeout - таймаут запроса в мс, 0 - ответ не ожидается
+     */
+    void requestSent(String script, String transactionId, String state, Service service, long timeout);
+
+    /**
+     * @param latency - время от отправки запроса до получения ответа в мс
+     * @param timeout - true, если ответ не получен за таймаут
+     */
+    void responseReceived(String script, String transactionId, String state, Service service, long latency, boolean timeout);
+
+    /**
+     * @param attempt - номер повтора
+     * @param delay   - задержка перед повтором в мс
+     */
+    void retry(String script, String transactionId, String state, Service service, int attempt, long delay);
+}
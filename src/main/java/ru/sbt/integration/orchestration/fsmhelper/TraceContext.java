@@ -0,0 +1,160 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Контекст трассировки в формате заголовка W3C traceparent: 00-&lt;trace-id&gt;-&lt;parent-id&gt;-&lt;flags&gt;.
+ * Идентификаторы хранятся в long, строка заголовка собирается без промежуточных объектов.
+ */
+public final class TraceContext {
+
+    /**
+     * Флаг traceparent: трасса записывается
+     */
+    public static final int SAMPLED = 1;
+
+    private static final int LENGTH = 55;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long traceIdHigh;
+    private final long traceIdLow;
+    private final long spanId;
+    private final int flags;
+
+    public TraceContext(long traceIdHigh, long traceIdLow, long spanId, int flags) {
+        this.traceIdHigh = traceIdHigh;
+        this.traceIdLow = traceIdLow;
+        this.spanId = spanId;
+        this.flags = flags;
+    }
+
+    public long getTraceIdHigh() {
+        return traceIdHigh;
+    }
+
+    public long getTraceIdLow() {
+        return traceIdLow;
+    }
+
+    public long getSpanId() {
+        return spanId;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Метод разбирает значение заголовка traceparent
+     *
+     * @param header - значение заголовка
+     * @return TraceContext или null, если заголовка нет или он некорректен
+     */
+    public static TraceContext parse(Object header) {
+        if (!(header instanceof CharSequence))
+            return null;
+        CharSequence value = (CharSequence) header;
+        if (value.length() < LENGTH || value.charAt(2) != '-' || value.charAt(35) != '-' || value.charAt(52) != '-'
+                || (value.length() > LENGTH && value.charAt(LENGTH) != '-'))
+            return null;
+        long version = parseHex(value, 0, 2);
+        long high = parseHex(value, 3, 19);
+        long low = parseHex(value, 19, 35);
+        long span = parseHex(value, 36, 52);
+        long flags = parseHex(value, 53, 55);
+        if (version < 0 || version == 0xff || flags < 0 || (high == 0 && low == 0) || span == 0
+                || !isHex(value, 3, 35) || !isHex(value, 36, 52))
+            return null;
+        return new TraceContext(high, low, span, (int) flags);
+    }
+
+    /**
+     * @return значение заголовка traceparent
+     */
+    public static String format(long traceIdHigh, long traceIdLow, long spanId, int flags) {
+        char[] chars = new char[LENGTH];
+        chars[0] = '0';
+        chars[1] = '0';
+        chars[2] = '-';
+        appendHex(chars, 3, traceIdHigh);
+        appendHex(chars, 19, traceIdLow);
+        chars[35] = '-';
+        appendHex(chars, 36, spanId);
+        chars[52] = '-';
+        chars[53] = HEX[(flags >> 4) & 0xf];
+        chars[54] = HEX[flags & 0xf];
+        return new String(chars);
+    }
+
+    /**
+     * @return идентификатор в шестнадцатеричном виде, 16 символов
+     */
+    public static String toHex(long id) {
+        char[] chars = new char[16];
+        appendHex(chars, 0, id);
+        return new String(chars);
+    }
+
+    /**
+     * Записывает идентификатор в шестнадцатеричном виде, 16 символов
+     */
+    public static void appendHex(StringBuilder sb, long id) {
+        for (int shift = 60; shift >= 0; shift -= 4)
+            sb.append(HEX[(int) (id >>> shift) & 0xf]);
+    }
+
+    /**
+     * @return новый случайный ненулевой идентификатор
+     */
+    public static long newId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    /**
+     * Идентификатор span исходящего запроса, вычисляемый из span сценария, номера запроса и индекса в пачке.
+     * Не хранится в состоянии транзакции: при получении ответа вычисляется заново
+     *
+     * @param spanId   - span сценария
+     * @param sequence - номер запроса или пачки запросов сценария
+     * @param slot     - 0 для одиночного запроса, индекс + 1 для запроса пачки
+     * @return ненулевой идентификатор
+     */
+    public static long childSpanId(long spanId, int sequence, int slot) {
+        long z = spanId + ((long) sequence << 32 | (slot & 0xffffffffL)) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return z != 0 ? z : 1;
+    }
+
+    private static void appendHex(char[] chars, int offset, long id) {
+        for (int i = 15; i >= 0; i--) {
+            chars[offset + i] = HEX[(int) id & 0xf];
+            id >>>= 4;
+        }
+    }
+
+    private static long parseHex(CharSequence value, int from, int to) {
+        long result = 0;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(value.charAt(i), 16);
+            if (digit < 0 || Character.isUpperCase(value.charAt(i)))
+                return -1;
+            result = result << 4 | digit;
+        }
+        return result;
+    }
+
+    private static boolean isHex(CharSequence value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f'))
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,60 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Переход сценария: метод-обработчик события on в состоянии from.
+ * По аннотациям при компиляции TransitionProcessor создает таблицу переходов &lt;Сценарий&gt;_Transitions,
+ * которую использует ExtendedFSM.dispatch:
+ * <pre>
+ * &#64;Transition(from = ExtendedFSM.START_STATE, on = EventStartTransaction.class, to = "CHECK")
+ * protected Action start(EventStartTransaction event) {
+ *     return call(ServiceImpl.CHECK, getBody(event));
+ * }
+ * </pre>
+ * Метод не должен быть private или static, возвращает Action и принимает событие (или его супертип) либо ничего.
+ * Обработчик события класса on применяется и к его наследникам, если для них в состоянии нет своего обработчика.
+ * События, поднятые сценарием (raiseEvent), различаются названием event:
+ * <pre>
+ * &#64;Transition(from = "CHECK", on = Event.class, event = ExtendedFSM.CACHED_RESPONSE_EVENT, to = "DONE")
+ * </pre>
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+@Repeatable(Transition.List.class)
+public @interface Transition {
+
+    /**
+     * @return состояние, в котором обрабатывается событие
+     */
+    String from();
+
+    /**
+     * @return класс события
+     */
+    Class<? extends Event> on();
+
+    /**
+     * @return состояние после обработки события, "" - состояние не меняется.
+     * Обработчик может перейти в другое состояние сам, см. ExtendedFSM.transitionTo
+     */
+    String to() default "";
+
+    /**
+     * @return название события, переданное в ExtendedFSM.raiseEvent, "" - обработчик не зависит от названия.
+     * Если для названия события в состоянии нет обработчика, используется обработчик без названия, см. ExtendedFSM.eventName
+     */
+    String event() default "";
+
+    @Retention(RetentionPolicy.CLASS)
+    @Target(ElementType.METHOD)
+    @interface List {
+        Transition[] value();
+    }
+}
@@ -0,0 +1,314 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Процессор аннотаций, создающий при компиляции таблицу переходов &lt;Сценарий&gt;_Transitions для каждого класса
+ * сценария с методами, отмеченными Transition. Учитываются и переходы суперклассов, переход с теми же from, on
+ * и event в подклассе заменяет переход суперкласса.
+ * Подключается автоматически через META-INF/services, если fsm-helper есть в classpath компиляции сценария.
+ */
+public class TransitionProcessor extends AbstractProcessor {
+
+    private static final String EXTENDED_FSM = "ru.sbt.integration.orchestration.fsmhelper.ExtendedFSM";
+    private static final String EVENT = "ru.sbt.integration.orchestration.fsmcore.event.Event";
+    private static final String ACTION = "ru.sbt.integration.orchestration.fsmcore.messages.Action";
+
+    private final Set<String> generated = new HashSet<>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return new HashSet<>(Arrays.asList(Transition.class.getCanonicalName(), Transition.List.class.getCanonicalName()));
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<TypeElement> scenarios = new LinkedHashSet<>();
+        for (TypeElement annotation : annotations)
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation))
+                if (element.getKind() == ElementKind.METHOD)
+                    scenarios.add((TypeElement) element.getEnclosingElement());
+        for (TypeElement scenario : scenarios)
+            if (generated.add(scenario.getQualifiedName().toString()))
+                new Generator(scenario).generate();
+        return true;
+    }
+
+    /**
+     * Переход, объявленный аннотацией Transition
+     */
+    private static final class Rule {
+        final ExecutableElement method;
+        final String from;
+        final TypeMirror on;
+        final String to;
+        final String event;
+
+        Rule(ExecutableElement method, String from, TypeMirror on, String to, String event) {
+            this.method = method;
+            this.from = from;
+            this.on = on;
+            this.to = to;
+            this.event = event;
+        }
+    }
+
+    /**
+     * Столбец таблицы: класс события и его название, "" - без названия
+     */
+    private static final class Column {
+        final TypeMirror on;
+        final String event;
+
+        Column(TypeMirror on, String event) {
+            this.on = on;
+            this.event = event;
+        }
+    }
+
+    private final class Generator {
+        private final TypeElement scenario;
+        private final Types types = processingEnv.getTypeUtils();
+        private final Elements elements = processingEnv.getElementUtils();
+        private final Messager messager = processingEnv.getMessager();
+        private final String packageName;
+        private boolean failed;
+
+        Generator(TypeElement scenario) {
+            this.scenario = scenario;
+            this.packageName = elements.getPackageOf(scenario).getQualifiedName().toString();
+        }
+
+        void generate() {
+            TypeElement extendedFsm = elements.getTypeElement(EXTENDED_FSM);
+            TypeElement event = elements.getTypeElement(EVENT);
+            TypeElement action = elements.getTypeElement(ACTION);
+            if (!types.isSubtype(types.erasure(scenario.asType()), types.erasure(extendedFsm.asType()))) {
+                error(scenario, "Transition methods must be declared in an ExtendedFSM subclass");
+                return;
+            }
+            if (!isAccessible(scenario)) {
+                error(scenario, "scenario class with transitions must not be private");
+                return;
+            }
+            // subclass rules come first and hide the rules of superclasses with the same state and event
+            Map<String, Rule> rules = new LinkedHashMap<>();
+            for (TypeElement type = scenario; type != null && !type.equals(extendedFsm); type = superclass(type))
+                for (Element member : type.getEnclosedElements())
+                    if (member.getKind() == ElementKind.METHOD)
+                        collect((ExecutableElement) member, type, event, action, rules);
+            if (failed || rules.isEmpty())
+                return;
+            write(new ArrayList<>(rules.values()));
+        }
+
+        private void collect(ExecutableElement method, TypeElement owner, TypeElement event, TypeElement action,
+                             Map<String, Rule> rules) {
+            Transition[] transitions = method.getAnnotationsByType(Transition.class);
+            if (transitions.length == 0)
+                return;
+            if (method.getModifiers().contains(Modifier.PRIVATE) || method.getModifiers().contains(Modifier.STATIC)) {
+                error(method, "Transition method must not be private or static");
+                return;
+            }
+            if (!owner.equals(scenario) && !method.getModifiers().contains(Modifier.PUBLIC)
+                    && !elements.getPackageOf(owner).equals(elements.getPackageOf(scenario))) {
+                error(method, "inherited Transition method must be public or declared in the package of " + scenario.getSimpleName());
+                return;
+            }
+            if (!types.isAssignable(method.getReturnType(), action.asType())) {
+                error(method, "Transition method must return " + ACTION);
+                return;
+            }
+            if (method.getParameters().size() > 1) {
+                error(method, "Transition method must accept the event or nothing");
+                return;
+            }
+            for (Transition transition : transitions) {
+                TypeMirror on = eventType(transition);
+                if (transition.from().isEmpty() || on == null || !types.isSubtype(on, event.asType())) {
+                    error(method, "Transition false parameters");
+                    continue;
+                }
+                if (method.getParameters().size() == 1
+                        && !types.isAssignable(on, types.erasure(method.getParameters().get(0).asType()))) {
+                    error(method, "Transition method parameter is not assignable from " + on);
+                    continue;
+                }
+                String key = transition.from() + '|' + on + '|' + transition.event();
+                if (rules.containsKey(key)) {
+                    if (owner.equals(rules.get(key).method.getEnclosingElement()))
+                        error(method, "duplicate Transition from " + transition.from() + " on " + on
+                                + (transition.event().isEmpty() ? "" : " event " + transition.event()));
+                    continue;
+                }
+                rules.put(key, new Rule(method, transition.from(), on, transition.to(), transition.event()));
+            }
+        }
+
+        private void write(List<Rule> rules) {
+            List<String> states = new ArrayList<>();
+            states.add(ExtendedFSM.START_STATE);
+            List<Column> events = new ArrayList<>();
+            List<ExecutableElement> methods = new ArrayList<>();
+            for (Rule rule : rules) {
+                addState(states, rule.from);
+                if (!rule.to.isEmpty())
+                    addState(states, rule.to);
+                if (indexOf(events, rule.on, rule.event) < 0)
+                    events.add(new Column(rule.on, rule.event));
+                if (!methods.contains(rule.method))
+                    methods.add(rule.method);
+            }
+            int[] handlers = new int[states.size() * events.size()];
+            int[] targets = new int[handlers.length];
+            Arrays.fill(handlers, -1);
+            Arrays.fill(targets, -1);
+            for (int state = 0; state < states.size(); state++) {
+                for (int type = 0; type < events.size(); type++) {
+                    // the nearest declared supertype with the same event name handles events that have no handler of their own
+                    Column column = events.get(type);
+                    Rule best = null;
+                    for (Rule rule : rules)
+                        if (rule.from.equals(states.get(state)) && rule.event.equals(column.event)
+                                && types.isSubtype(column.on, rule.on)
+                                && (best == null || types.isSubtype(rule.on, best.on)))
+                            best = rule;
+                    if (best != null) {
+                        handlers[state * events.size() + type] = methods.indexOf(best.method);
+                        targets[state * events.size() + type] = best.to.isEmpty() ? -1 : states.indexOf(best.to);
+                    }
+                }
+            }
+            String fsmType = types.erasure(scenario.asType()).toString();
+            String tableName = tableName();
+            StringBuilder source = new StringBuilder(2048);
+            if (!packageName.isEmpty())
+                source.append("package ").append(packageName).append(";\n\n");
+            source.append("/**\n * Таблица переходов ").append(scenario.getSimpleName())
+                    .append(". Создана TransitionProcessor, не редактировать\n */\n");
+            source.append("public final class ").append(tableName)
+                    .append(" extends ru.sbt.integration.orchestration.fsmhelper.TransitionTable<").append(fsmType).append("> {\n\n");
+            source.append("    public ").append(tableName).append("() {\n");
+            source.append("        super(new String[]{");
+            for (int i = 0; i < states.size(); i++)
+                source.append(i > 0 ? ", " : "").append(elements.getConstantExpression(states.get(i)));
+            source.append("},\n                new Class<?>[]{");
+            for (int i = 0; i < events.size(); i++)
+                source.append(i > 0 ? ", " : "").append(types.erasure(events.get(i).on)).append(".class");
+            source.append("},\n                new String[]{");
+            for (int i = 0; i < events.size(); i++)
+                source.append(i > 0 ? ", " : "").append(events.get(i).event.isEmpty()
+                        ? "null" : elements.getConstantExpression(events.get(i).event));
+            source.append("},\n                new int[]{").append(join(handlers)).append("},\n");
+            source.append("                new int[]{").append(join(targets)).append("});\n    }\n\n");
+            source.append("    @Override\n");
+            source.append("    protected ").append(ACTION).append(" invoke(").append(fsmType).append(" fsm, int handler, ")
+                    .append(EVENT).append(" event) {\n");
+            source.append("        switch (handler) {\n");
+            for (int i = 0; i < methods.size(); i++) {
+                ExecutableElement method = methods.get(i);
+                source.append("            case ").append(i).append(":\n");
+                source.append("                return fsm.").append(method.getSimpleName()).append('(');
+                if (!method.getParameters().isEmpty())
+                    source.append('(').append(types.erasure(method.getParameters().get(0).asType())).append(") event");
+                source.append(");\n");
+            }
+            source.append("            default:\n");
+            source.append("                throw new IllegalArgumentException(\"unknown transition handler \" + handler);\n");
+            source.append("        }\n    }\n}\n");
+            String name = packageName.isEmpty() ? tableName : packageName + '.' + tableName;
+            try (Writer writer = processingEnv.getFiler().createSourceFile(name, scenario).openWriter()) {
+                writer.write(source.toString());
+            } catch (IOException e) {
+                error(scenario, "transition table cannot be written: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Имя класса таблицы, см. TransitionTable.tableName
+         */
+        private String tableName() {
+            StringBuilder name = new StringBuilder(scenario.getSimpleName());
+            for (Element outer = scenario.getEnclosingElement(); !(outer instanceof PackageElement); outer = outer.getEnclosingElement())
+                name.insert(0, '_').insert(0, outer.getSimpleName());
+            return name.append(TransitionTable.SUFFIX).toString();
+        }
+
+        private boolean isAccessible(TypeElement type) {
+            for (Element element = type; !(element instanceof PackageElement); element = element.getEnclosingElement())
+                if (element.getModifiers().contains(Modifier.PRIVATE))
+                    return false;
+            return true;
+        }
+
+        private TypeElement superclass(TypeElement type) {
+            TypeMirror superclass = type.getSuperclass();
+            return superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+        }
+
+        private TypeMirror eventType(Transition transition) {
+            try {
+                transition.on();
+                return null;
+            } catch (MirroredTypeException e) {
+                return e.getTypeMirror();
+            }
+        }
+
+        private int indexOf(List<Column> events, TypeMirror type, String event) {
+            for (int i = 0; i < events.size(); i++)
+                if (types.isSameType(events.get(i).on, type) && events.get(i).event.equals(event))
+                    return i;
+            return -1;
+        }
+
+        private void addState(List<String> states, String state) {
+            if (!states.contains(state))
+                states.add(state);
+        }
+
+        private String join(int[] values) {
+            StringBuilder sb = new StringBuilder(values.length * 3);
+            for (int i = 0; i < values.length; i++)
+                sb.append(i > 0 ? ", " : "").append(values[i]);
+            return sb.toString();
+        }
+
+        private void error(Element element, String message) {
+            failed = true;
+            messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import ru.sbt.integration.orchestration.fsmcore.event.Event;
+import ru.sbt.integration.orchestration.fsmcore.messages.Action;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Таблица переходов сценария, создаваемая TransitionProcessor по аннотациям Transition.
+ * Обработчики хранятся в плотном массиве состояние × тип события, поэтому поиск обработчика - одно обращение к массиву.
+ * Тип события вычисляется по классу события один раз и кешируется, таблица класса сценария загружается
+ * по имени один раз, без сканирования classpath.
+ * Переходы с названием события (Transition.event) занимают отдельные столбцы, если для названия события
+ * обработчика в состоянии нет, используется обработчик без названия.
+ */
+public abstract class TransitionTable<F extends ExtendedFSM> {
+
+    /**
+     * Суффикс имени класса таблицы переходов, создаваемого для класса сценария
+     */
+    public static final String SUFFIX = "_Transitions";
+
+    private static final ClassValue<TransitionTable<?>> TABLES = new ClassValue<TransitionTable<?>>() {
+        @Override
+        protected TransitionTable<?> computeValue(Class<?> type) {
+            for (Class<?> current = type; current != null && current != ExtendedFSM.class; current = current.getSuperclass()) {
+                Class<?> table;
+                try {
+                    table = Class.forName(tableName(current), true, current.getClassLoader());
+                } catch (ClassNotFoundException e) {
+                    continue;
+                }
+                try {
+                    return (TransitionTable<?>) table.newInstance();
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new IllegalStateException("transition table " + table.getName() + " cannot be created", e);
+                }
+            }
+            throw new IllegalStateException("transition table for " + type.getName()
+                    + " is not generated, check that annotation processing is enabled");
+        }
+    };
+
+    private final String[] states;
+    private final Map<String, Integer> stateIndex;
+    private final Class<?>[] events;
+    private final String[] names;
+    private final Map<String, int[]> namedTypes;
+    private final int[] handlers;
+    private final int[] targets;
+    private final ClassValue<Integer> eventTypes = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return eventType(type);
+        }
+    };
+
+    /**
+     * @param states   - состояния, states[0] - ExtendedFSM.START_STATE
+     * @param events   - классы событий
+     * @param handlers - номер обработчика для ячейки state * events.length + eventType, -1 - перехода нет
+     * @param targets  - состояние после обработки для той же ячейки, -1 - состояние не меняется
+     */
+    protected TransitionTable(String[] states, Class<?>[] events, int[] handlers, int[] targets) {
+        this(states, events, new String[events.length], handlers, targets);
+    }
+
+    /**
+     * @param states   - состояния, states[0] - ExtendedFSM.START_STATE
+     * @param events   - классы событий
+     * @param names    - названия событий тех же столбцов, null - столбец для событий без названия
+     * @param handlers - номер обработчика для ячейки state * events.length + eventType, -1 - перехода нет
+     * @param targets  - состояние после обработки для той же ячейки, -1 - состояние не меняется
+     */
+    protected TransitionTable(String[] states, Class<?>[] events, String[] names, int[] handlers, int[] targets) {
+        if (handlers.length != states.length * events.length || targets.length != handlers.length
+                || names.length != events.length)
+            throw new IllegalArgumentException("transition table false parameters");
+        this.states = states;
+        this.events = events;
+        this.names = names;
+        this.handlers = handlers;
+        this.targets = targets;
+        this.stateIndex = new HashMap<>(states.length * 2);
+        for (int i = 0; i < states.length; i++)
+            stateIndex.put(states[i], i);
+        this.namedTypes = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == null)
+                continue;
+            int[] types = namedTypes.getOrDefault(names[i], new int[0]);
+            types = Arrays.copyOf(types, types.length + 1);
+            types[types.length - 1] = i;
+            namedTypes.put(names[i], types);
+        }
+    }
+
+    /**
+     * Метод возвращает таблицу переходов класса сценария или ближайшего суперкласса, для которого она создана
+     *
+     * @param type - класс сценария
+     * @return TransitionTable
+     * @throws IllegalStateException - если таблица не создана
+     */
+    @SuppressWarnings("unchecked")
+    public static TransitionTable<ExtendedFSM> forClass(Class<? extends ExtendedFSM> type) {
+        return (TransitionTable<ExtendedFSM>) TABLES.get(type);
+    }
+
+    /**
+     * @return имя класса таблицы переходов для класса сценария
+     */
+    public static String tableName(Class<?> type) {
+        String name = type.getName();
+        int dot = name.lastIndexOf('.');
+        return name.substring(0, dot + 1) + name.substring(dot + 1).replace('$', '_') + SUFFIX;
+    }
+
+    public int getStateCount() {
+        return states.length;
+    }
+
+    public String getState(int index) {
+        return states[index];
+    }
+
+    /**
+     * @return номер состояния, -1 - если в таблице нет такого состояния
+     */
+    public int stateIndex(String state) {
+        Integer index = state != null ? stateIndex.get(state) : null;
+        return index != null ? index : -1;
+    }
+
+    /**
+     * @return номер ячейки перехода для события в состоянии, -1 - если событие в этом состоянии не обрабатывается
+     */
+    int cell(int state, Event event) {
+        return cell(state, event, null);
+    }
+
+    /**
+     * @param name - название события, null - событие без названия
+     * @return номер ячейки перехода для события в состоянии, -1 - если событие в этом состоянии не обрабатывается
+     */
+    int cell(int state, Event event, String name) {
+        if (state < 0 || event == null)
+            return -1;
+        if (name != null) {
+            int type = namedType(name, event.getClass());
+            if (type >= 0 && handlers[state * events.length + type] >= 0)
+                return state * events.length + type;
+        }
+        int type = eventTypes.get(event.getClass());
+        if (type < 0)
+            return -1;
+        int cell = state * events.length + type;
+        return handlers[cell] >= 0 ? cell : -1;
+    }
+
+    int target(int cell) {
+        return targets[cell];
+    }
+
+    Action handle(F fsm, int cell, Event event) {
+        return invoke(fsm, handlers[cell], event);
+    }
+
+    /**
+     * Вызов обработчика с номером handler. Реализуется созданным классом прямым вызовом метода сценария
+     */
+    protected abstract Action invoke(F fsm, int handler, Event event);
+
+    /**
+     * Наиболее точный из классов событий таблицы, которому соответствует класс события.
+     * Таблица уже содержит обработчики супертипов в ячейках наследников, поэтому достаточно одного типа
+     */
+    private int eventType(Class<?> type) {
+        int found = -1;
+        for (int i = 0; i < events.length; i++)
+            if (names[i] == null && events[i].isAssignableFrom(type) && (found < 0 || events[found].isAssignableFrom(events[i])))
+                found = i;
+        return found;
+    }
+
+    /**
+     * Наиболее точный из столбцов события с названием name. Таких столбцов немного, поэтому без кеша
+     */
+    private int namedType(String name, Class<?> type) {
+        int[] candidates = namedTypes.get(name);
+        if (candidates == null)
+            return -1;
+        int found = -1;
+        for (int i : candidates)
+            if (events[i].isAssignableFrom(type) && (found < 0 || events[found].isAssignableFrom(events[i])))
+                found = i;
+        return found;
+    }
+}
@@ -0,0 +1,193 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FSMHolderCodecTest {
+
+    private static final String LARGE = repeat("payload ", 1_000);
+
+    @Test
+    public void holderRoundTrip() {
+        Map<String, Object> headers = new HashMap<>();
+        headers.put("id", "42");
+        headers.put("attempt", 3);
+        headers.put("large", LARGE);
+        FSMHolder holder = new FSMHolder(new HashMap<>())
+                .withStart(LARGE)
+                .withBody(new ArrayList<>(Arrays.asList("a", 1L)))
+                .withHeaders(headers)
+                .withService(CodecService.SECOND)
+                .withSentAt(1_000, 2)
+                .withCacheKey("key", 500)
+                .withDeadline(5_000)
+                .withTrace(1, 2, 3, 4, 1, 100);
+
+        byte[] encoded = FSMHolderCodec.encode(holder);
+        FSMHolder decoded = FSMHolderCodec.decode(encoded, new HashMap<>());
+
+        assertTrue(encoded.length < LARGE.length());
+        assertEquals(FSMHolder.class, decoded.getClass());
+        assertEquals(LARGE, decoded.getStart());
+        assertEquals(Arrays.asList("a", 1L), decoded.getBody());
+        assertEquals(headers, decoded.getHeaders());
+        assertSame(CodecService.SECOND, decoded.getService());
+        assertEquals(1_000, decoded.getSentAt());
+        assertEquals(2, decoded.getAwaitingResponses());
+        assertEquals("key", decoded.getCacheKey());
+        assertEquals(500, decoded.getCacheTtl());
+        assertEquals(5_000, decoded.getDeadline());
+        assertEquals(3, decoded.getSpanId());
+        assertEquals(4, decoded.getParentSpanId());
+    }
+
+    @Test
+    public void parallelBatchRoundTrip() {
+        List<Service> services = Arrays.<Service>asList(CodecService.FIRST, CodecService.SECOND, CodecService.FIRST);
+        List<Map<String, Object>> headers = new ArrayList<>();
+        for (int i = 0; i < services.size(); i++) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("index", i);
+            headers.add(map);
+        }
+        ParallelBatch batch = new ParallelBatch(services, Arrays.<Object>asList("one", LARGE, "three"), headers,
+                false, 2, 0, null);
+        batch.sent(0, 1_000, 100);
+        batch.sent(1, 1_010, 100);
+        batch.received(0, LARGE);
+
+        ParallelBatch decoded = FSMHolderCodec.decode(
+                FSMHolderCodec.encode(new FSMHolder(new HashMap<>()).withBatch(batch)), new HashMap<>()).getBatch();
+
+        assertEquals(3, decoded.size());
+        assertEquals(2, decoded.getMaxInFlight());
+        assertEquals(1, decoded.getReceived());
+        assertEquals(1, decoded.getInFlight());
+        assertTrue(decoded.isReceived(0));
+        assertEquals(LARGE, decoded.getResult(0));
+        assertTrue(decoded.isInFlight(1));
+        assertEquals(1_010, decoded.getSentAt(1));
+        assertFalse(decoded.isInFlight(2));
+        assertSame(CodecService.SECOND, decoded.getService(1));
+        assertEquals("three", decoded.getBody(2));
+        assertEquals(headers.get(2), decoded.getHeaders(2));
+        assertNull(decoded.getHeaders(0));
+        assertEquals(2, decoded.nextToSend());
+    }
+
+    @Test
+    public void retryHolderSurvivesJavaSerialization() throws IOException, ClassNotFoundException {
+        RetryFSMHolder holder = new RetryFSMHolder(new HashMap<>())
+                .withRetries(3)
+                .withBackoff(200, 1_000)
+                .withNextAttempt();
+        holder.withService(CodecService.FIRST);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(holder);
+        }
+        RetryFSMHolder decoded;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            decoded = (RetryFSMHolder) in.readObject();
+        }
+
+        assertEquals(3, decoded.getRetries());
+        assertEquals(1, decoded.getAttempt());
+        assertEquals(200, decoded.getLastDelay());
+        assertSame(CodecService.FIRST, decoded.getService());
+    }
+
+    @Test
+    public void objectsShareClassDescriptorsAndReferences() throws IOException {
+        List<Object> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            results.add(new Reply("reply-" + i, i));
+        ParallelBatch batch = new ParallelBatch(Collections.<Service>nCopies(results.size(), CodecService.FIRST),
+                Collections.nCopies(results.size(), null), null, false, results.size(), 0, null);
+        int separately = 0;
+        for (int i = 0; i < results.size(); i++) {
+            batch.sent(i, 1_000, 100);
+            batch.received(i, results.get(i));
+            separately += serialized(results.get(i)).length;
+        }
+        Reply shared = new Reply("shared", 0);
+
+        byte[] encoded = FSMHolderCodec.encode(new FSMHolder(new HashMap<>()).withStart(shared).withBody(shared).withBatch(batch));
+        FSMHolder decoded = FSMHolderCodec.decode(encoded, new HashMap<>());
+
+        // the class descriptor of Reply is written once instead of once per value
+        assertTrue(encoded.length + " >= " + separately, encoded.length < separately);
+        assertSame(decoded.getStart(), decoded.getBody());
+        assertEquals("reply-9", decoded.getBatch().<Reply>getResult(9).text);
+    }
+
+    private static byte[] serialized(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String repeat(String value, int times) {
+        StringBuilder builder = new StringBuilder(value.length() * times);
+        for (int i = 0; i < times; i++)
+            builder.append(value);
+        return builder.toString();
+    }
+
+    private static final class Reply implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String text;
+        private final int code;
+
+        Reply(String text, int code) {
+            this.text = text;
+            this.code = code;
+        }
+    }
+
+    enum CodecService implements Service {
+        FIRST, SECOND;
+
+        @Override
+        public String service() {
+            return "codec-" + name();
+        }
+
+        @Override
+        public String method() {
+            return "method";
+        }
+
+        @Override
+        public int timeout() {
+            return 1_000;
+        }
+
+        @Override
+        public int retries() {
+            return 0;
+        }
+    }
+}
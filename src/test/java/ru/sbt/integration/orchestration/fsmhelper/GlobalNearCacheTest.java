@@ -0,0 +1,70 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class GlobalNearCacheTest {
+
+    private static final String SERVICE = "scenario";
+
+    private final AtomicInteger loads = new AtomicInteger();
+    private final Function<String, Object> absent = key -> {
+        loads.incrementAndGet();
+        return null;
+    };
+
+    @Test
+    public void missIsCachedForTtl() throws InterruptedException {
+        GlobalNearCache cache = new GlobalNearCache(10, 30);
+
+        assertNull(cache.getOrLoad(SERVICE, "key", absent));
+        assertNull(cache.getOrLoad(SERVICE, "key", absent));
+        assertNull(cache.get(SERVICE, "key"));
+        assertEquals(1, loads.get());
+
+        Thread.sleep(40);
+        assertNull(cache.getOrLoad(SERVICE, "key", absent));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void putReplacesCachedMiss() {
+        GlobalNearCache cache = new GlobalNearCache(10, 60_000);
+
+        assertNull(cache.getOrLoad(SERVICE, "key", absent));
+        cache.put(SERVICE, "key", "value", 0);
+
+        assertEquals("value", cache.getOrLoad(SERVICE, "key", absent));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void keysOfDifferentScenariosAreSeparate() {
+        GlobalNearCache cache = new GlobalNearCache(10, 60_000);
+
+        cache.put(SERVICE, "key", "value", 0);
+
+        assertNull(cache.getOrLoad("other", "key", absent));
+        assertEquals("value", cache.get(SERVICE, "key"));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void staleLoadDoesNotOverwritePut() {
+        GlobalNearCache cache = new GlobalNearCache(10, 60_000);
+
+        Object loaded = cache.getOrLoad(SERVICE, "key", key -> {
+            // another transaction saves a newer value while the old one is being read
+            cache.put(SERVICE, key, "new", 0);
+            return "old";
+        });
+
+        assertEquals("new", loaded);
+        assertEquals("new", cache.get(SERVICE, "key"));
+    }
+}
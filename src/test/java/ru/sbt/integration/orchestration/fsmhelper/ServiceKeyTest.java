@@ -0,0 +1,54 @@
+package ru.sbt.integration.orchestration.fsmhelper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ServiceKeyTest {
+
+    @Test
+    public void enumServiceKeyIsCreatedOnce() {
+        assertSame(ServiceKey.of(ServiceImpl.REMOTE_API_SAMPLE), ServiceKey.of(ServiceImpl.REMOTE_API_SAMPLE));
+        assertEquals("remoteApiSample.doSomeWork", ServiceKey.of(ServiceImpl.REMOTE_API_SAMPLE).toString());
+    }
+
+    @Test
+    public void otherServicesWithSameNameGetEqualKeys() {
+        ServiceKey key = ServiceKey.of(new NamedService("service-key-test"));
+        ServiceKey other = ServiceKey.of(new NamedService("service-key-test"));
+
+        assertNotSame(key, other);
+        assertEquals(key, other);
+        assertEquals(key.hashCode(), other.hashCode());
+    }
+
+    private static final class NamedService implements Service {
+        private final String service;
+
+        NamedService(String service) {
+            this.service = service;
+        }
+
+        @Override
+        public String service() {
+            return service;
+        }
+
+        @Override
+        public String method() {
+            return "method";
+        }
+
+        @Override
+        public int timeout() {
+            return 1_000;
+        }
+
+        @Override
+        public int retries() {
+            return 0;
+        }
+    }
+}
\ No newline at end of file